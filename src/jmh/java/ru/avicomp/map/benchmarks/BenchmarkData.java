@@ -0,0 +1,148 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package ru.avicomp.map.benchmarks;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.compose.Union;
+import org.topbraid.spin.vocabulary.SP;
+import org.topbraid.spin.vocabulary.SPINMAP;
+import ru.avicomp.map.MapContext;
+import ru.avicomp.map.MapFunction;
+import ru.avicomp.map.MapManager;
+import ru.avicomp.map.MapModel;
+import ru.avicomp.map.spin.vocabulary.AVC;
+import ru.avicomp.map.spin.vocabulary.SPINMAPL;
+import ru.avicomp.map.tests.InfrPerfTester;
+import ru.avicomp.ontapi.OntManagers;
+import ru.avicomp.ontapi.OntologyManager;
+import ru.avicomp.ontapi.jena.model.OntClass;
+import ru.avicomp.ontapi.jena.model.OntGraphModel;
+import ru.avicomp.ontapi.jena.model.OntNDP;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The data for benchmarks: the source and the target ontologies from the {@link InfrPerfTester}
+ * and a mapping of the specified {@link Shape}.
+ * <p>
+ * Created by @ssz on 28.06.2019.
+ */
+public class BenchmarkData {
+    static final String SOURCE_NS = "http://source.avicomp.ru#";
+
+    final MapManager manager;
+    final OntGraphModel source;
+    final OntGraphModel target;
+    final MapModel mapping;
+
+    BenchmarkData(MapManager manager, Shape shape, int individuals) {
+        OntologyManager m = OntManagers.createONT();
+        this.manager = manager;
+        this.target = InfrPerfTester.createTargetModel(m);
+        this.source = InfrPerfTester.createSourceModel(m, individuals);
+        this.mapping = shape.compose(manager, source, target);
+    }
+
+    /**
+     * Returns the raw source data (without schema).
+     *
+     * @return {@link Graph}
+     */
+    Graph data() {
+        return ((Union) source.getBaseGraph()).getR();
+    }
+
+    OntNDP targetProperty() {
+        return target.dataProperties().findFirst().orElseThrow(IllegalStateException::new);
+    }
+
+    MapContext context() {
+        return mapping.contexts().findFirst().orElseThrow(IllegalStateException::new);
+    }
+
+    /**
+     * Creates a {@code spinmapl:concatWithSeparator} call for the two source properties.
+     *
+     * @return {@link MapFunction.Call}
+     */
+    MapFunction.Call concat() {
+        return Shape.SELF_CONCAT.property(manager, source.dataProperties().collect(Collectors.toList()));
+    }
+
+    /**
+     * The kinds of mapping rules.
+     */
+    public enum Shape {
+        /**
+         * {@code spinmapl:self} target function, {@code spinmapl:concatWithSeparator} property bridge.
+         */
+        SELF_CONCAT {
+            @Override
+            MapFunction.Call target(MapManager manager) {
+                return manager.getFunction(SPINMAPL.self).create().build();
+            }
+        },
+        /**
+         * {@code avc:UUID} target function, {@code spinmapl:concatWithSeparator} property bridge.
+         */
+        UUID_CONCAT {
+            @Override
+            MapFunction.Call target(MapManager manager) {
+                return manager.getFunction(AVC.UUID).create().build();
+            }
+        },
+        /**
+         * {@code spinmapl:self} target function, {@code spinmap:equals} property bridge.
+         */
+        SELF_EQUALS {
+            @Override
+            MapFunction.Call target(MapManager manager) {
+                return SELF_CONCAT.target(manager);
+            }
+
+            @Override
+            MapFunction.Call property(MapManager manager, List<OntNDP> sourceProperties) {
+                return manager.getFunction(SPINMAP.equals).create().addProperty(SP.arg1, sourceProperties.get(0)).build();
+            }
+        },
+        ;
+
+        abstract MapFunction.Call target(MapManager manager);
+
+        MapFunction.Call property(MapManager manager, List<OntNDP> sourceProperties) {
+            return manager.getFunction(SPINMAPL.concatWithSeparator).create()
+                    .addProperty(SP.arg1, sourceProperties.get(0))
+                    .addProperty(SP.arg2, sourceProperties.get(1))
+                    .addLiteral(SPINMAPL.separator, ", ").build();
+        }
+
+        MapModel compose(MapManager manager, OntGraphModel source, OntGraphModel target) {
+            OntClass sourceClass = source.classes().findFirst().orElseThrow(IllegalStateException::new);
+            OntClass targetClass = target.classes().findFirst().orElseThrow(IllegalStateException::new);
+            List<OntNDP> sourceProperties = source.dataProperties().collect(Collectors.toList());
+            OntNDP targetProperty = target.dataProperties().findFirst().orElseThrow(IllegalStateException::new);
+            MapModel res = manager.createMapModel();
+            res.createContext(sourceClass, targetClass, target(manager))
+                    .addPropertyBridge(property(manager, sourceProperties), targetProperty);
+            return res;
+        }
+    }
+}
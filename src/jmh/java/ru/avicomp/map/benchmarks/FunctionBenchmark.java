@@ -0,0 +1,144 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package ru.avicomp.map.benchmarks;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.expr.E_Function;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.sparql.function.FunctionFactory;
+import org.apache.jena.sparql.util.Context;
+import org.openjdk.jmh.annotations.*;
+import org.topbraid.spin.vocabulary.SPINMAP;
+import org.topbraid.spin.vocabulary.SPL;
+import ru.avicomp.map.spin.MapARQFactory;
+import ru.avicomp.map.spin.MapConfigImpl;
+import ru.avicomp.map.spin.MapManagerImpl;
+import ru.avicomp.map.spin.infer.InferenceEngineImpl;
+import ru.avicomp.map.spin.vocabulary.AVC;
+import ru.avicomp.map.spin.vocabulary.SPINMAPL;
+import ru.avicomp.map.utils.TestUtils;
+import ru.avicomp.ontapi.jena.UnionGraph;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures single function calls within the environment of the inference:
+ * the active graph is the query graph (the mapping, the library and the source data),
+ * the context is the execution context of the manager's {@link MapARQFactory}.
+ * The optimized functions ({@code spinmap:targetResource}, {@code spinmapl:concatWithSeparator},
+ * {@code spl:object}, {@code avc:UUID}) are called as {@link E_Function}s,
+ * a function with SPARQL body ({@code spl:subject}) is called directly through
+ * {@link MapARQFactory.ARQFunction#exec(Binding, ExprList, String, FunctionEnv)}.
+ * <p>
+ * Created by @ssz on 28.06.2019.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FunctionBenchmark {
+    private static final String SPL_SUBJECT = SPL.NS + "subject";
+
+    private final Binding binding = BindingFactory.binding();
+
+    private FunctionEnv env;
+    private Expr targetResource;
+    private Expr concatWithSeparator;
+    private Expr object;
+    private Expr uuid;
+    private MapARQFactory.ARQFunction subject;
+    private ExprList subjectArgs;
+
+    @Setup
+    public void setup() {
+        MapManagerImpl manager = (MapManagerImpl) TestUtils.withConfig(MapConfigImpl.INSTANCE);
+        BenchmarkData data = new BenchmarkData(manager, BenchmarkData.Shape.SELF_CONCAT, 100);
+        UnionGraph graph = new InferenceEngineImpl(data.mapping, manager).assembleQueryModel().getGraph();
+        graph.addGraph(data.data());
+        Context context = manager.getFactory().createExecutionContext();
+        this.env = new ExecutionContext(context, graph, DatasetGraphFactory.wrap(graph), QC.getFactory(context));
+
+        NodeValue individual = NodeValue.makeNode(NodeFactory.createURI(BenchmarkData.SOURCE_NS + "Individual-1"));
+        NodeValue property = NodeValue.makeNode(NodeFactory.createURI(BenchmarkData.SOURCE_NS + "sourceProperty1"));
+        NodeValue contextNode = NodeValue.makeNode(data.context().asResource().asNode());
+
+        this.targetResource = call(SPINMAP.targetResource, individual, contextNode);
+        this.concatWithSeparator = call(SPINMAPL.concatWithSeparator,
+                NodeValue.makeString("a"), NodeValue.makeString("b"), NodeValue.makeString(", "));
+        this.object = call(SPL.object, individual, property);
+        this.uuid = call(AVC.UUID, individual);
+
+        FunctionFactory f = manager.getFactory().getFunctionRegistry().get(SPL_SUBJECT);
+        if (!(f instanceof MapARQFactory.ARQFunction)) {
+            throw new IllegalStateException("Not a SPARQL-based function: " + f);
+        }
+        this.subject = (MapARQFactory.ARQFunction) f;
+        this.subjectArgs = new ExprList(Arrays.asList(property, NodeValue.makeString("val-1-1")));
+        // check everything is correct:
+        Node expected = individual.asNode();
+        Node actual = subject().asNode();
+        if (!expected.equals(actual) || !expected.equals(targetResource().asNode())) {
+            throw new IllegalStateException("Wrong result: " + actual);
+        }
+    }
+
+    private static Expr call(Resource function, Expr... args) {
+        return new E_Function(function.getURI(), new ExprList(Arrays.asList(args)));
+    }
+
+    @Benchmark
+    public NodeValue targetResource() {
+        return targetResource.eval(binding, env);
+    }
+
+    @Benchmark
+    public NodeValue concatWithSeparator() {
+        return concatWithSeparator.eval(binding, env);
+    }
+
+    @Benchmark
+    public NodeValue object() {
+        return object.eval(binding, env);
+    }
+
+    @Benchmark
+    public NodeValue uuid() {
+        return uuid.eval(binding, env);
+    }
+
+    @Benchmark
+    public NodeValue subject() {
+        return subject.exec(binding, subjectArgs, SPL_SUBJECT, env);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package ru.avicomp.map.benchmarks;
+
+import org.apache.jena.graph.Factory;
+import org.apache.jena.graph.Graph;
+import org.openjdk.jmh.annotations.*;
+import ru.avicomp.map.MapManager;
+import ru.avicomp.map.spin.MapConfigImpl;
+import ru.avicomp.map.utils.TestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the whole inference ({@link MapManager.InferenceEngine#run(Graph, Graph)})
+ * for different numbers of source individuals, different mapping shapes
+ * and with or without optimizations (see {@link MapConfigImpl#setAllOptimizations(boolean)}).
+ * Each invocation writes into a new empty target graph.
+ * <p>
+ * Created by @ssz on 28.06.2019.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class InferenceBenchmark {
+
+    @Param({"1000", "10000"})
+    public int individuals;
+
+    @Param({"SELF_CONCAT", "UUID_CONCAT", "SELF_EQUALS"})
+    public BenchmarkData.Shape shape;
+
+    @Param({"true", "false"})
+    public boolean optimize;
+
+    private MapManager.InferenceEngine engine;
+    private Graph source;
+
+    @Setup
+    public void setup() {
+        MapManager manager = TestUtils.withConfig(MapConfigImpl.INSTANCE.setAllOptimizations(optimize));
+        BenchmarkData data = new BenchmarkData(manager, shape, individuals);
+        this.engine = manager.getInferenceEngine(data.mapping);
+        this.source = data.data();
+    }
+
+    @Benchmark
+    public Graph run() {
+        Graph res = Factory.createGraphMem();
+        engine.run(source, res);
+        return res;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package ru.avicomp.map.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.avicomp.map.MapContext;
+import ru.avicomp.map.MapFunction;
+import ru.avicomp.map.PropertyBridge;
+import ru.avicomp.map.spin.MapConfigImpl;
+import ru.avicomp.map.utils.TestUtils;
+import ru.avicomp.ontapi.jena.model.OntNDP;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the mapping construction: validation of a function call against a context
+ * and adding (then deleting) a property bridge, which includes that validation.
+ * <p>
+ * Created by @ssz on 28.06.2019.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+
+    private MapContext context;
+    private MapFunction.Call call;
+    private OntNDP property;
+
+    @Setup
+    public void setup() {
+        BenchmarkData data = new BenchmarkData(TestUtils.withConfig(MapConfigImpl.INSTANCE),
+                BenchmarkData.Shape.SELF_CONCAT, 1);
+        this.context = data.context();
+        this.call = data.concat();
+        this.property = data.targetProperty();
+    }
+
+    @Benchmark
+    public MapContext validate() {
+        context.validate(call);
+        return context;
+    }
+
+    @Benchmark
+    public MapContext addPropertyBridge() {
+        PropertyBridge res = context.addPropertyBridge(call, property);
+        return context.deletePropertyBridge(res);
+    }
+}
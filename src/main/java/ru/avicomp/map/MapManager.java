@@ -19,12 +19,20 @@
 package ru.avicomp.map;
 
 import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphListener;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.shared.PrefixMapping;
 import ru.avicomp.ontapi.jena.model.OntGraphModel;
 
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Stream;
 
 /**
@@ -125,6 +133,38 @@ public interface MapManager {
      */
     InferenceEngine getInferenceEngine(MapModel mapping) throws MapJenaException;
 
+    /**
+     * Gets an engine to conduct incremental inference on top of the specified {@link MapModel Mapping Model}.
+     * Such an engine, after the first complete run, is able to update the target
+     * according to the changes in the source without recomputing everything.
+     * The default implementation throws an exception.
+     *
+     * @param mapping {@link MapModel}, not {@code null}
+     * @return {@link IncrementalInferenceEngine}, not {@code null}
+     * @throws MapJenaException in case the mapping is not ready for inference
+     *                          or the incremental inference is not supported
+     */
+    default IncrementalInferenceEngine getIncrementalInferenceEngine(MapModel mapping) throws MapJenaException {
+        throw new MapJenaException.Unsupported("Incremental inference is not supported by " + this);
+    }
+
+    /**
+     * Gets a prepared engine to conduct inference on top of the specified {@link MapModel Mapping Model}.
+     * Unlike {@link #getInferenceEngine(MapModel) a regular engine},
+     * a prepared engine compiles the mapping rules only once (on the first run)
+     * and reuses them until the mapping is changed,
+     * so it is intended to apply the same mapping to a lot of small data graphs.
+     * The engine is thread-safe: it can be run concurrently with different source and target graphs.
+     * The default implementation returns a regular engine.
+     *
+     * @param mapping {@link MapModel}, not {@code null}
+     * @return {@link InferenceEngine}, not {@code null}
+     * @throws MapJenaException in case the mapping is not ready for inference
+     */
+    default InferenceEngine getPreparedInferenceEngine(MapModel mapping) throws MapJenaException {
+        return getInferenceEngine(mapping);
+    }
+
     /**
      * Lists all available functions, that can be safely used in the API.
      *
@@ -215,6 +255,245 @@ public interface MapManager {
         default void run(Model source, Model target) throws MapJenaException {
             run(source.getGraph(), target.getGraph());
         }
+
+        /**
+         * Performs an inference operation over the data read from the {@code source} stream
+         * sending the result into the {@code target} stream.
+         * The source is not loaded into memory entirely,
+         * but is processed resource by resource, so it is expected to be grouped by subjects.
+         * Note that the mapping rules can see only the description of the current resource
+         * (plus the schema from the mapping), which is enough for the most of mappings.
+         * The default implementation throws an exception.
+         *
+         * @param source {@link InputStream} with data to infer, not {@code null}
+         * @param lang   {@link Lang} of the source, e.g. N-Triples, Turtle or RDF Thrift, not {@code null}
+         * @param target {@link StreamRDF} to write mapping results, not {@code null}
+         * @throws MapJenaException in case if something goes wrong or streaming is not supported
+         */
+        default void run(InputStream source, Lang lang, StreamRDF target) throws MapJenaException {
+            throw new MapJenaException.Unsupported("Streaming inference is not supported by " + this);
+        }
+
+        /**
+         * Starts an inference operation over the {@code source} data graph in the given {@code executor}
+         * and immediately returns a handle to monitor and to cancel it.
+         * The operation is the same as {@link #run(Graph, Graph)}.
+         * The cancellation is cooperative: once the {@link InferenceTask#future() future} is completed from outside
+         * (e.g. cancelled), the engine stops at the nearest check point (i.e. before the next individual),
+         * the triples that are already inferred are left in the {@code target}.
+         * The default implementation throws an exception.
+         *
+         * @param source   a graph with data to infer, not {@code null}
+         * @param target   a graph to write mapping results, not {@code null}
+         * @param executor {@link Executor} to run the inference, not {@code null}
+         * @return {@link InferenceTask}, not {@code null}
+         * @throws MapJenaException if the asynchronous inference is not supported
+         */
+        default InferenceTask runAsync(Graph source, Graph target, Executor executor) throws MapJenaException {
+            throw new MapJenaException.Unsupported("Asynchronous inference is not supported by " + this);
+        }
+
+        /**
+         * Returns the execution report of the last run of this engine, that has been performed by the calling thread.
+         * The report is empty, if collecting metrics is not enabled in the manager configuration.
+         * For an asynchronous run use {@link InferenceTask#report()}.
+         * The default implementation throws an exception.
+         *
+         * @return {@link InferenceReport}, not {@code null}
+         * @throws MapJenaException in case the engine has not been run yet or the metrics are not supported
+         */
+        default InferenceReport getReport() throws MapJenaException {
+            throw new MapJenaException.Unsupported("Metrics are not supported by " + this);
+        }
+    }
+
+    /**
+     * A handle of an asynchronous inference run, that provides the progress of the run.
+     * All the progress values are approximate, since they are changed concurrently.
+     *
+     * @see InferenceEngine#runAsync(Graph, Graph, Executor)
+     */
+    interface InferenceTask {
+
+        /**
+         * Returns the future, that is completed when the inference is finished.
+         * Cancelling (or completing) the future stops the inference.
+         *
+         * @return {@code CompletableFuture}, not {@code null}
+         */
+        CompletableFuture<Void> future();
+
+        /**
+         * Returns the number of individuals processed so far.
+         * Note that an individual may be counted more than once:
+         * if it belongs to several contexts or is processed both as a source and as a result of the dependent rules.
+         *
+         * @return long
+         */
+        long processed();
+
+        /**
+         * Returns the estimated number of source individuals,
+         * i.e. the number of class assertions that match the mapping contexts.
+         *
+         * @return long, or {@code -1} if it is not known yet
+         */
+        long total();
+
+        /**
+         * Returns the rule, that is being executed at the moment (or the last one executed).
+         *
+         * @return String, the rule label, or {@code null} if no rule has been run yet
+         */
+        String currentRule();
+
+        /**
+         * Returns the number of triples emitted into the target so far, including duplicates.
+         *
+         * @return long
+         */
+        long triples();
+
+        /**
+         * Returns the execution report of this run.
+         * Unlike the {@link InferenceEngine#getReport()}, it always belongs to this run,
+         * even if the engine is run concurrently.
+         * The default implementation throws an exception.
+         *
+         * @return {@link InferenceReport}, not {@code null}
+         * @throws MapJenaException in case the run has not been started yet or the metrics are not supported
+         */
+        default InferenceReport report() throws MapJenaException {
+            throw new MapJenaException.Unsupported("Metrics are not supported by " + this);
+        }
+
+        /**
+         * Requests the inference cancellation.
+         *
+         * @return {@code true} if the task has been cancelled by this call
+         * @see CompletableFuture#cancel(boolean)
+         */
+        default boolean cancel() {
+            return future().cancel(true);
+        }
+    }
+
+    /**
+     * The execution metrics of an inference run:
+     * where the time goes, split by mapping rules and by functions.
+     *
+     * @see InferenceEngine#getReport()
+     */
+    interface InferenceReport {
+
+        /**
+         * Lists the metrics of all mapping rules, that have been executed at least once.
+         *
+         * @return {@code Stream} of {@link Metric}s, the most expensive first
+         */
+        Stream<Metric> rules();
+
+        /**
+         * Lists the metrics of all functions, that have been called at least once.
+         * A function time includes the time of all nested function calls.
+         *
+         * @return {@code Stream} of {@link Metric}s, the most expensive first
+         */
+        Stream<Metric> functions();
+    }
+
+    /**
+     * Aggregated statistics of a rule or a function.
+     */
+    interface Metric {
+
+        /**
+         * Returns the name of the measured object:
+         * a rule label (or a query string) or a function URI.
+         *
+         * @return String
+         */
+        String name();
+
+        /**
+         * Returns the number of invocations.
+         *
+         * @return long
+         */
+        long count();
+
+        /**
+         * Returns the cumulative time of all invocations in nanoseconds.
+         *
+         * @return long
+         */
+        long totalNanos();
+
+        /**
+         * Returns an approximate (up to 25% above the exact value) latency percentile in nanoseconds.
+         *
+         * @param quantile double in range {@code (0, 1]}, e.g. {@code 0.99}
+         * @return long
+         */
+        long percentileNanos(double quantile);
+
+        /**
+         * Returns the number of triples produced by all invocations.
+         * Always {@code 0} for a function.
+         *
+         * @return long
+         */
+        long triples();
+    }
+
+    /**
+     * An {@link InferenceEngine} that is able to maintain the inference result incrementally.
+     * The {@link #run(Graph, Graph)} method performs the complete inference
+     * and remembers the source and the target graphs, and also what data each mapping rule has read
+     * while producing each target triple.
+     * After that, when the source graph is changed, only the affected rule-individual pairs are recomputed,
+     * the stale triples are retracted from the target, and the new ones are added.
+     * Triples that had been in the target before the first run are never retracted.
+     * An engine instance is stateful and is not thread-safe.
+     *
+     * @see #getIncrementalInferenceEngine(MapModel)
+     */
+    interface IncrementalInferenceEngine extends InferenceEngine {
+
+        /**
+         * Updates the target according to the given source changes.
+         * The changes must be already applied to the source graph that has been passed to the last
+         * {@link #run(Graph, Graph)} call.
+         *
+         * @param added   {@code Collection} of {@link Triple}s that have been added to the source, not {@code null}
+         * @param removed {@code Collection} of {@link Triple}s that have been removed from the source, not {@code null}
+         * @throws MapJenaException in case the engine has not been run yet or something goes wrong
+         */
+        void update(Collection<Triple> added, Collection<Triple> removed) throws MapJenaException;
+
+        /**
+         * Returns a listener that collects all changes of the source graph.
+         * The listener is registered on the source graph while {@link #run(Graph, Graph)}.
+         * The collected changes are applied by the {@link #update()} method.
+         * Inference is not performed directly while graph event handling, since the source may be in the middle
+         * of a bulk modification.
+         *
+         * @return {@link GraphListener}
+         */
+        GraphListener getListener();
+
+        /**
+         * Applies all the source changes, that have been collected by the {@link #getListener() listener}
+         * since the last update.
+         *
+         * @throws MapJenaException in case the engine has not been run yet or something goes wrong
+         */
+        void update() throws MapJenaException;
+
+        /**
+         * Unregisters the listener and releases all the data collected by the engine.
+         */
+        void close();
     }
 
 }
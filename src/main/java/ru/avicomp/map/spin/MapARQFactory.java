@@ -18,6 +18,9 @@
 
 package ru.avicomp.map.spin;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.enhanced.UnsupportedPolymorphismException;
 import org.apache.jena.graph.Graph;
@@ -29,12 +32,17 @@ import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.shared.PrefixMapping;
+import org.apache.jena.sparql.algebra.Algebra;
+import org.apache.jena.sparql.algebra.Op;
+import org.apache.jena.sparql.algebra.OpVars;
+import org.apache.jena.sparql.algebra.OpVisitorBase;
+import org.apache.jena.sparql.algebra.walker.Walker;
 import org.apache.jena.sparql.core.*;
 import org.apache.jena.sparql.engine.binding.Binding;
-import org.apache.jena.sparql.expr.Expr;
-import org.apache.jena.sparql.expr.ExprEvalException;
-import org.apache.jena.sparql.expr.ExprList;
-import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.binding.BindingUtils;
+import org.apache.jena.sparql.expr.*;
 import org.apache.jena.sparql.function.Function;
 import org.apache.jena.sparql.function.FunctionEnv;
 import org.apache.jena.sparql.function.FunctionFactory;
@@ -43,6 +51,9 @@ import org.apache.jena.sparql.pfunction.PropertyFunction;
 import org.apache.jena.sparql.pfunction.PropertyFunctionFactory;
 import org.apache.jena.sparql.pfunction.PropertyFunctionRegistry;
 import org.apache.jena.sparql.serializer.SerializationContext;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementBind;
+import org.apache.jena.sparql.syntax.ElementGroup;
 import org.apache.jena.sparql.sse.SSE;
 import org.apache.jena.sparql.util.Context;
 import org.apache.jena.sparql.util.ExprUtils;
@@ -52,14 +63,15 @@ import org.apache.jena.update.UpdateRequest;
 import org.topbraid.spin.vocabulary.SP;
 import org.topbraid.spin.vocabulary.SPIN;
 import ru.avicomp.map.MapJenaException;
+import ru.avicomp.map.spin.infer.InferenceMetrics;
+import ru.avicomp.map.spin.vocabulary.AVC;
+import ru.avicomp.ontapi.jena.utils.Models;
 
 import java.io.ByteArrayOutputStream;
-import java.lang.reflect.Field;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.Arrays;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An extended spin implementation, that is tightly bound with the {@link Context Jena Context}.
@@ -75,16 +87,91 @@ import java.util.concurrent.ConcurrentHashMap;
 @SuppressWarnings({"WeakerAccess", "unused", "UnusedReturnValue"})
 public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
     /**
-     * A cache-key to hold {@code Map<Node, NodeValue>} map.
+     * A cache-key to hold {@code Cache<Node, NodeValue>} cache.
+     * The factory context contains a default cache, which is used outside of inference,
+     * while each inference run puts its own instance into its execution context,
+     * see {@link #createNodeValueCache()}.
      *
      * @see ru.avicomp.map.spin.functions.avc.UUID
      */
     public static final Symbol NODE_TO_VALUE_CACHE = Symbol.create(MapARQFactory.class.getName() + ".NodesCache");
+    /**
+     * A cache-key to hold {@code Cache<Node, Expr>} cache,
+     * that maps an anonymous SPIN expression to the compiled ARQ expression.
+     * The factory context contains a single instance, see {@link #createExpressionCache()},
+     * which is cleared on any change in the mapping graphs or in the library, see {@link #invalidateExpressions()}.
+     *
+     * @see SpinExpressions#get(Graph, Node, Context)
+     */
+    public static final Symbol EXPRESSION_CACHE = Symbol.create(MapARQFactory.class.getName() + ".ExpressionsCache");
+    /**
+     * A context-key to hold the individual ({@link Node}), which is currently being processed by the inference.
+     *
+     * @see ru.avicomp.map.spin.functions.avc.currentIndividual
+     */
+    public static final Symbol CURRENT_INDIVIDUAL = Symbol.create(MapARQFactory.class.getName() + ".CurrentIndividual");
+    /**
+     * A context-key to hold the {@link InferenceMetrics metrics} collector of the inference run.
+     * It is present only if the metrics are enabled, otherwise functions are not measured.
+     *
+     * @see MapConfigImpl#inferenceMetrics()
+     */
+    public static final Symbol METRICS = Symbol.create(MapARQFactory.class.getName() + ".Metrics");
+    /**
+     * A context-key to hold the {@link MapARQFactory factory}, which owns the context.
+     * A function, that is inherited from the parent factory, uses it to find the registry
+     * and the caches of the factory it is called from, see {@link #createOverlayFactory()}.
+     */
+    public static final Symbol FACTORY = Symbol.create(MapARQFactory.class.getName() + ".Factory");
+    /**
+     * The maximum number of results to remember for each deterministic SPARQL-based function.
+     *
+     * @see ARQFunction#isDeterministic()
+     */
+    public static final int FUNCTION_RESULTS_CACHE_SIZE = 10_000;
+    /**
+     * The maximum number of entries in each of the factory caches:
+     * command node to string, query string to parsed query, update string to parsed update request.
+     */
+    public static final int COMMAND_CACHE_SIZE = 10_000;
+    /**
+     * The maximum number of entries in a {@link #NODE_TO_VALUE_CACHE} cache.
+     */
+    public static final int NODE_TO_VALUE_CACHE_SIZE = 50_000;
+    /**
+     * The maximum number of entries in the {@link #EXPRESSION_CACHE} cache.
+     */
+    public static final int EXPRESSION_CACHE_SIZE = 10_000;
+    /**
+     * The functions, whose results depend on the individual that is currently being processed,
+     * while it is not passed through the arguments.
+     * A SPARQL-based function, that calls any of them, also depends on the current individual ({@code ?this}).
+     *
+     * @see ARQFunction#dependsOnThis()
+     */
+    protected static final Set<String> THIS_DEPENDENT_FUNCTIONS = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList(AVC.currentIndividual.getURI(),
+                    SPIN.eval.getURI(), SPIN.evalInGraph.getURI(), SPIN.ask.getURI())));
 
     private final Context context;
+    // own caches instead of the unbounded and not thread-safe ones from the superclass:
+    private final Cache<Node, String> commandStrings = createCommandCache();
+    private final Cache<String, Query> queries = createCommandCache();
+    private final Cache<String, UpdateRequest> updates = createCommandCache();
+    // the version of the function library, all function results are forgotten once it is changed:
+    private final AtomicLong libraryVersion = new AtomicLong();
+    // the states (memorized results, bound bodies) of the functions inherited from the parent factory:
+    private final Cache<ARQFunction, ARQFunction.State> inheritedStates = Caffeine.newBuilder().weakKeys().build();
 
     public MapARQFactory(Context context) {
         this.context = Objects.requireNonNull(context, "Null context");
+        this.context.put(FACTORY, this);
+        // turn off the superclass caches:
+        setUseCaches(false);
+    }
+
+    private static <K, V> Cache<K, V> createCommandCache() {
+        return Caffeine.newBuilder().maximumSize(COMMAND_CACHE_SIZE).recordStats().build();
     }
 
     /**
@@ -108,10 +195,55 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
         properties.forEach(pfr::put);
 
         // a cache to be use while processing some target functions (e.g. avc:UUID):
-        context.put(NODE_TO_VALUE_CACHE, new ConcurrentHashMap<>());
+        context.put(NODE_TO_VALUE_CACHE, createNodeValueCache());
+        // compiled spin:eval expressions, shared between all runs:
+        context.put(EXPRESSION_CACHE, createExpressionCache());
         return new MapARQFactory(context);
     }
 
+    /**
+     * Creates a fresh bounded thread-safe cache to be stored in a {@link Context} under the
+     * {@link #NODE_TO_VALUE_CACHE} key.
+     * The least valuable entries are evicted once the size exceeds the {@link #NODE_TO_VALUE_CACHE_SIZE limit}.
+     *
+     * @return {@link Cache} with statistics recording
+     */
+    public static Cache<Node, NodeValue> createNodeValueCache() {
+        return Caffeine.newBuilder().maximumSize(NODE_TO_VALUE_CACHE_SIZE).recordStats().build();
+    }
+
+    /**
+     * Creates a fresh bounded thread-safe cache to be stored in a {@link Context} under the
+     * {@link #EXPRESSION_CACHE} key.
+     *
+     * @return {@link Cache} with statistics recording
+     */
+    public static Cache<Node, Expr> createExpressionCache() {
+        return Caffeine.newBuilder().maximumSize(EXPRESSION_CACHE_SIZE).recordStats().build();
+    }
+
+    /**
+     * Creates a new factory, that shares all functions and property functions with this one.
+     * The registries of the returned factory are copy-on-write overlays:
+     * any registration or removal affects only the new factory, while this factory is left untouched.
+     * The new factory has its own caches, and does not share the function results with this factory.
+     * A function, which is taken from this factory, resolves the functions called from its body
+     * through the registry of the factory it is called from (see {@link #FACTORY}),
+     * so the overridden functions are respected,
+     * and keeps its memorized results and its bound body separately for each such factory.
+     *
+     * @return {@link MapARQFactory}, not {@code null}
+     * @see OverlayFunctionRegistry
+     * @see OverlayPropertyFunctionRegistry
+     */
+    public MapARQFactory createOverlayFactory() {
+        Context res = createContext(context, new OverlayFunctionRegistry(getFunctionRegistry()),
+                new OverlayPropertyFunctionRegistry(getPropertyFunctionRegistry()));
+        res.put(NODE_TO_VALUE_CACHE, createNodeValueCache());
+        res.put(EXPRESSION_CACHE, createExpressionCache());
+        return new MapARQFactory(res);
+    }
+
     /**
      * Creates a deep copy of the specified {@link Context}.
      *
@@ -119,8 +251,10 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
      * @return {@link Context} new instance with the same content as in the given context
      */
     public static Context copyContext(Context from) {
-        FunctionRegistry fr = copy(FunctionRegistry.get(from));
-        PropertyFunctionRegistry pfr = copy(PropertyFunctionRegistry.get(from));
+        return createContext(from, copy(FunctionRegistry.get(from)), copy(PropertyFunctionRegistry.get(from)));
+    }
+
+    private static Context createContext(Context from, FunctionRegistry fr, PropertyFunctionRegistry pfr) {
         Context res = new Context(from) {
 
             @Override
@@ -185,42 +319,100 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
         return PropertyFunctionRegistry.get(context);
     }
 
+    /**
+     * Creates a new {@link Context} to be used while a single inference execution.
+     * The returned context shares all content (function registries, caches) with this factory context,
+     * but may hold its own execution-specific symbols, e.g. {@link #CURRENT_INDIVIDUAL}.
+     *
+     * @return {@link Context}, not {@code null}
+     * @see #getDataset(Model, Context)
+     */
+    public Context createExecutionContext() {
+        return context.copy();
+    }
+
     @Override
     public Dataset getDataset(Model m) {
+        return getDataset(m, context);
+    }
+
+    /**
+     * Wraps the given model as a {@link Dataset} that is bound to the specified {@link Context}.
+     * The context is passed to all {@link QueryExecution}s created over the dataset,
+     * including the nested ones (i.e. calls of SPARQL-based functions).
+     *
+     * @param m   {@link Model} to wrap, not {@code null}
+     * @param ctx {@link Context}, not {@code null}
+     * @return {@link Dataset}
+     */
+    public Dataset getDataset(Model m, Context ctx) {
+        Objects.requireNonNull(ctx, "Null context");
         DatasetGraph dg = new DatasetGraphMapLink(m.getGraph()) {
             @Override
             public Context getContext() {
-                return context;
+                return ctx;
             }
         };
         return DatasetFactory.wrap(dg);
     }
 
-    @SuppressWarnings("unchecked")
-    private <O> O getPrivateField(String name) {
-        try {
-            Field f = org.topbraid.spin.arq.ARQFactory.class.getDeclaredField(name);
-            f.setAccessible(true);
-            return (O) f.get(this);
-        } catch (NoSuchFieldException | IllegalAccessException | ClassCastException e) {
-            throw new IllegalStateException("Can access field " + name, e);
-        }
+    @Override
+    public String createCommandString(org.topbraid.spin.model.Command command) {
+        return commandStrings.get(command.asNode(), n -> super.createCommandString(command));
     }
 
-    protected Map<Node, String> node2String() {
-        return getPrivateField("node2String");
+    @Override
+    public Query createQuery(String queryString) {
+        return queries.get(queryString, super::doCreateQuery);
     }
 
-    protected Map<String, Query> string2Query() {
-        return getPrivateField("string2Query");
+    @Override
+    public UpdateRequest createUpdateRequest(String updateString) {
+        return updates.get(updateString, super::createUpdateRequest);
     }
 
-    protected Map<String, UpdateRequest> string2Update() {
-        return getPrivateField("string2Update");
+    @Override
+    public void clearCaches() {
+        super.clearCaches();
+        commandStrings.invalidateAll();
+        queries.invalidateAll();
+        updates.invalidateAll();
+    }
+
+    /**
+     * Returns statistics of the cache, which maps SPIN command nodes to their string representations.
+     *
+     * @return {@link CacheStats}
+     */
+    public CacheStats getCommandStringCacheStats() {
+        return commandStrings.stats();
+    }
+
+    /**
+     * Returns statistics of the cache, which maps query strings to parsed ARQ queries.
+     *
+     * @return {@link CacheStats}
+     */
+    public CacheStats getQueryCacheStats() {
+        return queries.stats();
+    }
+
+    /**
+     * Returns statistics of the cache, which maps update strings to parsed ARQ update requests.
+     *
+     * @return {@link CacheStats}
+     */
+    public CacheStats getUpdateCacheStats() {
+        return updates.stats();
     }
 
     /**
      * Auxiliary method to replace ARQ implementation in runtime.
+     * Only the cached strings of the function body are forgotten:
+     * parsed queries are keyed by their text and therefore still valid.
+     * Also, only the functions and the compiled expressions, that call the replaced function,
+     * either directly or through other functions, forget their memorized results and bound function instances,
+     * see {@link #invalidateDependents(String)}.
      *
      * @param inModel {@link Resource} that has {@code rdf:type = spin:Function} in a model
      *                with {@link SpinModelConfig#LIB_PERSONALITY Spin Personality} attached.
@@ -228,8 +420,102 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
      */
     public void replace(Resource inModel) throws UnsupportedPolymorphismException {
         org.topbraid.spin.model.Function func = inModel.as(org.topbraid.spin.model.Function.class);
-        clearCaches();
+        Resource body = func.getPropertyResourceValue(SPIN.body);
+        if (body != null) {
+            commandStrings.invalidate(body.asNode());
+            // nested commands (sub-queries):
+            Models.getAssociatedStatements(body).forEach(s -> commandStrings.invalidate(s.getSubject().asNode()));
+        }
         getFunctionRegistry().put(func.getURI(), asARQFunction(func));
+        invalidateDependents(func.getURI());
+    }
+
+    /**
+     * Makes all the functions, that call the function with the given URI directly or indirectly,
+     * forget their memorized results and compiled bodies,
+     * and evicts all the compiled SPIN expressions, that call any of these functions.
+     * Other functions and expressions are left untouched.
+     * Only the {@link ARQFunction#isParsed() parsed} functions are considered,
+     * since a function, that has not been parsed yet, has not been executed and has nothing to forget.
+     *
+     * @param uri String, the URI of the changed function
+     * @see #invalidateFunctionResults()
+     */
+    public void invalidateDependents(String uri) {
+        FunctionRegistry registry = getFunctionRegistry();
+        Map<String, ARQFunction> parsed = new HashMap<>();
+        registry.keys().forEachRemaining(k -> {
+            FunctionFactory f = registry.get(k);
+            if (f instanceof ARQFunction && ((ARQFunction) f).isParsed()) {
+                parsed.put(k, (ARQFunction) f);
+            }
+        });
+        Set<String> affected = new HashSet<>();
+        affected.add(uri);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<String, ARQFunction> e : parsed.entrySet()) {
+                if (!affected.contains(e.getKey()) && !Collections.disjoint(e.getValue().calls, affected)) {
+                    affected.add(e.getKey());
+                    changed = true;
+                }
+            }
+        }
+        affected.stream().map(parsed::get).filter(Objects::nonNull).forEach(f -> f.invalidate(this));
+        Cache<Node, Expr> cache = context.get(EXPRESSION_CACHE);
+        if (cache != null) {
+            cache.asMap().values().removeIf(e -> !Collections.disjoint(listFunctionCalls(e), affected));
+        }
+    }
+
+    /**
+     * Lists URIs of all the functions, that are called from the given expression,
+     * including calls from sub-queries ({@code EXISTS}, {@code NOT EXISTS}).
+     *
+     * @param expr {@link Expr}
+     * @return Set of URIs
+     */
+    public static Set<String> listFunctionCalls(Expr expr) {
+        Set<String> res = new HashSet<>();
+        Walker.walk(expr, new OpVisitorBase(), new FunctionCallCollector(res));
+        return res;
+    }
+
+    /**
+     * Returns the version of the function library, which is changed on any registration of a function.
+     *
+     * @return long
+     * @see #invalidateFunctionResults()
+     */
+    public long getLibraryVersion() {
+        return libraryVersion.get();
+    }
+
+    /**
+     * Makes all deterministic functions forget their memorized results.
+     * Must be called each time the function library is changed,
+     * since a function may call other functions, whose definitions are changed.
+     *
+     * @see ARQFunction#isDeterministic()
+     */
+    public void invalidateFunctionResults() {
+        libraryVersion.incrementAndGet();
+        // compiled expressions hold the bound function instances:
+        invalidateExpressions();
+    }
+
+    /**
+     * Forgets all compiled SPIN expressions.
+     * Must be called each time a mapping graph is changed.
+     *
+     * @see #EXPRESSION_CACHE
+     */
+    public void invalidateExpressions() {
+        Cache<?, ?> cache = context.get(EXPRESSION_CACHE);
+        if (cache != null) {
+            cache.invalidateAll();
+        }
     }
 
     /**
@@ -258,6 +544,7 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
             return null;
         }
         FunctionFactory res = asARQFunction(func);
+        invalidateFunctionResults();
         reg.put(func.getURI(), res);
         return res;
     }
@@ -302,6 +589,18 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
         return new ARQFunction(Objects.requireNonNull(func, "Null function"));
     }
 
+    /**
+     * Answers {@code true} if the results of the given function depend only on its arguments, and can be memorized.
+     *
+     * @param func {@link org.topbraid.spin.model.Function}
+     * @return boolean
+     * @see AVC#deterministic
+     * @see SPIN#cachable
+     */
+    public static boolean isDeterministic(org.topbraid.spin.model.Function func) {
+        return func.hasLiteral(AVC.deterministic, true) || func.hasLiteral(SPIN.cachable, true);
+    }
+
     /**
      * Wraps the given spin function as ARQ property function-factory.
      * Since we, in ONT-MAP API, do not care much about (magic) property functions
@@ -339,9 +638,18 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
      * in the original impl (and everywhere throughout the spin api library) there are calls of static factories,
      * which is a bad architectural solution, though usual for spin-api.
      * In contrast to the spin implementation
-     * it does not support {@code spin:cachable} and {@code spin:cachableForOntologies},
-     * since that constructions are unused in spin-map library and it does not make sense in our case -
-     * we'd better use our own caches if needed.
+     * it does not support {@code spin:cachableForOntologies}, and {@code spin:cachable} is handled in our own way:
+     * a function, that is marked either as {@code spin:cachable} or as {@link AVC#deterministic avc:deterministic},
+     * remembers its results in a bounded cache, keyed by the argument nodes
+     * (so it must not depend on anything else, e.g. on the data graph),
+     * and also by {@code ?this}, but only if the function {@link #dependsOnThis() depends} on it.
+     * The cache is dropped when the library is changed, see {@link #invalidateFunctionResults()}.
+     * The function can be shared between several factories (see {@link #createOverlayFactory()}):
+     * the called functions are always resolved through the registry of the calling factory,
+     * and the memorized results are kept per calling factory, see {@link State}.
+     * Also, a simple body (i.e. {@code SELECT (expr AS ?r) WHERE { BIND(...) ... }}) is compiled into
+     * a list of ARQ {@link Expr expressions}, which are evaluated directly, without any query execution,
+     * see {@link CompiledBody}.
      *
      * @see org.topbraid.spin.arq.SPINARQFunction
      */
@@ -350,17 +658,29 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
             org.topbraid.shacl.arq.OptionalArgsFunction,
             org.topbraid.spin.arq.SPINFunctionFactory {
 
+        // the parsed body and the arguments, they are initialized on demand, see #parse():
         protected org.apache.jena.query.Query query;
         protected List<org.topbraid.spin.model.Argument> args;
         protected String queryString;
+        // true if the body mentions ?this:
+        protected boolean usesThis;
+        // URIs of all functions, that are called from the body:
+        protected Set<String> calls;
+        // compiled (not bound) body or null if the query is not simple:
+        protected CompiledBody body;
+        private volatile boolean parsed;
 
         protected final org.topbraid.spin.model.Function spin;
         protected final org.topbraid.spin.system.SPINArgumentChecker argumentChecker;
         protected final org.topbraid.spin.statistics.SPINStatisticsManager statisticsManager;
+        protected final boolean deterministic;
+        // the state for calls from the factory, that has created this function:
+        protected final State own;
 
         /**
          * Constructs a new ARQFunction based on a given SPIN Function.
          * The spinFunction model be associated with the Model containing the triples of its definition.
+         * The function body is not parsed until the first call, see {@link #parse()}.
          *
          * @param spin the SPIN function
          */
@@ -375,19 +695,238 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
             this.argumentChecker = argumentChecker;
             this.statisticsManager = statistics;
             this.spin = spin;
-            this.args = spin.getArguments(true);
-            if (args.stream().map(org.topbraid.spin.model.Argument::getVarName).anyMatch(Objects::isNull)) {
-                throw new MapJenaException.IllegalArgument("Some of the function <" + spin.getURI() + "> " +
-                        "arguments have not a valid predicate");
+            this.deterministic = MapARQFactory.isDeterministic(spin);
+            this.own = new State(MapARQFactory.this);
+        }
+
+        /**
+         * Finds the factory, which the given environment belongs to.
+         *
+         * @param env {@link FunctionEnv}
+         * @return {@link MapARQFactory}, the factory that has created this function if there is no other
+         * @see #FACTORY
+         */
+        protected MapARQFactory getFactory(FunctionEnv env) {
+            Context ctx = env.getContext();
+            MapARQFactory res = ctx == null ? null : ctx.get(FACTORY);
+            return res == null ? MapARQFactory.this : res;
+        }
+
+        /**
+         * Returns the state of this function for calls from the given factory.
+         *
+         * @param factory {@link MapARQFactory}
+         * @return {@link State}
+         */
+        protected State getState(MapARQFactory factory) {
+            return factory == MapARQFactory.this ? own : factory.inheritedStates.get(this, f -> new State(factory));
+        }
+
+        /**
+         * Reads the arguments and parses the function body, if it has not been done yet.
+         * It is called on the first execution, but can be called explicitly to validate the function.
+         *
+         * @return this instance
+         * @throws MapJenaException.IllegalArgument if the function is not valid
+         */
+        public ARQFunction parse() throws MapJenaException.IllegalArgument {
+            if (parsed) {
+                return this;
             }
-            try {
-                org.topbraid.spin.model.Query spinQuery = (org.topbraid.spin.model.Query) spin.getBody();
-                queryString = MapARQFactory.this.createCommandString(spinQuery);
-                query = MapARQFactory.this.createQuery(queryString);
-            } catch (Exception ex) {
-                throw new MapJenaException.IllegalArgument("Function <" + spin.getURI() + "> " +
-                        "does not define a valid body", ex);
+            synchronized (this) {
+                if (parsed) {
+                    return this;
+                }
+                List<org.topbraid.spin.model.Argument> args = spin.getArguments(true);
+                if (args.stream().map(org.topbraid.spin.model.Argument::getVarName).anyMatch(Objects::isNull)) {
+                    throw new MapJenaException.IllegalArgument("Some of the function <" + spin.getURI() + "> " +
+                            "arguments have not a valid predicate");
+                }
+                this.args = args;
+                try {
+                    org.topbraid.spin.model.Query spinQuery = (org.topbraid.spin.model.Query) spin.getBody();
+                    queryString = MapARQFactory.this.createCommandString(spinQuery);
+                    query = MapARQFactory.this.createQuery(queryString);
+                } catch (Exception ex) {
+                    throw new MapJenaException.IllegalArgument("Function <" + spin.getURI() + "> " +
+                            "does not define a valid body", ex);
+                }
+                this.body = CompiledBody.compile(query, reservedVars());
+                collectDependencies(query);
+                parsed = true;
+            }
+            return this;
+        }
+
+        /**
+         * Collects the function calls and the {@code ?this} usages from the whole query,
+         * including sub-queries ({@code EXISTS}, {@code NOT EXISTS}).
+         *
+         * @param query {@link org.apache.jena.query.Query}
+         */
+        protected void collectDependencies(org.apache.jena.query.Query query) {
+            Var thisVar = Var.alloc(SPIN.THIS_VAR_NAME);
+            Set<String> calls = new HashSet<>();
+            boolean[] usesThis = new boolean[1];
+            Op op = Algebra.compile(query);
+            Walker.walk(op, new OpVisitorBase(), new FunctionCallCollector(calls) {
+                @Override
+                public void visit(ExprFunctionOp func) {
+                    super.visit(func);
+                    usesThis[0] |= OpVars.mentionedVars(func.getGraphPattern()).contains(thisVar);
+                }
+
+                @Override
+                public void visit(ExprVar var) {
+                    usesThis[0] |= thisVar.equals(var.asVar());
+                }
+            });
+            this.usesThis = usesThis[0] || OpVars.mentionedVars(op).contains(thisVar);
+            this.calls = Collections.unmodifiableSet(calls);
+        }
+
+        /**
+         * Answers {@code true} if the result of this function may depend on the current individual:
+         * either the body refers to {@code ?this},
+         * or it calls some function that depends on the individual (e.g. {@code spin:eval}),
+         * or it calls another SPARQL-based function with the same property.
+         * Only in this case {@code ?this} is a part of the memorized results key, see {@link #isDeterministic()}.
+         *
+         * @return boolean
+         * @see #THIS_DEPENDENT_FUNCTIONS
+         */
+        public boolean dependsOnThis() {
+            return dependsOnThis(MapARQFactory.this);
+        }
+
+        /**
+         * Answers {@code true} if the result of this function, being called from the given factory,
+         * may depend on the current individual.
+         *
+         * @param factory {@link MapARQFactory} to resolve the called functions
+         * @return boolean
+         * @see #dependsOnThis()
+         */
+        public boolean dependsOnThis(MapARQFactory factory) {
+            State state = getState(factory);
+            long version = factory.libraryVersion.get();
+            if (state.thisVersion != version) {
+                state.thisDependent = dependsOnThis(factory.getFunctionRegistry(), new HashSet<>());
+                state.thisVersion = version;
+            }
+            return state.thisDependent;
+        }
+
+        /**
+         * Calculates the dependency on {@code ?this} through the given registry.
+         *
+         * @param registry {@link FunctionRegistry} to find the called functions
+         * @param seen     Set of already visited {@link ARQFunction}s to prevent infinite recursion
+         * @return boolean
+         */
+        protected boolean dependsOnThis(FunctionRegistry registry, Set<ARQFunction> seen) {
+            parse();
+            if (usesThis) {
+                return true;
+            }
+            if (!seen.add(this)) {
+                return false;
+            }
+            for (String uri : calls) {
+                if (THIS_DEPENDENT_FUNCTIONS.contains(uri)) {
+                    return true;
+                }
+                FunctionFactory f = registry.get(uri);
+                if (f instanceof ARQFunction && ((ARQFunction) f).dependsOnThis(registry, seen)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Lists all variables that come from outside: {@code ?this} and arguments.
+         *
+         * @return Set of {@link Var}s
+         */
+        protected Set<Var> reservedVars() {
+            Set<Var> res = new HashSet<>();
+            res.add(Var.alloc(SPIN.THIS_VAR_NAME));
+            args.forEach(a -> res.add(Var.alloc(a.getVarName())));
+            return res;
+        }
+
+        /**
+         * Answers {@code true} if the function body is compiled into ARQ expressions,
+         * and therefore the function is calculated without a query engine.
+         *
+         * @return boolean
+         */
+        public boolean isCompiled() {
+            return parse().body != null;
+        }
+
+        /**
+         * Answers {@code true} if the function body has been already parsed.
+         *
+         * @return boolean
+         * @see #parse()
+         */
+        public boolean isParsed() {
+            return parsed;
+        }
+
+        /**
+         * Makes this function forget its memorized results for calls from the given factory
+         * and rebind the functions in the compiled body on the next call.
+         * It must be called when some of the functions, that are called from the body, is changed.
+         *
+         * @param factory {@link MapARQFactory}, where the change happened
+         * @see #invalidateDependents(String)
+         */
+        public void invalidate(MapARQFactory factory) {
+            getState(factory).invalidate();
+        }
+
+        /**
+         * Returns the number of currently memorized results for calls from the factory, that has created this function.
+         *
+         * @return long, always {@code 0} for a non-deterministic function
+         * @see #isDeterministic()
+         */
+        public long cachedResults() {
+            return cachedResults(MapARQFactory.this);
+        }
+
+        /**
+         * Returns the number of currently memorized results for calls from the given factory.
+         *
+         * @param factory {@link MapARQFactory}
+         * @return long, always {@code 0} for a non-deterministic function
+         */
+        public long cachedResults(MapARQFactory factory) {
+            Cache<?, ?> res = getState(factory).results;
+            return res == null ? 0 : res.estimatedSize();
+        }
+
+        /**
+         * Returns the compiled body with all functions bound to the current state of the library of the given factory.
+         *
+         * @param factory {@link MapARQFactory} to resolve the called functions
+         * @return {@link CompiledBody} or {@code null}
+         */
+        protected CompiledBody getCompiledBody(MapARQFactory factory) {
+            CompiledBody res = body;
+            if (res == null) {
+                return null;
+            }
+            State state = getState(factory);
+            long version = factory.libraryVersion.get();
+            CompiledBody bound = state.body;
+            if (bound == null || bound.version != version) {
+                state.body = bound = res.copy(version, factory.context);
             }
+            return bound;
         }
 
         @Override
@@ -404,15 +943,50 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
                               ExprList args,
                               String uri,
                               FunctionEnv env) throws ExprEvalException {
+            InferenceMetrics metrics = env.getContext() == null ? null : env.getContext().get(METRICS);
+            if (metrics == null) {
+                return call(binding, args, uri, env);
+            }
+            long start = System.nanoTime();
+            try {
+                return call(binding, args, uri, env);
+            } finally {
+                metrics.functionExecuted(uri, System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Calls the function: evaluates the arguments and returns either a memorized result or executes the body.
+         *
+         * @param binding {@link Binding}
+         * @param args    {@link ExprList}
+         * @param uri     String
+         * @param env     {@link FunctionEnv}
+         * @return {@link NodeValue}
+         * @throws ExprEvalException if the execution fails
+         */
+        protected NodeValue call(Binding binding,
+                                 ExprList args,
+                                 String uri,
+                                 FunctionEnv env) throws ExprEvalException {
+            parse();
             Graph activeGraph = env.getActiveGraph();
             Model model = activeGraph != null ?
                     ModelFactory.createModelForGraph(activeGraph) : ModelFactory.createDefaultModel();
+            MapARQFactory factory = getFactory(env);
+            State state = getState(factory);
+            Cache<List<Node>, NodeValue> results = state.results;
 
             QuerySolutionMap bindings = new QuerySolutionMap();
+            // the key for the results cache: ?this (if it is used) and all arguments:
+            Node[] nodes = results == null ? null : new Node[args.size() + 1];
             Node t = binding.get(Var.alloc(SPIN.THIS_VAR_NAME));
             if (t != null) {
                 bindings.add(SPIN.THIS_VAR_NAME, model.asRDFNode(t));
             }
+            if (nodes != null && dependsOnThis(factory)) {
+                nodes[0] = t;
+            }
 
             for (int i = 0; i < args.size(); i++) {
                 Expr expr = args.get(i);
@@ -430,16 +1004,65 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
                     argName = SP.ARG + (i + 1);
                 }
                 bindings.add(argName, model.asRDFNode(x.asNode()));
+                if (nodes != null) {
+                    nodes[i + 1] = x.asNode();
+                }
             }
 
             if (argumentChecker != null) {
                 argumentChecker.check(spin, bindings);
             }
-            Dataset dataset = DatasetImpl.wrap(env.getDataset());
+            if (results == null) {
+                return execute(binding, args, uri, env, model, bindings);
+            }
+            List<Node> key = Arrays.asList(nodes);
+            long version = factory.libraryVersion.get();
+            if (state.resultsVersion != version) {
+                results.invalidateAll();
+                state.resultsVersion = version;
+            }
+            NodeValue res = results.getIfPresent(key);
+            if (res != null) {
+                return res;
+            }
+            res = execute(binding, args, uri, env, model, bindings);
+            if (factory.libraryVersion.get() == version) {
+                results.put(key, res);
+            }
+            return res;
+        }
+
+        /**
+         * Answers {@code true} if this function remembers its results.
+         *
+         * @return boolean
+         */
+        public boolean isDeterministic() {
+            return deterministic;
+        }
+
+        /**
+         * Executes the function body, recording statistics if it is turned on.
+         *
+         * @param binding  {@link Binding}
+         * @param args     {@link ExprList}
+         * @param uri      String
+         * @param env      {@link FunctionEnv}
+         * @param model    {@link Model}, the default model to run the body
+         * @param bindings {@link QuerySolutionMap} with the evaluated arguments
+         * @return {@link NodeValue}
+         * @throws ExprEvalException if the execution fails
+         */
+        protected NodeValue execute(Binding binding,
+                                    ExprList args,
+                                    String uri,
+                                    FunctionEnv env,
+                                    Model model,
+                                    QuerySolutionMap bindings) throws ExprEvalException {
             if (statisticsManager == null
                     || !statisticsManager.isRecording()
                     || !statisticsManager.isRecordingSPINFunctions()) {
-                return executeBody(dataset, model, bindings);
+                return evaluateBody(env, model, bindings);
             }
             StringBuilder sb = new StringBuilder();
             sb.append("SPIN Function ");
@@ -465,7 +1088,7 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
             long startTime = System.currentTimeMillis();
             NodeValue result;
             try {
-                result = executeBody(dataset, model, bindings);
+                result = evaluateBody(env, model, bindings);
                 sb.append(" = ");
                 sb.append(FmtUtils.stringForNode(result.asNode(), model));
             } catch (ExprEvalException ex) {
@@ -485,6 +1108,26 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
             return result;
         }
 
+        /**
+         * Calculates the function body either through the compiled expressions, if it is possible,
+         * or as a SPARQL query over the dataset from the given environment.
+         *
+         * @param env      {@link FunctionEnv}
+         * @param model    {@link Model}, the default model to run the query
+         * @param bindings {@link QuerySolution} with {@code ?this} and arguments
+         * @return {@link NodeValue}
+         * @throws ExprEvalException if the calculation fails
+         */
+        protected NodeValue evaluateBody(FunctionEnv env,
+                                         Model model,
+                                         QuerySolution bindings) throws ExprEvalException {
+            CompiledBody body = env.getActiveGraph() == null ? null : getCompiledBody(getFactory(env));
+            if (body != null) {
+                return body.eval(BindingUtils.asBinding(bindings), env);
+            }
+            return executeBody(DatasetImpl.wrap(env.getDataset()), model, bindings);
+        }
+
         public NodeValue executeBody(Model model, QuerySolution bindings) {
             return executeBody(null, model, bindings);
         }
@@ -500,6 +1143,7 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
         public NodeValue executeBody(Dataset dataset,
                                      Model defaultModel,
                                      QuerySolution bindings) throws ExprEvalException {
+            parse();
             try (QueryExecution qexec = createQueryExecution(dataset, defaultModel, bindings)) {
                 if (query.isAskType()) {
                     return NodeValue.makeBoolean(qexec.execAsk());
@@ -527,7 +1171,7 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
          * @return the Jena Query
          */
         public org.apache.jena.query.Query getBodyQuery() {
-            return query;
+            return parse().query;
         }
 
         public org.topbraid.spin.model.Function getSPINFunction() {
@@ -536,7 +1180,37 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
 
         @Override
         public boolean isOptionalArg(int index) {
-            return args.get(index).isOptional();
+            return parse().args.get(index).isOptional();
+        }
+
+        /**
+         * The state of the function, that depends on the calling factory:
+         * the memorized results and the compiled body, bound to the functions of that factory.
+         * All of them are forgotten once the library of the factory is changed.
+         */
+        protected class State {
+            // memorized results for a deterministic function, null for others:
+            protected final Cache<List<Node>, NodeValue> results;
+            private volatile long resultsVersion;
+            // whether ?this is a part of the results key, recalculated when the library is changed:
+            private volatile boolean thisDependent;
+            private volatile long thisVersion = -1;
+            // the compiled body bound to the functions of the factory:
+            private volatile CompiledBody body;
+
+            protected State(MapARQFactory factory) {
+                this.results = deterministic ?
+                        Caffeine.newBuilder().maximumSize(FUNCTION_RESULTS_CACHE_SIZE).build() : null;
+                this.resultsVersion = factory.libraryVersion.get();
+            }
+
+            protected void invalidate() {
+                thisVersion = -1;
+                body = null;
+                if (results != null) {
+                    results.invalidateAll();
+                }
+            }
         }
 
         @Override
@@ -547,4 +1221,284 @@ public class MapARQFactory extends org.topbraid.spin.arq.ARQFactory {
                     queryString);
         }
     }
+
+    /**
+     * A {@link FunctionRegistry} that is built on top of another registry, which is never modified.
+     * All new registrations go to this registry, the removal of an inherited function is only remembered.
+     * The parent registry is only read, so it can be shared between many overlays.
+     *
+     * @see #createOverlayFactory()
+     */
+    public static class OverlayFunctionRegistry extends FunctionRegistry {
+        private final FunctionRegistry parent;
+        private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+        public OverlayFunctionRegistry(FunctionRegistry parent) {
+            this.parent = Objects.requireNonNull(parent, "Null parent registry");
+        }
+
+        @Override
+        public void put(String uri, Class<?> funcClass) {
+            removed.remove(uri);
+            super.put(uri, funcClass);
+        }
+
+        @Override
+        public void put(String uri, FunctionFactory f) {
+            removed.remove(uri);
+            super.put(uri, f);
+        }
+
+        @Override
+        public FunctionFactory get(String uri) {
+            if (!super.isRegistered(uri) && isInherited(uri)) {
+                return parent.get(uri);
+            }
+            // notice that the super method may try to auto-load a java function into this registry:
+            return super.get(uri);
+        }
+
+        @Override
+        public boolean isRegistered(String uri) {
+            return super.isRegistered(uri) || isInherited(uri);
+        }
+
+        @Override
+        public FunctionFactory remove(String uri) {
+            FunctionFactory res = super.remove(uri);
+            if (!isInherited(uri)) {
+                return res;
+            }
+            removed.add(uri);
+            return res == null ? parent.get(uri) : res;
+        }
+
+        @Override
+        public Iterator<String> keys() {
+            Set<String> res = new HashSet<>();
+            super.keys().forEachRemaining(res::add);
+            parent.keys().forEachRemaining(k -> {
+                if (!removed.contains(k)) res.add(k);
+            });
+            return res.iterator();
+        }
+
+        private boolean isInherited(String uri) {
+            return !removed.contains(uri) && parent.isRegistered(uri);
+        }
+    }
+
+    /**
+     * A {@link PropertyFunctionRegistry} that is built on top of another registry, which is never modified.
+     * It is a property functions analogue of the {@link OverlayFunctionRegistry}.
+     *
+     * @see #createOverlayFactory()
+     */
+    public static class OverlayPropertyFunctionRegistry extends PropertyFunctionRegistry {
+        private final PropertyFunctionRegistry parent;
+        private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+        public OverlayPropertyFunctionRegistry(PropertyFunctionRegistry parent) {
+            this.parent = Objects.requireNonNull(parent, "Null parent registry");
+        }
+
+        @Override
+        public void put(String uri, Class<?> extClass) {
+            removed.remove(uri);
+            super.put(uri, extClass);
+        }
+
+        @Override
+        public void put(String uri, PropertyFunctionFactory factory) {
+            removed.remove(uri);
+            super.put(uri, factory);
+        }
+
+        @Override
+        public boolean manages(String uri) {
+            return isInherited(uri) || super.manages(uri);
+        }
+
+        @Override
+        public PropertyFunctionFactory get(String uri) {
+            if (!super.isRegistered(uri) && isInherited(uri)) {
+                return parent.get(uri);
+            }
+            return super.get(uri);
+        }
+
+        @Override
+        public boolean isRegistered(String uri) {
+            return super.isRegistered(uri) || isInherited(uri);
+        }
+
+        @Override
+        public PropertyFunctionFactory remove(String uri) {
+            PropertyFunctionFactory res = super.remove(uri);
+            if (!isInherited(uri)) {
+                return res;
+            }
+            removed.add(uri);
+            return res == null ? parent.get(uri) : res;
+        }
+
+        @Override
+        public Iterator<String> keys() {
+            Set<String> res = new HashSet<>();
+            super.keys().forEachRemaining(res::add);
+            parent.keys().forEachRemaining(k -> {
+                if (!removed.contains(k)) res.add(k);
+            });
+            return res.iterator();
+        }
+
+        private boolean isInherited(String uri) {
+            return !removed.contains(uri) && parent.isRegistered(uri);
+        }
+    }
+
+    /**
+     * An expression visitor to collect URIs of all called functions.
+     */
+    protected static class FunctionCallCollector extends ExprVisitorBase {
+        private final Set<String> res;
+
+        protected FunctionCallCollector(Set<String> res) {
+            this.res = res;
+        }
+
+        @Override
+        public void visit(ExprFunctionN func) {
+            if (func.getFunctionIRI() != null) {
+                res.add(func.getFunctionIRI());
+            }
+        }
+    }
+
+    /**
+     * A SPARQL-based function body in the form of a list of assignments (i.e. {@code BIND}s)
+     * and a projection expression, that is evaluated directly against the input binding.
+     * Only the simplest queries can be compiled:
+     * a {@code SELECT} with a single projection and a {@code WHERE} part that contains only {@code BIND}s,
+     * without sub-queries ({@code EXISTS}, {@code NOT EXISTS}) and solution modifiers.
+     * The semantic is the same as for a query:
+     * a failed assignment leaves the variable unbound, a failed projection is an error.
+     * Since ARQ binds the functions to the expression tree at the first call,
+     * the compiled body is copied each time the library is changed.
+     */
+    protected static class CompiledBody {
+        private final VarExprList binds;
+        private final Var result;
+        private final Expr projection;
+        private final long version;
+
+        protected CompiledBody(VarExprList binds, Var result, Expr projection, long version) {
+            this.binds = binds;
+            this.result = result;
+            this.projection = projection;
+            this.version = version;
+        }
+
+        /**
+         * Compiles the given query if it is possible.
+         *
+         * @param query    {@link org.apache.jena.query.Query}
+         * @param reserved Set of {@link Var}s that must not be reassigned
+         * @return {@link CompiledBody} or {@code null} if the query is not simple
+         */
+        public static CompiledBody compile(org.apache.jena.query.Query query, Set<Var> reserved) {
+            if (!query.isSelectType() || query.isQueryResultStar()
+                    || query.hasAggregators() || query.hasGroupBy() || query.hasHaving()
+                    || query.hasOrderBy() || query.hasOffset() || query.hasValues() || query.hasDatasetDescription()
+                    || (query.hasLimit() && query.getLimit() < 1)) {
+                return null;
+            }
+            VarExprList project = query.getProject();
+            if (project.size() != 1) {
+                return null;
+            }
+            VarExprList binds = new VarExprList();
+            Element pattern = query.getQueryPattern();
+            if (pattern != null) {
+                if (!(pattern instanceof ElementGroup)) {
+                    return null;
+                }
+                for (Element e : ((ElementGroup) pattern).getElements()) {
+                    if (!(e instanceof ElementBind)) {
+                        return null;
+                    }
+                    Var v = ((ElementBind) e).getVar();
+                    Expr expr = ((ElementBind) e).getExpr();
+                    if (reserved.contains(v) || binds.contains(v) || hasSubQuery(expr)) {
+                        return null;
+                    }
+                    binds.add(v, expr);
+                }
+            }
+            Var result = project.getVars().get(0);
+            Expr projection = project.getExpr(result);
+            if (projection != null && hasSubQuery(projection)) {
+                return null;
+            }
+            // the original expressions are never evaluated, only their copies:
+            return new CompiledBody(binds, result, projection, -1);
+        }
+
+        private static boolean hasSubQuery(Expr expr) {
+            boolean[] res = new boolean[1];
+            Walker.walk(expr, new ExprVisitorBase() {
+                @Override
+                public void visit(ExprFunctionOp op) {
+                    res[0] = true;
+                }
+            });
+            return res[0];
+        }
+
+        /**
+         * Makes a deep copy of this body with all functions bound using the given context.
+         *
+         * @param version long, the version of the library
+         * @param context {@link Context} with function registry
+         * @return {@link CompiledBody}
+         */
+        protected CompiledBody copy(long version, Context context) {
+            VarExprList binds = new VarExprList();
+            this.binds.forEachVarExpr((v, e) -> binds.add(v, prepare(e, context)));
+            return new CompiledBody(binds, result, projection == null ? null : prepare(projection, context), version);
+        }
+
+        private static Expr prepare(Expr expr, Context context) {
+            Expr res = expr.deepCopy();
+            Walker.walk(res, new ExprBuild(context));
+            return res;
+        }
+
+        /**
+         * Evaluates the body.
+         *
+         * @param input {@link Binding} with {@code ?this} and arguments
+         * @param env   {@link FunctionEnv}
+         * @return {@link NodeValue}
+         * @throws ExprEvalException if the evaluation fails
+         */
+        public NodeValue eval(Binding input, FunctionEnv env) throws ExprEvalException {
+            BindingMap binding = BindingFactory.create(input);
+            binds.forEachVarExpr((v, e) -> {
+                try {
+                    binding.add(v, e.eval(binding, env).asNode());
+                } catch (ExprEvalException ex) {
+                    // unbound, as for BIND in a query
+                }
+            });
+            if (projection != null) {
+                return projection.eval(binding, env);
+            }
+            Node res = binding.get(result);
+            if (res == null) {
+                throw new ExprEvalException("Empty result set for SPIN function");
+            }
+            return NodeValue.makeNode(res);
+        }
+    }
 }
@@ -18,6 +18,9 @@
 
 package ru.avicomp.map.spin;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 /**
  * A container to store all configuration options that are used during inference or while building mappings.
  * Currently it is a part of internal impl, not for general use.
@@ -27,16 +30,30 @@ package ru.avicomp.map.spin;
 @SuppressWarnings("WeakerAccess")
 public class MapConfigImpl implements MapConfig {
 
-    public final static MapConfigImpl INSTANCE = new MapConfigImpl(true, true, false);
+    public final static MapConfigImpl INSTANCE = new MapConfigImpl(true, true, false, 1, 1, null, false);
 
     private final boolean namedIndividuals;
     private final boolean queriesOptimization;
     private final boolean functionsOptimization;
+    private final int parallelism;
+    private final int batchSize;
+    private final Path spillDirectory;
+    private final boolean metrics;
 
-    private MapConfigImpl(boolean withFuncOpt, boolean withQueryOpt, boolean withNIDeclaration) {
+    private MapConfigImpl(boolean withFuncOpt,
+                          boolean withQueryOpt,
+                          boolean withNIDeclaration,
+                          int parallelism,
+                          int batchSize,
+                          Path spillDirectory,
+                          boolean metrics) {
         this.namedIndividuals = withNIDeclaration;
         this.queriesOptimization = withQueryOpt;
         this.functionsOptimization = withFuncOpt;
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.spillDirectory = spillDirectory;
+        this.metrics = metrics;
     }
 
     /**
@@ -63,6 +80,8 @@ public class MapConfigImpl implements MapConfig {
      * {@link ru.avicomp.map.spin.vocabulary.SPINMAPL#self spinmapl:self} map-instructions,
      * that produces {@link ru.avicomp.ontapi.jena.vocabulary.OWL#NamedIndividual owl:NamedIndividuals} declarations,
      * with direct writing a corresponding triple into a graph.
+     * Another one is execution of common mapping templates through compiled Java plans instead of SPARQL,
+     * see {@link ru.avicomp.map.spin.infer.RulePlan}.
      * Please note: the result of inference must not be differ depending on whether this option is enabled or not.
      *
      * @return boolean
@@ -83,6 +102,67 @@ public class MapConfigImpl implements MapConfig {
         return functionsOptimization;
     }
 
+    /**
+     * Returns the number of worker threads to process source individuals during inference.
+     * A value less than or equal to {@code 1} means the inference is sequential (single-threaded),
+     * which is the default behaviour.
+     * The inference result does not depend on this setting, only the processing time does.
+     *
+     * @return positive int
+     * @see ru.avicomp.map.spin.infer.InferenceEngineImpl
+     */
+    public int inferenceParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the maximum number of source individuals that are processed by a single rule execution.
+     * By default it is {@code 1}, which means each rule is run separately for each individual.
+     * A greater value enables the batch mode: source individuals are split into chunks,
+     * and each rule is executed once per chunk for all its individuals at once,
+     * that saves the query preparation costs.
+     * Rules that depend on individual-specific functions
+     * (i.e. {@link ru.avicomp.map.spin.vocabulary.AVC#currentIndividual avc:currentIndividual})
+     * are always processed individual by individual.
+     *
+     * @return positive int
+     * @see ru.avicomp.map.spin.infer.InferenceEngineImpl
+     */
+    public int inferenceBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the directory for temporary files,
+     * that are used to keep intermediate inference data outside the java heap.
+     * By default it is {@code null}: everything is kept in memory,
+     * and when the number of pending target individuals (i.e. those that wait for dependent rules) becomes too large,
+     * they are processed ahead of time, which may lead to repeated processing of some individuals.
+     * If the directory is specified, the pending individuals and the records of processed individual-rule pairs
+     * are spilled to disk, so the dependent rules are processed only once, at the end of inference,
+     * while the heap usage remains bounded.
+     *
+     * @return {@link Path} or {@code null}
+     * @see ru.avicomp.map.spin.infer.FileNodeStore
+     * @see ru.avicomp.map.spin.infer.FileProcessedStore
+     */
+    public Path inferenceSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Answers {@code true} if the inference engine must collect the execution metrics:
+     * timings and counts for each mapping rule and each SPIN function.
+     * By default {@code false}: the metrics are not collected, and there is no overhead.
+     *
+     * @return boolean
+     * @see ru.avicomp.map.spin.infer.InferenceMetrics
+     * @see ru.avicomp.map.MapManager.InferenceEngine#getReport()
+     */
+    public boolean inferenceMetrics() {
+        return metrics;
+    }
+
     /**
      * Creates a config with disabled/enabled optimization depending to the parameter.
      *
@@ -90,7 +170,7 @@ public class MapConfigImpl implements MapConfig {
      * @return new instance
      */
     public MapConfigImpl setAllOptimizations(boolean b) {
-        return new MapConfigImpl(b, b, namedIndividuals);
+        return new MapConfigImpl(b, b, namedIndividuals, parallelism, batchSize, spillDirectory, metrics);
     }
 
     /**
@@ -100,12 +180,71 @@ public class MapConfigImpl implements MapConfig {
      * @return new instance
      */
     public MapConfigImpl setGenerateNamedIndividuals(boolean b) {
-        return new MapConfigImpl(functionsOptimization, queriesOptimization, b);
+        return new MapConfigImpl(functionsOptimization, queriesOptimization, b, parallelism, batchSize,
+                spillDirectory, metrics);
+    }
+
+    /**
+     * Creates a config with the specified inference parallelism level.
+     *
+     * @param n int, the number of threads, {@code 1} for sequential inference
+     * @return new instance
+     * @throws IllegalArgumentException if the given number is not positive
+     */
+    public MapConfigImpl setInferenceParallelism(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Wrong parallelism level: " + n);
+        }
+        return new MapConfigImpl(functionsOptimization, queriesOptimization, namedIndividuals, n, batchSize,
+                spillDirectory, metrics);
+    }
+
+    /**
+     * Creates a config with the specified inference batch size.
+     *
+     * @param n int, the number of individuals per rule execution, {@code 1} to disable batch mode
+     * @return new instance
+     * @throws IllegalArgumentException if the given number is not positive
+     */
+    public MapConfigImpl setInferenceBatchSize(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Wrong batch size: " + n);
+        }
+        return new MapConfigImpl(functionsOptimization, queriesOptimization, namedIndividuals, parallelism, n,
+                spillDirectory, metrics);
+    }
+
+    /**
+     * Creates a config with the specified directory for inference temporary files.
+     *
+     * @param dir {@link Path} to an existing directory or {@code null} to keep everything in memory
+     * @return new instance
+     * @throws IllegalArgumentException if the given path is not a directory
+     */
+    public MapConfigImpl setInferenceSpillDirectory(Path dir) {
+        if (dir != null && !Files.isDirectory(dir)) {
+            throw new IllegalArgumentException("Not a directory: " + dir);
+        }
+        return new MapConfigImpl(functionsOptimization, queriesOptimization, namedIndividuals, parallelism, batchSize,
+                dir, metrics);
+    }
+
+    /**
+     * Creates a config with disabled/enabled collecting of inference metrics.
+     *
+     * @param b boolean
+     * @return new instance
+     */
+    public MapConfigImpl setInferenceMetrics(boolean b) {
+        return new MapConfigImpl(functionsOptimization, queriesOptimization, namedIndividuals, parallelism, batchSize,
+                spillDirectory, b);
     }
 
     @Override
     public String toString() {
-        return String.format("MappingConfiguration{namedIndividuals=%s, queriesOptimization=%s, functionsOptimization=%s}",
-                namedIndividuals, queriesOptimization, functionsOptimization);
+        return String.format("MappingConfiguration{namedIndividuals=%s, queriesOptimization=%s, " +
+                        "functionsOptimization=%s, parallelism=%d, batchSize=%d, spillDirectory=%s, metrics=%s}",
+                namedIndividuals, queriesOptimization, functionsOptimization, parallelism, batchSize, spillDirectory,
+                metrics);
     }
 }
@@ -26,6 +26,7 @@ import org.apache.jena.rdf.model.ModelGraphInterface;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.shared.PrefixMapping;
+import org.apache.jena.sparql.function.FunctionFactory;
 import org.apache.jena.util.iterator.ExtendedIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +35,9 @@ import org.topbraid.spin.system.ExtraPrefixes;
 import org.topbraid.spin.vocabulary.SPIN;
 import org.topbraid.spin.vocabulary.SPINMAP;
 import ru.avicomp.map.*;
+import ru.avicomp.map.spin.infer.IncrementalInferenceEngineImpl;
 import ru.avicomp.map.spin.infer.InferenceEngineImpl;
+import ru.avicomp.map.spin.infer.PreparedInferenceEngineImpl;
 import ru.avicomp.map.spin.system.Resources;
 import ru.avicomp.map.spin.system.SystemLibraries;
 import ru.avicomp.map.spin.vocabulary.AVC;
@@ -50,6 +53,8 @@ import ru.avicomp.ontapi.jena.utils.Iter;
 import ru.avicomp.ontapi.jena.utils.OntModels;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -75,12 +80,30 @@ public class MapManagerImpl implements MapManager, HasConfig {
     private List<Graph> additional;
     // map-functions:
     protected final Map<String, FunctionImpl> functions;
+    // URIs of the system functions, that are not yet wrapped as map-functions, see #findFunction(String):
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
     // config:
     protected final MapConfigImpl config;
     // ARQ factory:
     protected final MapARQFactory arqFactory;
     // Graph factory:
     protected final Supplier<Graph> graphFactory;
+    // the number of changes in all mapping graphs, see #getMappingsVersion():
+    private final AtomicLong mappingsVersion = new AtomicLong();
+    // listener to forget compiled expressions on any change in mapping graphs:
+    private final BaseGraphListener mappingListener = new BaseGraphListener() {
+        @Override
+        protected void addEvent(Triple t) {
+            mappingsVersion.incrementAndGet();
+            arqFactory.invalidateExpressions();
+        }
+
+        @Override
+        protected void deleteEvent(Triple t) {
+            mappingsVersion.incrementAndGet();
+            arqFactory.invalidateExpressions();
+        }
+    };
 
     public MapManagerImpl(Graph primary) {
         this(primary, Factory::createGraphMem, new HashMap<>(), MapConfigImpl.INSTANCE);
@@ -103,8 +126,26 @@ public class MapManagerImpl implements MapManager, HasConfig {
         this.library = createLibraryModel(Objects.requireNonNull(library, "Null primary graph"));
         this.prefixes = Graphs.collectPrefixes(SystemLibraries.graphs().values());
         this.config = Objects.requireNonNull(conf, "Null config");
-        this.arqFactory = MapARQFactory.createSPINARQFactory(SystemLibraries.functions(), SystemLibraries.properties());
-        SpinModels.spinFunctions(this.library).forEach(this::register);
+        SystemFunctions system = SystemFunctions.get(conf.optimizeFunctions());
+        this.arqFactory = system.createFactory();
+        // the functions from the primary graph are registered immediately,
+        // while the system functions are already in the ARQ factory and are wrapped on demand:
+        Set<String> own = SpinModels.listSpinFunctions(SpinModelConfig.createSpinModel(library))
+                .mapWith(Resource::getURI).toSet();
+        system.functions().stream().filter(u -> !own.contains(u)).forEach(pending::add);
+        own.forEach(u -> register(this.library.getResource(u)));
+        // any change in user-defined functions may affect the memorized results of deterministic functions:
+        library.getEventManager().register(new BaseGraphListener() {
+            @Override
+            protected void addEvent(Triple t) {
+                arqFactory.invalidateFunctionResults();
+            }
+
+            @Override
+            protected void deleteEvent(Triple t) {
+                arqFactory.invalidateFunctionResults();
+            }
+        });
     }
 
     /**
@@ -241,6 +282,7 @@ public class MapManagerImpl implements MapManager, HasConfig {
         }
         ExtraPrefixes.add(f); // <- wtf?
         FunctionImpl map = new FunctionImpl(f);
+        pending.remove(f.getURI());
         functions.put(f.getURI(), map);
         if (f.isMagicProperty()) {
             arqFactory.registerProperty(f);
@@ -249,8 +291,42 @@ public class MapManagerImpl implements MapManager, HasConfig {
                 // unregister java-ARQ body to use spin (SPARQL) body instead:
                 arqFactory.getFunctionRegistry().remove(f.getURI());
             }
-            arqFactory.registerFunction(f);
+            FunctionFactory res = arqFactory.registerFunction(f);
+            if (res instanceof MapARQFactory.ARQFunction) {
+                // parse a user-defined function immediately to report a wrong body as early as possible:
+                ((MapARQFactory.ARQFunction) res).parse();
+            }
+        }
+    }
+
+    /**
+     * Finds a map-function by its URI.
+     * A system function is wrapped as {@link FunctionImpl} on the first request.
+     *
+     * @param uri String, not {@code null}
+     * @return {@link FunctionImpl} or {@code null} if there is no such function
+     */
+    protected FunctionImpl findFunction(String uri) {
+        FunctionImpl res = functions.get(uri);
+        if (res != null || !pending.contains(uri)) {
+            return res;
+        }
+        res = functions.computeIfAbsent(uri, u -> new FunctionImpl(library.getResource(u)
+                .as(org.topbraid.spin.model.Function.class)));
+        pending.remove(uri);
+        return res;
+    }
+
+    /**
+     * Returns the map of all functions, wrapping all the pending system functions before.
+     *
+     * @return {@link Map} with IRIs as keys and {@link FunctionImpl}s as values
+     */
+    protected Map<String, FunctionImpl> loadFunctions() {
+        if (!pending.isEmpty()) {
+            new ArrayList<>(pending).forEach(this::findFunction);
         }
+        return functions;
     }
 
     /**
@@ -262,7 +338,7 @@ public class MapManagerImpl implements MapManager, HasConfig {
      */
     @Override
     public Stream<MapFunction> functions() {
-        return Iter.asStream(Iter.create(functions.values()).filterKeep(this::filter));
+        return Iter.asStream(Iter.create(loadFunctions().values()).filterKeep(this::filter));
     }
 
     /**
@@ -271,7 +347,7 @@ public class MapManagerImpl implements MapManager, HasConfig {
      * @return {@link Map} with IRIs as keys and {@link FunctionImpl}s as values
      */
     public Map<String, FunctionImpl> getFunctionsMap() {
-        return Collections.unmodifiableMap(functions);
+        return Collections.unmodifiableMap(loadFunctions());
     }
 
     /**
@@ -292,7 +368,7 @@ public class MapManagerImpl implements MapManager, HasConfig {
 
     @Override
     public FunctionImpl getFunction(String name) throws MapJenaException {
-        return MapJenaException.notNull(functions.get(name), "Can't find function " + name);
+        return MapJenaException.notNull(findFunction(name), "Can't find function " + name);
     }
 
     /**
@@ -343,8 +419,11 @@ public class MapManagerImpl implements MapManager, HasConfig {
     public MapModelImpl newMapModelImpl(Graph graph, OntPersonality personality) {
         // note: the mapping graph is distinct!
         Objects.requireNonNull(graph);
-        return new MapModelImpl(graph instanceof UnionGraph ? (UnionGraph) graph : new UnionGraph(graph),
-                personality == null ? SpinModelConfig.ONT_PERSONALITY : personality, this);
+        UnionGraph union = graph instanceof UnionGraph ? (UnionGraph) graph : new UnionGraph(graph);
+        // compiled spin:eval expressions are taken from the mapping, so they must be forgotten once it is changed;
+        // re-register to have only one listener per graph:
+        union.getBaseGraph().getEventManager().unregister(mappingListener).register(mappingListener);
+        return new MapModelImpl(union, personality == null ? SpinModelConfig.ONT_PERSONALITY : personality, this);
     }
 
     /**
@@ -445,7 +524,7 @@ public class MapManagerImpl implements MapManager, HasConfig {
                     // if it is contained in the map and has different content, but it is not avc:runtime -> FAIL
                     // if it is contained in the map and has different content, but it is avc:runtime -> OK, re-register
                     // if it is no contained anywhere -> OK, register and add definition to the primary graph
-                    if (functions.containsKey(f.getURI())) {
+                    if (findFunction(f.getURI()) != null) {
                         if (ModelUtils.containsResource(library, f)) {
                             if (LOGGER.isDebugEnabled())
                                 LOGGER.debug("Function <{}> is already within the manager {}.", f, MapManagerImpl.this);
@@ -523,12 +602,37 @@ public class MapManagerImpl implements MapManager, HasConfig {
 
     @Override
     public InferenceEngine getInferenceEngine(MapModel mapping) throws MapJenaException {
+        return new InferenceEngineImpl(checkReadyForInference(mapping), this);
+    }
+
+    @Override
+    public IncrementalInferenceEngine getIncrementalInferenceEngine(MapModel mapping) throws MapJenaException {
+        return new IncrementalInferenceEngineImpl(checkReadyForInference(mapping), this);
+    }
+
+    @Override
+    public InferenceEngine getPreparedInferenceEngine(MapModel mapping) throws MapJenaException {
+        return new PreparedInferenceEngineImpl(checkReadyForInference(mapping), this);
+    }
+
+    /**
+     * Returns the version of the mappings, which is changed on any modification of any mapping graph
+     * (that is a base graph of a {@link MapModel} created by this manager).
+     *
+     * @return long
+     * @see PreparedInferenceEngineImpl
+     */
+    public long getMappingsVersion() {
+        return mappingsVersion.get();
+    }
+
+    private static MapModel checkReadyForInference(MapModel mapping) throws MapJenaException {
         if (MapJenaException.notNull(mapping, "Null mapping").contexts().noneMatch(MapContext::isValid)) {
             throw Exceptions.INFERENCE_NO_CONTEXTS.create()
                     .add(Exceptions.Key.MAPPING, String.valueOf(mapping))
                     .build();
         }
-        return new InferenceEngineImpl(mapping, this);
+        return mapping;
     }
 
     /**
@@ -620,7 +724,7 @@ public class MapManagerImpl implements MapManager, HasConfig {
          */
         public Set<FunctionImpl> getDependencies() {
             return dependencies == null ? dependencies = listDependencyResources()
-                    .mapWith(r -> MapJenaException.notNull(functions.get(r.getURI()), "Can't find function " + r))
+                    .mapWith(r -> MapJenaException.notNull(findFunction(r.getURI()), "Can't find function " + r))
                     .toSet() : dependencies;
         }
     }
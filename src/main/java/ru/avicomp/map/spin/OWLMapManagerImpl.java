@@ -19,6 +19,10 @@
 package ru.avicomp.map.spin;
 
 import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphListener;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.shared.PrefixMapping;
 import org.semanticweb.owlapi.model.IRI;
 import org.semanticweb.owlapi.model.OWLOntology;
@@ -30,13 +34,17 @@ import ru.avicomp.ontapi.jena.impl.OntGraphModelImpl;
 import ru.avicomp.ontapi.jena.model.OntGraphModel;
 import ru.avicomp.ontapi.jena.utils.Graphs;
 
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
@@ -310,6 +318,16 @@ public class OWLMapManagerImpl extends OntologyManagerImpl implements OWLMapMana
         return new OWLInferenceEngineImpl(mapping);
     }
 
+    @Override
+    public IncrementalInferenceEngine getIncrementalInferenceEngine(MapModel mapping) {
+        return new OWLIncrementalInferenceEngineImpl(mapping);
+    }
+
+    @Override
+    public InferenceEngine getPreparedInferenceEngine(MapModel mapping) {
+        return new OWLInferenceEngineImpl(mapping, manager::getPreparedInferenceEngine);
+    }
+
     @Override
     public MapConfigImpl getMappingConfiguration() {
         return manager.getMappingConfiguration();
@@ -320,13 +338,17 @@ public class OWLMapManagerImpl extends OntologyManagerImpl implements OWLMapMana
         protected final Lock mappingLock;
 
         public OWLInferenceEngineImpl(MapModel mapping) {
+            this(mapping, manager::getInferenceEngine);
+        }
+
+        protected OWLInferenceEngineImpl(MapModel mapping, Function<MapModel, ? extends InferenceEngine> factory) {
             lock.readLock().lock();
             try {
-                // Use a write lock in case the given mapping belongs to the manager,
-                // since inference engine may add temporary triples into the mapping main graph
+                // Use a read lock in case the given mapping belongs to the manager,
+                // the inference engine does not modify the mapping graph
                 this.mappingLock = ontology(Objects.requireNonNull(mapping, "Null mapping").asGraphModel().getGraph())
-                        .isPresent() ? lock.writeLock() : NoOpReadWriteLock.NO_OP_LOCK;
-                this.delegate = manager.getInferenceEngine(mapping);
+                        .isPresent() ? lock.readLock() : NoOpReadWriteLock.NO_OP_LOCK;
+                this.delegate = factory.apply(mapping);
             } finally {
                 lock.readLock().unlock();
             }
@@ -334,8 +356,8 @@ public class OWLMapManagerImpl extends OntologyManagerImpl implements OWLMapMana
 
         /**
          * Runs an inference process on the given mapping, source and target.
-         * Uses manager's write lock, if the target graph or the mapping belongs to the manager;
-         * or manager's read lock, if the the source graph belongs to the manager,
+         * Uses manager's write lock, if the target graph belongs to the manager;
+         * or manager's read lock, if the the source graph or the mapping belongs to the manager,
          * otherwise uses no-op lock instance.
          *
          * @param source a graph with data to map.
@@ -343,33 +365,155 @@ public class OWLMapManagerImpl extends OntologyManagerImpl implements OWLMapMana
          */
         @Override
         public void run(Graph source, Graph target) {
-            Lock inferLock;
+            Lock inferLock = selectLock(source, target);
+            inferLock.lock();
+            try {
+                delegate.run(source, target);
+            } finally {
+                inferLock.unlock();
+            }
+        }
+
+        /**
+         * Starts an asynchronous inference process in the given executor.
+         * The lock is chosen and taken by the job itself, i.e. on the executor thread,
+         * in the same way as for the {@link #run(Graph, Graph) synchronous run}.
+         *
+         * @param source   a graph with data to map
+         * @param target   a graph to write mapping results
+         * @param executor {@link Executor} to run the inference
+         * @return {@link InferenceTask}
+         */
+        @Override
+        public InferenceTask runAsync(Graph source, Graph target, Executor executor) {
+            Objects.requireNonNull(executor, "Null executor");
+            return delegate.runAsync(source, target, job -> executor.execute(() -> {
+                Lock inferLock = selectLock(source, target);
+                inferLock.lock();
+                try {
+                    job.run();
+                } finally {
+                    inferLock.unlock();
+                }
+            }));
+        }
+
+        /**
+         * Runs a streaming inference process.
+         * Both the source and the target are external to the manager,
+         * so only the mapping (if it belongs to the manager) is protected by the read lock.
+         *
+         * @param source {@link InputStream} with data to map
+         * @param lang   {@link Lang} of the source
+         * @param target {@link StreamRDF} to write mapping results
+         */
+        @Override
+        public void run(InputStream source, Lang lang, StreamRDF target) {
+            mappingLock.lock();
+            try {
+                delegate.run(source, lang, target);
+            } finally {
+                mappingLock.unlock();
+            }
+        }
+
+        @Override
+        public InferenceReport getReport() {
+            return delegate.getReport();
+        }
+
+        /**
+         * Chooses a lock to perform inference with the given source and target.
+         *
+         * @param source {@link Graph}
+         * @param target {@link Graph}
+         * @return {@link Lock}
+         */
+        protected Lock selectLock(Graph source, Graph target) {
             lock.readLock().lock();
             try {
                 Optional<OntologyModel> dst = ontology(target);
                 // clears the cache (just in case): new axioms will be added to that ontology
                 dst.ifPresent(OntologyModel::clearCache);
-                if (mappingLock != NoOpReadWriteLock.NO_OP_LOCK) { // then write lock (mapping is in the manager)
-                    inferLock = mappingLock;
-                } else {
-                    if (dst.isPresent()) { // the target belongs to the manager
-                        inferLock = lock.writeLock();
-                    } else if (ontology(source).isPresent()) {  // the source belongs to manager
-                        inferLock = lock.readLock();
-                    } else { // all - the mapping, the source and the target - are external to the manager
-                        inferLock = NoOpReadWriteLock.NO_OP_LOCK;
-                    }
+                if (dst.isPresent()) { // the target belongs to the manager
+                    return lock.writeLock();
+                }
+                if (mappingLock != NoOpReadWriteLock.NO_OP_LOCK) { // then read lock (mapping is in the manager)
+                    return mappingLock;
                 }
+                if (ontology(source).isPresent()) {  // the source belongs to manager
+                    return lock.readLock();
+                }
+                // all - the mapping, the source and the target - are external to the manager
+                return NoOpReadWriteLock.NO_OP_LOCK;
             } finally {
                 lock.readLock().unlock();
             }
+        }
+
+    }
+
+    public class OWLIncrementalInferenceEngineImpl extends OWLInferenceEngineImpl implements IncrementalInferenceEngine {
+        protected Graph source;
+        protected Graph target;
+
+        public OWLIncrementalInferenceEngineImpl(MapModel mapping) {
+            super(mapping, manager::getIncrementalInferenceEngine);
+        }
+
+        protected IncrementalInferenceEngine delegate() {
+            return (IncrementalInferenceEngine) delegate;
+        }
+
+        @Override
+        public void run(Graph source, Graph target) {
+            super.run(source, target);
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        public InferenceTask runAsync(Graph source, Graph target, Executor executor) {
+            InferenceTask res = super.runAsync(source, target, executor);
+            this.source = source;
+            this.target = target;
+            return res;
+        }
+
+        @Override
+        public void update(Collection<Triple> added, Collection<Triple> removed) {
+            update(() -> delegate().update(added, removed));
+        }
+
+        @Override
+        public void update() {
+            update(() -> delegate().update());
+        }
+
+        protected void update(Runnable task) {
+            if (target == null) { // not run yet, let the delegate throw an exception
+                task.run();
+                return;
+            }
+            Lock inferLock = selectLock(source, target);
             inferLock.lock();
             try {
-                delegate.run(source, target);
+                task.run();
             } finally {
                 inferLock.unlock();
             }
         }
 
+        @Override
+        public GraphListener getListener() {
+            return delegate().getListener();
+        }
+
+        @Override
+        public void close() {
+            delegate().close();
+            this.source = null;
+            this.target = null;
+        }
     }
 }
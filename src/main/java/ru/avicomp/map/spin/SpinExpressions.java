@@ -0,0 +1,292 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.sparql.algebra.walker.Walker;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.core.VarExprList;
+import org.apache.jena.sparql.expr.*;
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.sparql.util.ExprUtils;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDF;
+import org.topbraid.spin.arq.ARQFactory;
+import org.topbraid.spin.model.SPINFactory;
+import org.topbraid.spin.model.Variable;
+import org.topbraid.spin.vocabulary.SP;
+import org.topbraid.spin.vocabulary.SPIN;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A helper to compile SPIN expressions (i.e. {@code sp:} RDF structures) into ARQ {@link Expr}s.
+ * Unlike {@link org.topbraid.spin.util.SPINExpressions}, it does not print an expression as a SPARQL string
+ * to parse it back: variables, constants and function calls are converted directly,
+ * and the operators and built-in calls (those that have {@code spin:symbol}) are made from small
+ * once-parsed templates, e.g. {@code (?1 + ?2)}.
+ * Only the expressions that contain graph patterns ({@code EXISTS}, {@code NOT EXISTS}) or aggregates
+ * are compiled in the SPIN way.
+ * <p>
+ * Created by @ssz on 05.07.2019.
+ *
+ * @see MapARQFactory#EXPRESSION_CACHE
+ */
+@SuppressWarnings("WeakerAccess")
+public class SpinExpressions {
+    private static final String SP_ARG = SP.NS + SP.ARG;
+    private static final Node RDF_TYPE = RDF.type.asNode();
+    private static final Node SP_VAR_NAME = SP.varName.asNode();
+    private static final Node SPIN_SYMBOL = SPIN.symbol.asNode();
+    private static final Set<Node> NOT_CONVERTIBLE = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(SP.exists.asNode(), SP.notExists.asNode())));
+    // the key is a symbol and an arity, the value is a parsed template or empty if the template cannot be parsed:
+    private static final Map<String, Optional<Expr>> TEMPLATES = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the compiled form of the SPIN expression,
+     * either from the {@link MapARQFactory#EXPRESSION_CACHE cache}, if the context has it,
+     * or by compiling the expression anew.
+     * Only anonymous expressions are cached:
+     * a blank node is unique across all graphs, so it can be used as a key without a graph.
+     *
+     * @param graph   {@link Graph} containing the expression
+     * @param node    {@link Node} the SPIN expression
+     * @param context {@link Context} to bind functions
+     * @return {@link Expr}
+     */
+    public static Expr get(Graph graph, Node node, Context context) {
+        Cache<Node, Expr> cache = node.isBlank() ? context.get(MapARQFactory.EXPRESSION_CACHE) : null;
+        if (cache == null) {
+            return compile(graph, node, context);
+        }
+        return cache.get(node, n -> compile(graph, n, context));
+    }
+
+    /**
+     * Compiles the SPIN expression into the ARQ form.
+     * All functions inside the returned expression are bound, so it can be safely shared between threads.
+     *
+     * @param graph   {@link Graph} containing the expression
+     * @param node    {@link Node} the SPIN expression
+     * @param context {@link Context} to bind functions
+     * @return {@link Expr}
+     */
+    public static Expr compile(Graph graph, Node node, Context context) {
+        Expr res = convert(graph, node);
+        Walker.walk(res, new ExprBuild(context));
+        return res;
+    }
+
+    /**
+     * Converts the SPIN expression into a fresh ARQ {@link Expr} with unbound functions.
+     *
+     * @param graph {@link Graph} containing the expression
+     * @param node  {@link Node} the SPIN expression
+     * @return {@link Expr}
+     */
+    public static Expr convert(Graph graph, Node node) {
+        if (node.isLiteral()) {
+            return NodeValue.makeNode(node);
+        }
+        String var = getString(graph, node, SP_VAR_NAME);
+        if (var != null) {
+            return new ExprVar(var);
+        }
+        if (node.isURI()) {
+            return NodeValue.makeNode(node);
+        }
+        Node function = getFunction(graph, node);
+        if (function == null || NOT_CONVERTIBLE.contains(function)) {
+            return parse(graph, node);
+        }
+        ExprList args = new ExprList();
+        for (Node arg : getArguments(graph, node)) {
+            args.add(convert(graph, arg));
+        }
+        String symbol = getString(graph, function, SPIN_SYMBOL);
+        if (symbol != null) {
+            Expr res = fromTemplate(symbol, args);
+            return res == null ? parse(graph, node) : res;
+        }
+        if (SP.NS.equals(function.getNameSpace())) { // aggregates and other special forms
+            return parse(graph, node);
+        }
+        return new E_Function(function.getURI(), args);
+    }
+
+    /**
+     * Lists the arguments of the function call in the same order as SPIN does:
+     * {@code sp:argN} goes to the position {@code N}, the rest fill the free positions, sorted by local names.
+     *
+     * @param graph {@link Graph}
+     * @param call  {@link Node} the function call
+     * @return List of {@link Node}s
+     * @see org.topbraid.spin.model.impl.FunctionCallImpl#getArguments()
+     */
+    private static List<Node> getArguments(Graph graph, Node call) {
+        Map<Node, Node> map = new HashMap<>();
+        ExtendedIterator<Triple> it = graph.find(call, Node.ANY, Node.ANY);
+        try {
+            while (it.hasNext()) {
+                Triple t = it.next();
+                if (!RDF_TYPE.equals(t.getPredicate())) {
+                    map.put(t.getPredicate(), t.getObject());
+                }
+            }
+        } finally {
+            it.close();
+        }
+        Node[] res = new Node[map.size()];
+        List<Node> others = new ArrayList<>();
+        for (Node p : map.keySet()) {
+            String uri = p.getURI();
+            if (uri.startsWith(SP_ARG) && !SP.arg.asNode().equals(p)) {
+                int index = Integer.parseInt(uri.substring(SP_ARG.length())) - 1;
+                if (index >= 0 && index < res.length && res[index] == null) {
+                    res[index] = map.get(p);
+                    continue;
+                }
+            }
+            others.add(p);
+        }
+        others.sort(Comparator.comparing(Node::getLocalName));
+        Iterator<Node> rest = others.iterator();
+        List<Node> list = new ArrayList<>(res.length);
+        for (Node n : res) {
+            if (n != null) {
+                list.add(n);
+            } else if (rest.hasNext()) {
+                list.add(map.get(rest.next()));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Makes an expression for an operator or built-in call from the parsed template.
+     *
+     * @param symbol String, the {@code spin:symbol}, e.g. {@code +} or {@code CONCAT}
+     * @param args   {@link ExprList} the already converted arguments
+     * @return {@link Expr} or {@code null} if there is no template for the given symbol
+     */
+    private static Expr fromTemplate(String symbol, ExprList args) {
+        Optional<Expr> template = TEMPLATES.computeIfAbsent(symbol + "/" + args.size(),
+                k -> parseTemplate(symbol, args.size()));
+        return template.map(x -> Walker.transform(x, new ExprTransformCopy(true) {
+            @Override
+            public Expr transform(ExprVar var) {
+                return args.get(Integer.parseInt(var.getVarName()) - 1);
+            }
+        })).orElse(null);
+    }
+
+    private static Optional<Expr> parseTemplate(String symbol, int arity) {
+        StringJoiner vars = new StringJoiner(", ");
+        for (int i = 1; i <= arity; i++) {
+            vars.add("?" + i);
+        }
+        String text;
+        if ("IN".equals(symbol) || "NOT IN".equals(symbol)) {
+            if (arity == 0) {
+                return Optional.empty();
+            }
+            StringJoiner rest = new StringJoiner(", ", "(", ")");
+            for (int i = 2; i <= arity; i++) {
+                rest.add("?" + i);
+            }
+            text = "(?1 " + symbol + " " + rest + ")";
+        } else if (Character.isLetter(symbol.charAt(0))) {
+            text = symbol + "(" + vars + ")";
+        } else if (arity == 1) {
+            text = symbol + "(?1)";
+        } else if (arity > 1) {
+            text = "(" + vars.toString().replace(", ", " " + symbol + " ") + ")";
+        } else {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(ExprUtils.parse(text));
+        } catch (QueryParseException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Compiles the expression in the SPIN way: the expression is printed as a query string, which is then parsed.
+     *
+     * @param graph {@link Graph}
+     * @param node  {@link Node}
+     * @return {@link Expr}
+     * @see org.topbraid.spin.util.SPINExpressions#evaluate(org.apache.jena.rdf.model.Resource, org.apache.jena.query.Dataset, org.apache.jena.query.QuerySolution)
+     */
+    private static Expr parse(Graph graph, Node node) {
+        RDFNode expr = SPINFactory.asExpression(SpinModelConfig.createSpinModel(graph).wrapAsResource(node));
+        if (expr instanceof Variable) {
+            return new ExprVar(((Variable) expr).getName());
+        }
+        if (expr.isURIResource()) {
+            return NodeValue.makeNode(expr.asNode());
+        }
+        // SPIN select and ask queries are not supported, since ONT-MAP does not allow the direct query execution.
+        Query query = ARQFactory.get().createExpressionQuery(expr);
+        VarExprList project = query.getProject();
+        Var var = project.getVars().get(0);
+        Expr res = project.getExpr(var);
+        // the parsed query is cached by the factory, so return a copy:
+        return res == null ? new ExprVar(var) : res.deepCopy();
+    }
+
+    private static Node getFunction(Graph graph, Node call) {
+        ExtendedIterator<Node> it = graph.find(call, RDF_TYPE, Node.ANY).mapWith(Triple::getObject);
+        try {
+            while (it.hasNext()) {
+                Node res = it.next();
+                if (res.isURI()) {
+                    return res;
+                }
+            }
+            return null;
+        } finally {
+            it.close();
+        }
+    }
+
+    private static String getString(Graph graph, Node subject, Node predicate) {
+        ExtendedIterator<Node> it = graph.find(subject, predicate, Node.ANY).mapWith(Triple::getObject);
+        try {
+            while (it.hasNext()) {
+                Node res = it.next();
+                if (res.isLiteral()) {
+                    return res.getLiteralLexicalForm();
+                }
+            }
+            return null;
+        } finally {
+            it.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin;
+
+import org.apache.jena.graph.Factory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.topbraid.spin.model.Function;
+import org.topbraid.spin.system.ExtraPrefixes;
+import ru.avicomp.map.spin.system.SystemLibraries;
+import ru.avicomp.map.spin.vocabulary.AVC;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of all system functions (i.e. the functions from the builtin spin libraries),
+ * which are registered in the {@link MapARQFactory} once per JVM and are shared by all managers.
+ * Each manager gets its own {@link MapARQFactory#createOverlayFactory() overlay factory} on top of the snapshot,
+ * so that its user-defined functions are never visible to other managers,
+ * while the system functions are not copied and their SPARQL bodies are not parsed again.
+ * There are two snapshots: with and without java optimizations, see {@link MapConfigImpl#optimizeFunctions()}.
+ * <p>
+ * Created by @ssz on 06.07.2019.
+ */
+public class SystemFunctions {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SystemFunctions.class);
+    private static final Map<Boolean, SystemFunctions> SNAPSHOTS = new ConcurrentHashMap<>();
+
+    private final MapARQFactory factory;
+    private final Set<String> functions;
+
+    protected SystemFunctions(MapARQFactory factory, Set<String> functions) {
+        this.factory = factory;
+        this.functions = functions;
+    }
+
+    /**
+     * Returns the shared snapshot for the given configuration, creating it on the first call.
+     *
+     * @param optimize if {@code false} the SPARQL bodies are used instead of the java optimizations,
+     *                 see {@link AVC#optimize avc:optimize}
+     * @return {@link SystemFunctions}, not {@code null}
+     */
+    public static SystemFunctions get(boolean optimize) {
+        return SNAPSHOTS.computeIfAbsent(optimize, SystemFunctions::create);
+    }
+
+    /**
+     * Builds a new snapshot over the system library graphs.
+     *
+     * @param optimize boolean
+     * @return {@link SystemFunctions}
+     */
+    protected static SystemFunctions create(boolean optimize) {
+        long start = System.currentTimeMillis();
+        MapARQFactory factory = MapARQFactory.createSPINARQFactory(SystemLibraries.functions(),
+                SystemLibraries.properties());
+        Set<String> functions = new HashSet<>();
+        SpinModels.spinFunctions(MapManagerImpl.createLibraryModel(Factory.createGraphMem())).forEach(r -> {
+            Function f = r.as(Function.class);
+            ExtraPrefixes.add(f);
+            functions.add(f.getURI());
+            if (f.isMagicProperty()) {
+                factory.registerProperty(f);
+                return;
+            }
+            if (!optimize && f.hasProperty(AVC.optimize)) {
+                // unregister java-ARQ body to use spin (SPARQL) body instead:
+                factory.getFunctionRegistry().remove(f.getURI());
+            }
+            factory.registerFunction(f);
+        });
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("System functions snapshot (optimize={}): {} functions, {} ms.",
+                    optimize, functions.size(), System.currentTimeMillis() - start);
+        }
+        return new SystemFunctions(factory, Collections.unmodifiableSet(functions));
+    }
+
+    /**
+     * Creates a new factory for a manager.
+     *
+     * @return {@link MapARQFactory}
+     * @see MapARQFactory#createOverlayFactory()
+     */
+    public MapARQFactory createFactory() {
+        return factory.createOverlayFactory();
+    }
+
+    /**
+     * Returns URIs of all functions (including magic properties) from the system library.
+     *
+     * @return unmodifiable Set of URIs
+     */
+    public Set<String> functions() {
+        return functions;
+    }
+}
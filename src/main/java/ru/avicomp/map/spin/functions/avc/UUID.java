@@ -18,6 +18,7 @@
 
 package ru.avicomp.map.spin.functions.avc;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.sparql.expr.*;
@@ -25,7 +26,6 @@ import org.apache.jena.sparql.function.FunctionEnv;
 import org.topbraid.spin.arq.AbstractFunction1;
 import ru.avicomp.map.spin.MapARQFactory;
 
-import java.util.Map;
 import java.util.function.UnaryOperator;
 
 /**
@@ -59,8 +59,8 @@ public class UUID extends AbstractFunction1 {
         if (!source.isBlank() && !source.isURI()) {
             throw new ExprEvalException("?source must be either b-node or uri resource");
         }
-        Map<Node, NodeValue> cache = env.getContext().get(MapARQFactory.NODE_TO_VALUE_CACHE);
-        return cache.computeIfAbsent(source, s -> {
+        Cache<Node, NodeValue> cache = env.getContext().get(MapARQFactory.NODE_TO_VALUE_CACHE);
+        return cache.get(source, s -> {
             String res = s.isBlank() ? s.getBlankNodeId().getLabelString() : s.getURI();
             return NodeValue.makeNode(NodeFactory.createURI(URI_MAKER.apply(res)));
         });
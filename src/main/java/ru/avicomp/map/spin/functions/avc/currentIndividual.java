@@ -0,0 +1,71 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.functions.avc;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.QueryBuildException;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.Function;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.sparql.util.Context;
+import org.topbraid.spin.vocabulary.SPIN;
+import ru.avicomp.map.spin.MapARQFactory;
+
+/**
+ * An ARQ implementation of the magic function
+ * {@link ru.avicomp.map.spin.vocabulary.AVC#currentIndividual avc:currentIndividual}.
+ * The original SPARQL body is {@code SELECT ?r WHERE { BIND(?this AS ?r) }},
+ * but the variable {@code ?this} is not visible in the nested function calls.
+ * This implementation takes the individual from the {@link Context ARQ Context},
+ * where it is placed by the inference engine under the {@link MapARQFactory#CURRENT_INDIVIDUAL} key;
+ * if there is no such symbol in the context, the {@code ?this} binding is used.
+ * Unlike the other ARQ-optimizations this one has no {@code avc:optimize} annotation and is always in use.
+ * <p>
+ * Created by @ssz on 20.06.2019.
+ *
+ * @see ru.avicomp.map.spin.infer.InferenceEngineImpl.ProcessedQuery#run(org.apache.jena.rdf.model.Resource, Context, java.util.function.Consumer)
+ */
+@SuppressWarnings("WeakerAccess")
+public class currentIndividual implements Function {
+    private static final Var THIS = Var.alloc(SPIN.THIS_VAR_NAME);
+
+    @Override
+    public void build(String uri, ExprList args) {
+        if (args.size() != 0) {
+            throw new QueryBuildException("Function '" + uri + "' takes no arguments");
+        }
+    }
+
+    @Override
+    public NodeValue exec(Binding binding, ExprList args, String uri, FunctionEnv env) {
+        Context context = env.getContext();
+        Node res = context == null ? null : context.get(MapARQFactory.CURRENT_INDIVIDUAL);
+        if (res == null && binding != null) {
+            res = binding.get(THIS);
+        }
+        if (res == null) {
+            throw new ExprEvalException("No current individual");
+        }
+        return NodeValue.makeNode(res);
+    }
+}
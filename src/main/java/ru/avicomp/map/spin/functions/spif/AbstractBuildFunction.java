@@ -18,6 +18,8 @@
 
 package ru.avicomp.map.spin.functions.spif;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.apache.jena.ext.xerces.util.XMLChar;
 import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
@@ -51,6 +53,19 @@ import java.util.function.UnaryOperator;
 @SuppressWarnings("WeakerAccess")
 abstract class AbstractBuildFunction implements org.apache.jena.sparql.function.Function {
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractBuildFunction.class);
+    /**
+     * The max number of parsed templates to keep.
+     * Usually there are only a few distinct templates in a mapping, but each of them is used for every individual.
+     */
+    private static final int TEMPLATES_CACHE_SIZE = 2048;
+    private static final Cache<String, Template> TEMPLATES = Caffeine.newBuilder()
+            .maximumSize(TEMPLATES_CACHE_SIZE).build();
+    /**
+     * A per-thread buffer to render templates.
+     * It is taken out while in use, so a nested rendering (e.g. from a variable mapping) gets its own buffer.
+     */
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<>();
+    private static final int MAX_BUFFER_CAPACITY = 8192;
 
     public static final Function<RDFNode, String> DEFAULT_INSERTION_STRATEGY = node -> {
         if (node.isLiteral()) {
@@ -79,11 +94,12 @@ abstract class AbstractBuildFunction implements org.apache.jena.sparql.function.
                 str = res.toString().replace(':', '_');
             }
         }
-        str = str.replaceAll(" ", "_");
-        StringBuilder res = new StringBuilder();
+        StringBuilder res = new StringBuilder(str.length());
         for (int i = 0; i < str.length(); i++) {
             char c = str.charAt(i);
-            if (isValidURIChar(c)) {
+            if (c == ' ') {
+                res.append('_');
+            } else if (isValidURIChar(c)) {
                 res.append(c);
             }
         }
@@ -148,34 +164,12 @@ abstract class AbstractBuildFunction implements org.apache.jena.sparql.function.
      * @param template String, not {@code null}
      * @param mapping  variable mapping, to translate String (var) to another form, not {@code null}
      * @return String
+     * @see Template
      */
     public static String format(String template, UnaryOperator<String> mapping) {
         Objects.requireNonNull(template, "Null template");
         Objects.requireNonNull(mapping, "Null variable mapping");
-        List<Integer> starts = new LinkedList<>();
-        for (int i = template.length() - 2; i > 0; i--) {
-            if (template.charAt(i) == '?' && template.charAt(i - 1) == '{') {
-                starts.add(i - 1);
-            }
-        }
-        if (starts.isEmpty())
-            return template;
-        String res = template;
-        for (int start : starts) {
-            int ends = template.indexOf('}', start + 2);
-            if (ends < 0) {
-                continue;
-            }
-            String var = template.substring(start + 2, ends);
-            if (!isVariable(var) && (var.isEmpty() || !Character.isDigit(var.charAt(0)))) {
-                continue;
-            }
-            String str = mapping.apply(var);
-            String prefix = res.substring(0, start);
-            String suffix = res.substring(ends + 1);
-            res = prefix + str + suffix;
-        }
-        return res;
+        return TEMPLATES.get(template, Template::parse).render(mapping);
     }
 
     /**
@@ -242,6 +236,92 @@ abstract class AbstractBuildFunction implements org.apache.jena.sparql.function.
                                       Function<String, RDFNode> variables,
                                       Graph graph);
 
+    /**
+     * A parsed template: an immutable sequence of text chunks and variable placeholders,
+     * where the chunks and the variables alternate and there is always one more chunk than variables.
+     * The placeholder syntax is {@code {?var}} with either a java-identifier or a number-like name inside;
+     * any other braces are left as is.
+     */
+    protected static final class Template {
+        private final String[] chunks;
+        private final String[] vars;
+        private final int length;
+
+        private Template(String[] chunks, String[] vars) {
+            this.chunks = chunks;
+            this.vars = vars;
+            int length = 0;
+            for (String c : chunks) {
+                length += c.length();
+            }
+            this.length = length;
+        }
+
+        /**
+         * Parses the given template string.
+         * The placeholders are searched from the end of the string, as the overlapping ones
+         * (e.g. {@code {?1{?2}}}) are resolved in favour of the rightmost one.
+         *
+         * @param template String, not {@code null}
+         * @return {@link Template}
+         */
+        public static Template parse(String template) {
+            LinkedList<String> chunks = new LinkedList<>();
+            LinkedList<String> vars = new LinkedList<>();
+            int limit = template.length();
+            for (int i = template.length() - 2; i > 0; i--) {
+                if (template.charAt(i) != '?' || template.charAt(i - 1) != '{') {
+                    continue;
+                }
+                int start = i - 1;
+                int end = template.indexOf('}', start + 2);
+                if (end < 0 || end >= limit) {
+                    continue;
+                }
+                String var = template.substring(start + 2, end);
+                if (!isVariable(var) && (var.isEmpty() || !Character.isDigit(var.charAt(0)))) {
+                    continue;
+                }
+                chunks.addFirst(template.substring(end + 1, limit));
+                vars.addFirst(var);
+                limit = start;
+            }
+            chunks.addFirst(template.substring(0, limit));
+            return new Template(chunks.toArray(new String[0]), vars.toArray(new String[0]));
+        }
+
+        /**
+         * Renders this template into a string.
+         *
+         * @param mapping {@link UnaryOperator} to get a string for a variable, not {@code null}
+         * @return String
+         */
+        public String render(UnaryOperator<String> mapping) {
+            if (vars.length == 0) {
+                return chunks[0];
+            }
+            StringBuilder res = BUFFER.get();
+            if (res == null) {
+                res = new StringBuilder(length + 16 * vars.length);
+            } else {
+                BUFFER.set(null);
+                res.setLength(0);
+            }
+            try {
+                res.append(chunks[0]);
+                for (int i = 0; i < vars.length; i++) {
+                    res.append(mapping.apply(vars[i])).append(chunks[i + 1]);
+                }
+                return res.toString();
+            } finally {
+                if (res.capacity() <= MAX_BUFFER_CAPACITY) {
+                    BUFFER.set(res);
+                }
+            }
+        }
+
+    }
+
     @Override
     public void build(String uri, ExprList args) {
         // nothing
@@ -273,7 +353,7 @@ abstract class AbstractBuildFunction implements org.apache.jena.sparql.function.
                 NodeValue value = expr.eval(binding, env);
                 if (value != null) {
                     node = value.asNode();
-                    return ModelFactory.createModelForGraph(env.getActiveGraph()).asRDFNode(node);
+                    return model.asRDFNode(node);
                 }
             } catch (ExprEvalException ex) {
                 throw new ExprEvalException("Cannot exec " + func + ": '" + ex.getMessage() + "'", ex);
@@ -19,28 +19,27 @@
 package ru.avicomp.map.spin.functions.spin;
 
 import org.apache.jena.graph.Node;
-import org.apache.jena.query.Dataset;
-import org.apache.jena.query.QuerySolutionMap;
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.RDFNode;
-import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.sparql.core.DatasetGraph;
-import org.apache.jena.sparql.core.DatasetImpl;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
 import org.apache.jena.sparql.expr.ExprEvalException;
 import org.apache.jena.sparql.expr.NodeValue;
 import org.apache.jena.sparql.function.FunctionEnv;
 import org.apache.jena.sparql.function.FunctionFactory;
 import org.topbraid.spin.arq.AbstractFunction;
-import org.topbraid.spin.arq.DatasetWithDifferentDefaultModel;
-import org.topbraid.spin.model.SPINFactory;
-import org.topbraid.spin.util.SPINExpressions;
-import ru.avicomp.map.spin.SpinModelConfig;
+import ru.avicomp.map.spin.MapARQFactory;
+import ru.avicomp.map.spin.SpinExpressions;
 
 import java.util.Arrays;
-import java.util.Objects;
 
 /**
  * Re-implementation of {@code spin:eval}.
+ * Unlike the original, it does not run a query for each call:
+ * the SPIN expression is compiled into an ARQ {@link org.apache.jena.sparql.expr.Expr Expr}
+ * (see {@link SpinExpressions}), which is evaluated directly against the {@link Binding}.
+ * Compiled expressions are remembered in the {@link MapARQFactory#EXPRESSION_CACHE cache},
+ * if the execution context has one.
  * <p>
  * Created by @ssz on 12.06.2019.
  *
@@ -66,61 +65,32 @@ public class eval extends AbstractFunction implements FunctionFactory {
         if (exprNode == null) {
             throw new ExprEvalException("No expression specified");
         }
-        if (exprNode.isLiteral()) {
-            return NodeValue.makeNode(exprNode);
-        }
-
-        Model model = SpinModelConfig.createSpinModel(env.getActiveGraph());
-        return exec(model.wrapAsResource(exprNode), getBindings(nodes, model), env.getDataset());
+        return exec(exprNode, getBinding(nodes), env);
     }
 
-    public NodeValue exec(RDFNode exprNode, QuerySolutionMap bindings, DatasetGraph dsg) {
+    /**
+     * Evaluates the SPIN expression from the {@link FunctionEnv#getActiveGraph() active graph}.
+     *
+     * @param exprNode {@link Node} the SPIN expression or a literal, not {@code null}
+     * @param binding  {@link Binding} with the values for the expression variables, not {@code null}
+     * @param env      {@link FunctionEnv}, not {@code null}
+     * @return {@link NodeValue}
+     * @throws ExprEvalException if the expression has no result
+     */
+    public static NodeValue exec(Node exprNode, Binding binding, FunctionEnv env) throws ExprEvalException {
         if (exprNode.isLiteral()) {
-            return NodeValue.makeNode(exprNode.asNode());
-        }
-        Model model = Objects.requireNonNull(exprNode.getModel());
-        Dataset ds = new DatasetWithDifferentDefaultModel(model, DatasetImpl.wrap(dsg));
-
-        // The following code is commented out
-        // since ONT-MAP does not support the direct query execution.
-        // No functions can accept queries. Moreover, the function <spin:eval> is marked as <spin:private>.
-        /*
-        org.topbraid.spin.model.Query spin = SPINFactory.asQuery(exprNode.asResource());
-        if (spin instanceof org.topbraid.spin.model.Select || spin instanceof org.topbraid.spin.model.Ask) {
-            org.topbraid.spin.arq.ARQFactory factory = org.topbraid.spin.arq.ARQFactory.get();
-            org.apache.jena.query.Query query = factory.createQuery(spin);
-            try (org.apache.jena.query.QueryExecution qexec = factory.createQueryExecution(query, ds, bindings)) {
-                if (query.isAskType()) {
-                    return NodeValue.makeBoolean(qexec.execAsk());
-                }
-                org.apache.jena.query.ResultSet rs = qexec.execSelect();
-                java.util.List<String> vars = rs.getResultVars();
-                if (!vars.isEmpty() && rs.hasNext()) {
-                    RDFNode res = rs.next().get(vars.get(0));
-                    if (res != null) {
-                        return NodeValue.makeNode(res.asNode());
-                    }
-                }
-            }
-            throw new ExprEvalException(spin + ":: no result");
-        }
-        */
-
-        RDFNode expr = SPINFactory.asExpression(exprNode.asResource());
-        RDFNode res = SPINExpressions.evaluate((Resource) expr, ds, bindings);
-        if (res != null) {
-            return NodeValue.makeNode(res.asNode());
+            return NodeValue.makeNode(exprNode);
         }
-        throw new ExprEvalException("Expression has no result");
+        return SpinExpressions.get(env.getActiveGraph(), exprNode, env.getContext()).eval(binding, env);
     }
 
-    private QuerySolutionMap getBindings(Node[] nodes, Model model) {
-        QuerySolutionMap res = new QuerySolutionMap();
+    private static Binding getBinding(Node[] nodes) {
+        BindingMap res = BindingFactory.create();
         for (int i = 1; i < nodes.length - 1; i += 2) {
             Node property = nodes[i];
             Node value = nodes[i + 1];
             if (value != null) {
-                res.add(property.getLocalName(), model.asRDFNode(value));
+                res.add(Var.alloc(property.getLocalName()), value);
             }
         }
         return res;
@@ -18,16 +18,15 @@
 
 package ru.avicomp.map.spin.functions.spinmap;
 
-import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
-import org.apache.jena.query.QuerySolutionMap;
-import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
 import org.apache.jena.sparql.expr.ExprEvalException;
 import org.apache.jena.sparql.expr.NodeValue;
 import org.apache.jena.sparql.function.FunctionEnv;
 import org.topbraid.spin.arq.AbstractFunction2;
 import org.topbraid.spin.vocabulary.SPINMAP;
-import ru.avicomp.map.spin.SpinModelConfig;
 import ru.avicomp.map.spin.functions.spin.eval;
 import ru.avicomp.ontapi.jena.utils.Iter;
 
@@ -40,26 +39,24 @@ import ru.avicomp.ontapi.jena.utils.Iter;
  *     BIND (spl:object(?context, spinmap:target) AS ?targetExpr) .
  * }
  * }</pre>
+ * The target expression is evaluated directly, without a nested query,
+ * and its compiled form is reused within an inference run.
+ * <p>
  * Created by @ssz on 12.06.2019.
  *
  * @see ru.avicomp.map.spin.vocabulary.AVC#optimize
  */
 public class targetResource extends AbstractFunction2 {
-    private static final String SPINMAP_SOURCE_NAME = SPINMAP.source.getLocalName();
+    private static final Var SPINMAP_SOURCE_VAR = Var.alloc(SPINMAP.source.getLocalName());
     private static final Node SPINMAP_TARGET_NODE = SPINMAP.target.asNode();
 
-    private final eval evalFunction = new eval();
-
     @Override
     protected NodeValue exec(Node arg1, Node arg2, FunctionEnv env) {
         Node source = requireResource(arg1, "arg1");
         Node context = requireResource(arg2, "context");
-        Graph g = env.getActiveGraph();
-        Model m = SpinModelConfig.createSpinModel(g);
-        QuerySolutionMap map = new QuerySolutionMap();
-        map.add(SPINMAP_SOURCE_NAME, m.asRDFNode(source));
-        return Iter.findFirst(g.find(context, SPINMAP_TARGET_NODE, Node.ANY)
-                .mapWith(t -> evalFunction.exec(m.getRDFNode(t.getObject()), map, env.getDataset())))
+        Binding binding = BindingFactory.binding(SPINMAP_SOURCE_VAR, source);
+        return Iter.findFirst(env.getActiveGraph().find(context, SPINMAP_TARGET_NODE, Node.ANY)
+                .mapWith(t -> eval.exec(t.getObject(), binding, env)))
                 .orElseThrow(() -> new ExprEvalException(String.format("No spinmap:targetResource is derived " +
                         "for source=%s and context=%s", source, context)));
     }
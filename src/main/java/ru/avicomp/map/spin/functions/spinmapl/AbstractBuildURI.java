@@ -0,0 +1,115 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.functions.spinmapl;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.topbraid.spin.arq.AbstractFunction;
+import ru.avicomp.map.spin.functions.spif.buildURI;
+import ru.avicomp.map.spin.functions.spl.object;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A base for ARQ impl-optimizations of the {@code spinmapl:buildURI1}, ..., {@code spinmapl:buildURI5} functions.
+ * All of them have the same body pattern, e.g. for {@code spinmapl:buildURI2}:
+ * <pre>{@code
+ * SELECT (IRI(?uri) AS ?result)
+ * WHERE {
+ *     BIND (spl:object(?source, ?arg1) AS ?value1) .
+ *     BIND (spl:object(?source, ?arg2) AS ?value2) .
+ *     BIND (spif:buildURI(?template, ?value1, ?value2) AS ?uri) .
+ * }
+ * }</pre>
+ * For the single-argument function the variable is named {@code ?value}.
+ * The function arguments come in the order {@code (?arg1, ..., ?argN, ?source, ?template)}.
+ * <p>
+ * Created by @ssz on 03.07.2019.
+ *
+ * @see ru.avicomp.map.spin.vocabulary.AVC#optimize
+ */
+abstract class AbstractBuildURI extends AbstractFunction {
+    private final int arity;
+
+    AbstractBuildURI(int arity) {
+        this.arity = arity;
+    }
+
+    @Override
+    protected NodeValue exec(Node[] nodes, FunctionEnv env) {
+        if (nodes.length != arity + 2) {
+            throw new ExprEvalException("Wrong number of arguments: expected " + (arity + 2) + ", got " + nodes.length);
+        }
+        Node source = nodes[arity];
+        Node template = nodes[arity + 1];
+        if (template == null || !template.isLiteral()) {
+            throw new ExprEvalException("spinmapl:template must be a literal, but found " + template);
+        }
+        Graph graph = env.getActiveGraph();
+        Model model = ModelFactory.createModelForGraph(graph);
+        Map<String, Node> named = new HashMap<>();
+        Node[] values = new Node[arity];
+        for (int i = 0; i < arity; i++) {
+            Node arg = nodes[i];
+            if (arg != null) {
+                named.put("arg" + (i + 1), arg);
+            }
+            try {
+                values[i] = object.getObject(graph, source, arg);
+            } catch (ExprEvalException e) {
+                // the BIND leaves the variable unbound
+                continue;
+            }
+            named.put(arity == 1 ? "value" : "value" + (i + 1), values[i]);
+        }
+        if (source != null) {
+            named.put("source", source);
+        }
+        named.put("template", template);
+        Function<String, RDFNode> variables = var -> {
+            Node res = named.get(var);
+            if (res != null) {
+                return model.asRDFNode(res);
+            }
+            if (!Character.isDigit(var.charAt(0))) {
+                return null;
+            }
+            int index = Integer.parseInt(var);
+            if (index <= 0 || index > arity) {
+                return null;
+            }
+            res = values[index - 1];
+            if (res == null) {
+                throw new ExprEvalException("Cannot exec spif:buildURI: the value {?" + var + "} is unbound");
+            }
+            return model.asRDFNode(res);
+        };
+        String uri = buildURI.buildURI(template.getLiteralLexicalForm(), graph.getPrefixMapping(), variables);
+        return NodeValue.makeNode(NodeFactory.createURI(uri));
+    }
+}
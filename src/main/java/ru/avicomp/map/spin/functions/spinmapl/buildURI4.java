@@ -0,0 +1,34 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.functions.spinmapl;
+
+/**
+ * An ARQ impl-optimization for a
+ * {@link ru.avicomp.map.spin.vocabulary.SPINMAPL#buildURI4 spinmapl:buildURI4} (build URI with 4 arguments).
+ * <p>
+ * Created by @ssz on 03.07.2019.
+ *
+ * @see AbstractBuildURI
+ * @see ru.avicomp.map.spin.vocabulary.AVC#optimize
+ */
+public class buildURI4 extends AbstractBuildURI {
+    public buildURI4() {
+        super(4);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.functions.spinmapl;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.ARQConstants;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.expr.nodevalue.NodeFunctions;
+import org.apache.jena.sparql.expr.nodevalue.XSDFuncOp;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.topbraid.spin.arq.AbstractFunction2;
+
+import java.util.Arrays;
+
+/**
+ * An ARQ impl-optimization for a
+ * {@link ru.avicomp.map.spin.vocabulary.SPINMAPL#changeNamespace spinmapl:changeNamespace}.
+ * The query:
+ * <pre>{@code
+ * SELECT ?target
+ * WHERE {
+ *     BIND (afn:localname(?source) AS ?localName) .
+ *     BIND (IRI(CONCAT(?targetNamespace, ?localName)) AS ?target) .
+ * }
+ * }</pre>
+ * Created by @ssz on 03.07.2019.
+ *
+ * @see ru.avicomp.map.spin.vocabulary.AVC#optimize
+ */
+public class changeNamespace extends AbstractFunction2 {
+    @Override
+    protected NodeValue exec(Node source, Node targetNamespace, FunctionEnv env) {
+        if (source == null || !source.isURI()) {
+            throw new ExprEvalException("spinmap:source must be an uri, but found " + source);
+        }
+        if (targetNamespace == null) {
+            throw new ExprEvalException("a null node is given for spinmapl:targetNamespace");
+        }
+        NodeValue str = XSDFuncOp.strConcat(Arrays.asList(NodeValue.makeNode(targetNamespace),
+                NodeValue.makeString(source.getLocalName())));
+        Query query = (Query) env.getContext().get(ARQConstants.sysCurrentQuery);
+        return NodeFunctions.iri(str, query == null ? null : query.getBaseURI());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.functions.spinmapl;
+
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.CastXSD;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.topbraid.spin.arq.AbstractFunction2;
+import ru.avicomp.map.spin.functions.spif.buildURI;
+
+import java.util.function.Function;
+
+/**
+ * An ARQ impl-optimization for a
+ * {@link ru.avicomp.map.spin.vocabulary.SPINMAPL#composeURI spinmapl:composeURI}.
+ * The query:
+ * <pre>{@code
+ * SELECT (IRI(?uri) AS ?result)
+ * WHERE {
+ *     BIND (spif:localName(?source) AS ?value) .
+ *     BIND (spif:buildURI(?template, ?value) AS ?uri) .
+ * }
+ * }</pre>
+ * Created by @ssz on 03.07.2019.
+ *
+ * @see ru.avicomp.map.spin.vocabulary.AVC#optimize
+ */
+public class composeURI extends AbstractFunction2 {
+    @Override
+    protected NodeValue exec(Node source, Node template, FunctionEnv env) {
+        if (template == null || !template.isLiteral()) {
+            throw new ExprEvalException("spinmapl:template must be a literal, but found " + template);
+        }
+        Graph graph = env.getActiveGraph();
+        Model model = ModelFactory.createModelForGraph(graph);
+        Node value = localName(source);
+        Function<String, RDFNode> variables = var -> {
+            switch (var) {
+                case "source":
+                    return source == null ? null : model.asRDFNode(source);
+                case "template":
+                    return model.asRDFNode(template);
+                case "value":
+                    return value == null ? null : model.asRDFNode(value);
+                case "1":
+                    if (value == null) {
+                        throw new ExprEvalException("Cannot exec spif:buildURI: the local name of " + source + " is unbound");
+                    }
+                    return model.asRDFNode(value);
+                default:
+                    return null;
+            }
+        };
+        String uri = buildURI.buildURI(template.getLiteralLexicalForm(), graph.getPrefixMapping(), variables);
+        return NodeValue.makeNode(NodeFactory.createURI(uri));
+    }
+
+    /**
+     * Answers the local name as {@code spif:localName} does:
+     * the part of the {@code xsd:string} form after the last {@code '/'} or {@code '#'}.
+     *
+     * @param node {@link Node}, can be {@code null}
+     * @return {@link Node} string literal or {@code null} if there is no local name
+     */
+    private static Node localName(Node node) {
+        if (node == null || node.isBlank()) {
+            return null;
+        }
+        String str;
+        try {
+            str = CastXSD.cast(NodeValue.makeNode(node), XSDDatatype.XSDstring).getString();
+        } catch (ExprEvalException e) {
+            return null;
+        }
+        int index = Math.max(str.lastIndexOf('/'), str.lastIndexOf('#'));
+        if (index < 0) {
+            return null;
+        }
+        return NodeFactory.createLiteral(str.substring(index + 1));
+    }
+}
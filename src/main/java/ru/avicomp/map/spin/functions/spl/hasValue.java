@@ -0,0 +1,75 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.functions.spl;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.vocabulary.RDFS;
+import org.topbraid.spin.arq.AbstractFunction3;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An ARQ impl-optimization for a {@link org.topbraid.spin.vocabulary.SPL#hasValue spl:hasValue}.
+ * The body query:
+ * <pre>{@code
+ * ASK
+ * WHERE {
+ *     ?p rdfs:subPropertyOf* ?arg2 .
+ *     ?arg1 ?p ?arg3 .
+ * }
+ * }</pre>
+ * The sub-property closure is walked only until the first match is found.
+ * If {@code ?arg2} is not bound, any predicate matches.
+ * <p>
+ * Created by @ssz on 03.07.2019.
+ *
+ * @see ru.avicomp.map.spin.vocabulary.AVC#optimize
+ */
+public class hasValue extends AbstractFunction3 {
+    @Override
+    protected NodeValue exec(Node arg1, Node arg2, Node arg3, FunctionEnv env) {
+        Graph graph = env.getActiveGraph();
+        Node s = arg1 == null ? Node.ANY : arg1;
+        Node o = arg3 == null ? Node.ANY : arg3;
+        if (arg2 == null) {
+            return NodeValue.makeBoolean(graph.contains(s, Node.ANY, o));
+        }
+        Node subPropertyOf = RDFS.subPropertyOf.asNode();
+        Set<Node> seen = new HashSet<>();
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.add(arg2);
+        seen.add(arg2);
+        while (!queue.isEmpty()) {
+            Node p = queue.removeFirst();
+            if (graph.contains(s, p, o)) {
+                return NodeValue.TRUE;
+            }
+            graph.find(Node.ANY, subPropertyOf, p).mapWith(Triple::getSubject)
+                    .filterKeep(seen::add).forEachRemaining(queue::addLast);
+        }
+        return NodeValue.FALSE;
+    }
+}
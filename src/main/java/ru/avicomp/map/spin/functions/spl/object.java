@@ -18,7 +18,9 @@
 
 package ru.avicomp.map.spin.functions.spl;
 
+import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.sparql.expr.ExprEvalException;
 import org.apache.jena.sparql.expr.NodeValue;
 import org.apache.jena.sparql.function.FunctionEnv;
@@ -41,6 +43,24 @@ import ru.avicomp.ontapi.jena.utils.Iter;
 public class object extends AbstractFunction2 {
     @Override
     protected NodeValue exec(Node arg1, Node arg2, FunctionEnv env) {
+        // since this function is used by spin API
+        // always use the whole graph which contains everything: all libraries, source and target inside.
+        // todo: it is better to use search (source) graph in case
+        //  the function is called not by SPIN, but from ONT-MAP, but currently don't know how to achieve this
+        return NodeValue.makeNode(getObject(env.getActiveGraph(), arg1, arg2));
+    }
+
+    /**
+     * Finds the first object for the given subject and predicate, as {@code spl:object} does.
+     * A {@code null} argument means any node.
+     *
+     * @param graph {@link Graph} to search in
+     * @param arg1  {@link Node} subject, either URI or blank node, can be {@code null}
+     * @param arg2  {@link Node} predicate, URI, can be {@code null}
+     * @return {@link Node}
+     * @throws ExprEvalException if wrong arguments are given or nothing is found
+     */
+    public static Node getObject(Graph graph, Node arg1, Node arg2) throws ExprEvalException {
         Node subject, predicate;
         if (arg1 == null) {
             subject = Node.ANY;
@@ -56,14 +76,8 @@ public class object extends AbstractFunction2 {
         } else {
             throw new ExprEvalException("The second argument must be a property (uri node)");
         }
-        // since this function is used by spin API
-        // always use the whole graph which contains everything: all libraries, source and target inside.
-        // todo: it is better to use search (source) graph in case
-        //  the function is called not by SPIN, but from ONT-MAP, but currently don't know how to achieve this
-        return Iter.findFirst(env.getActiveGraph().find(subject, predicate, Node.ANY)
-                .mapWith(x -> NodeValue.makeNode(x.getObject())))
+        return Iter.findFirst(graph.find(subject, predicate, Node.ANY).mapWith(Triple::getObject))
                 .orElseThrow(() -> new ExprEvalException("No object found for ?subject = " +
                         subject + " and ?predicate = " + predicate));
     }
-
 }
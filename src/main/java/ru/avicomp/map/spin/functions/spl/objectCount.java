@@ -0,0 +1,56 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.functions.spl;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.topbraid.spin.arq.AbstractFunction2;
+
+/**
+ * An ARQ impl-optimization for a {@link org.topbraid.spin.vocabulary.SPL#objectCount spl:objectCount}.
+ * The body query:
+ * <pre>{@code
+ * SELECT (COUNT(?object) AS ?result)
+ * WHERE {
+ *     ?arg1 ?arg2 ?object .
+ * }
+ * }</pre>
+ * Created by @ssz on 03.07.2019.
+ *
+ * @see ru.avicomp.map.spin.vocabulary.AVC#optimize
+ */
+public class objectCount extends AbstractFunction2 {
+    @Override
+    protected NodeValue exec(Node arg1, Node arg2, FunctionEnv env) {
+        ExtendedIterator<?> it = env.getActiveGraph().find(arg1 == null ? Node.ANY : arg1,
+                arg2 == null ? Node.ANY : arg2, Node.ANY);
+        long res = 0;
+        try {
+            while (it.hasNext()) {
+                it.next();
+                res++;
+            }
+        } finally {
+            it.close();
+        }
+        return NodeValue.makeInteger(res);
+    }
+}
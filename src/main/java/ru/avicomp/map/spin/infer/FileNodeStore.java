@@ -0,0 +1,221 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import org.apache.jena.graph.Node;
+import ru.avicomp.map.MapJenaException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link NodeStore} that keeps almost nothing in the java heap and therefore is never {@link #isFull() full}.
+ * The nodes are appended to a temporary file, that is read sequentially while draining,
+ * the membership is tracked by the off-heap {@link FingerprintSet}.
+ * A removed node is not deleted from the file, it is just skipped while reading.
+ * The file is truncated each time the store becomes empty and is deleted on {@link #close()}.
+ * <p>
+ * Created by @ssz on 25.06.2019.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FileNodeStore implements NodeStore {
+    protected static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path dir;
+    private final FileChannel channel;
+    private final FingerprintSet members;
+    private final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+    // always in the read mode: the unread data is between the position and the limit
+    private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    // the number of bytes flushed into the file
+    private long written;
+    // the file position of the data that is not read into the buffer yet
+    private long read;
+    private Node head;
+
+    /**
+     * Creates a store in the specified directory.
+     *
+     * @param dir {@link Path} to the directory for temporary files, not {@code null}
+     * @throws MapJenaException.IllegalState if the temporary file cannot be created
+     */
+    public FileNodeStore(Path dir) {
+        this.dir = dir;
+        try {
+            Path file = Files.createTempFile(dir, "ont-map-", ".nodes");
+            this.channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            throw new MapJenaException.IllegalState("Can't create a temporary file in " + dir, e);
+        }
+        this.members = new FingerprintSet(dir, BUFFER_SIZE);
+        this.in.limit(0);
+    }
+
+    @Override
+    public synchronized boolean add(Node node) {
+        byte[] bytes = FingerprintSet.encode(node);
+        if (!members.add(FingerprintSet.hash1(bytes), FingerprintSet.hash2(bytes))) {
+            return false;
+        }
+        try {
+            append(bytes);
+        } catch (IOException e) {
+            throw new MapJenaException.IllegalState("Can't write to a temporary file in " + dir, e);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(Node node) {
+        byte[] bytes = FingerprintSet.encode(node);
+        if (!members.remove(FingerprintSet.hash1(bytes), FingerprintSet.hash2(bytes))) {
+            return false;
+        }
+        if (node.equals(head)) {
+            head = null;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean contains(Node node) {
+        byte[] bytes = FingerprintSet.encode(node);
+        return members.contains(FingerprintSet.hash1(bytes), FingerprintSet.hash2(bytes));
+    }
+
+    @Override
+    public synchronized Node next() {
+        try {
+            while (head == null) {
+                byte[] bytes = readNext();
+                if (bytes == null) {
+                    reset();
+                    return null;
+                }
+                if (members.contains(FingerprintSet.hash1(bytes), FingerprintSet.hash2(bytes))) {
+                    head = FingerprintSet.decode(bytes);
+                }
+            }
+            return head;
+        } catch (IOException e) {
+            throw new MapJenaException.IllegalState("Can't read a temporary file in " + dir, e);
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        return members.size();
+    }
+
+    @Override
+    public boolean isFull() {
+        return false;
+    }
+
+    @Override
+    public synchronized void close() {
+        members.close();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new MapJenaException.IllegalState("Can't close a temporary file in " + dir, e);
+        }
+    }
+
+    private void append(byte[] bytes) throws IOException {
+        if (out.remaining() < bytes.length + 4) {
+            flush();
+        }
+        if (out.remaining() < bytes.length + 4) { // too long
+            ByteBuffer b = ByteBuffer.allocate(bytes.length + 4);
+            b.putInt(bytes.length).put(bytes).flip();
+            write(b);
+            return;
+        }
+        out.putInt(bytes.length).put(bytes);
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        write(out);
+        out.clear();
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            written += channel.write(b, written);
+        }
+    }
+
+    private byte[] readNext() throws IOException {
+        if (!ensure(4)) {
+            return null;
+        }
+        int length = in.getInt();
+        if (!ensure(length)) {
+            throw new MapJenaException.IllegalState("Broken temporary file in " + dir);
+        }
+        byte[] res = new byte[length];
+        in.get(res);
+        return res;
+    }
+
+    private boolean ensure(int n) throws IOException {
+        while (in.remaining() < n) {
+            if (read >= written) {
+                if (out.position() == 0) {
+                    return false;
+                }
+                flush();
+            }
+            if (in.capacity() < n) {
+                ByteBuffer b = ByteBuffer.allocate(Integer.highestOneBit(n) << 1);
+                b.put(in).flip();
+                in = b;
+            }
+            in.compact();
+            int r = channel.read(in, read);
+            in.flip();
+            if (r > 0) {
+                read += r;
+            }
+        }
+        return true;
+    }
+
+    private void reset() throws IOException {
+        if (written == 0) {
+            return;
+        }
+        channel.truncate(0);
+        written = 0;
+        read = 0;
+        in.limit(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FileNodeStore{dir=%s, size=%d, file=%d}", dir, members.size(), written);
+    }
+}
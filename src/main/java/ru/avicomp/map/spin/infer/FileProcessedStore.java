@@ -0,0 +1,57 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import org.apache.jena.graph.Node;
+
+import java.nio.file.Path;
+
+/**
+ * A {@link ProcessedStore} that keeps the fingerprints of individual-rule pairs
+ * in the off-heap {@link FingerprintSet}, which is backed by temporary files.
+ * <p>
+ * Created by @ssz on 25.06.2019.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FileProcessedStore implements ProcessedStore {
+    private final FingerprintSet fingerprints;
+
+    /**
+     * Creates a registry in the specified directory.
+     *
+     * @param dir {@link Path} to the directory for temporary files, not {@code null}
+     * @throws ru.avicomp.map.MapJenaException.IllegalState if the temporary file cannot be created
+     */
+    public FileProcessedStore(Path dir) {
+        this.fingerprints = new FingerprintSet(dir, FileNodeStore.BUFFER_SIZE);
+    }
+
+    @Override
+    public boolean add(Node individual, int rule) {
+        byte[] bytes = FingerprintSet.encode(individual);
+        long h1 = FingerprintSet.mix(FingerprintSet.hash1(bytes) + rule * 0x9e3779b97f4a7c15L);
+        long h2 = FingerprintSet.hash2(bytes) ^ rule;
+        return fingerprints.add(h1, h2);
+    }
+
+    @Override
+    public void close() {
+        fingerprints.close();
+    }
+}
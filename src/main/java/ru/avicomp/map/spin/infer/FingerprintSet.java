@@ -0,0 +1,299 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import ru.avicomp.map.MapJenaException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An open-addressing hash set of 128-bit fingerprints, that lives outside the java heap:
+ * the table consists of {@link java.nio.MappedByteBuffer}s over temporary (already deleted) files,
+ * so it is backed by the OS page cache and can be swapped out to the disk.
+ * With 128-bit fingerprints the probability of a false match is negligible even for billions of elements.
+ * Not thread-safe.
+ * <p>
+ * Created by @ssz on 25.06.2019.
+ */
+final class FingerprintSet implements AutoCloseable {
+    private static final int SLOT_SIZE = 16;
+    // 1GB, a single mapped buffer cannot be larger than 2GB:
+    private static final int SEGMENT_BITS = 26;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final double LOAD_FACTOR = 0.5;
+
+    private final Path dir;
+    private ByteBuffer[] table;
+    private int capacity;
+    private long size;
+    private long deleted;
+
+    FingerprintSet(Path dir, int capacity) {
+        this.dir = dir;
+        this.capacity = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+        this.table = map(dir, this.capacity);
+    }
+
+    /**
+     * Encodes the given URI or blank node as bytes.
+     *
+     * @param node {@link Node}
+     * @return byte array
+     * @throws MapJenaException.IllegalArgument if the node is neither URI nor blank
+     */
+    static byte[] encode(Node node) {
+        String label;
+        byte type;
+        if (node.isURI()) {
+            label = node.getURI();
+            type = 'U';
+        } else if (node.isBlank()) {
+            label = node.getBlankNodeLabel();
+            type = 'B';
+        } else {
+            throw new MapJenaException.IllegalArgument("Not an individual: " + node);
+        }
+        byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+        byte[] res = new byte[bytes.length + 1];
+        res[0] = type;
+        System.arraycopy(bytes, 0, res, 1, bytes.length);
+        return res;
+    }
+
+    /**
+     * Decodes a node from the bytes, which are produced by the {@link #encode(Node)} method.
+     *
+     * @param bytes byte array
+     * @return {@link Node}
+     */
+    static Node decode(byte[] bytes) {
+        String label = new String(bytes, 1, bytes.length - 1, StandardCharsets.UTF_8);
+        return bytes[0] == 'U' ? NodeFactory.createURI(label) : NodeFactory.createBlankNode(label);
+    }
+
+    /**
+     * Calculates the first half of a fingerprint (FNV-1a with the final avalanche).
+     *
+     * @param bytes byte array
+     * @return long
+     */
+    static long hash1(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Calculates the second half of a fingerprint, which is independent of the {@link #hash1(byte[])}.
+     *
+     * @param bytes byte array
+     * @return long
+     */
+    static long hash2(byte[] bytes) {
+        long h = bytes.length;
+        for (byte b : bytes) {
+            h = 31 * h + (b & 0xff) + 0x9e3779b97f4a7c15L;
+            h = Long.rotateLeft(h, 23);
+        }
+        return mix(h ^ 0x2545f4914f6cdd1dL);
+    }
+
+    /**
+     * The MurmurHash3 finalization mix.
+     *
+     * @param h long
+     * @return long
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static ByteBuffer[] map(Path dir, int capacity) {
+        int segment = Math.min(capacity, SEGMENT_MASK + 1);
+        ByteBuffer[] res = new ByteBuffer[capacity / segment];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = map(dir, (long) segment * SLOT_SIZE);
+        }
+        return res;
+    }
+
+    private static ByteBuffer map(Path dir, long bytes) {
+        try {
+            Path file = Files.createTempFile(dir, "ont-map-", ".set");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+                // the mapping remains valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            }
+        } catch (IOException e) {
+            throw new MapJenaException.IllegalState("Can't create a temporary file in " + dir, e);
+        }
+    }
+
+    private static long get(ByteBuffer[] table, int slot, int half) {
+        return table[slot >>> SEGMENT_BITS].getLong((slot & SEGMENT_MASK) * SLOT_SIZE + half * 8);
+    }
+
+    private static void put(ByteBuffer[] table, int slot, long k1, long k2) {
+        ByteBuffer b = table[slot >>> SEGMENT_BITS];
+        int offset = (slot & SEGMENT_MASK) * SLOT_SIZE;
+        b.putLong(offset, k1);
+        b.putLong(offset + 8, k2);
+    }
+
+    /**
+     * Adds a fingerprint.
+     *
+     * @param h1 long, the first half
+     * @param h2 long, the second half
+     * @return {@code true} if the set did not already contain the fingerprint
+     */
+    boolean add(long h1, long h2) {
+        if (h1 == 0) h1 = 1; // zero is reserved for free and deleted slots
+        if (size + deleted + 1 > capacity * LOAD_FACTOR) {
+            rehash(size + 1 > capacity * LOAD_FACTOR / 2 ? capacity << 1 : capacity);
+        }
+        int mask = capacity - 1;
+        int free = -1;
+        for (int i = (int) h1 & mask; ; i = (i + 1) & mask) {
+            long k1 = get(table, i, 0);
+            long k2 = get(table, i, 1);
+            if (k1 == 0) {
+                if (k2 == 0) { // free slot, the end of the chain
+                    if (free == -1) {
+                        free = i;
+                    } else {
+                        deleted--;
+                    }
+                    put(table, free, h1, h2);
+                    size++;
+                    return true;
+                }
+                if (free == -1) { // the first deleted slot in the chain
+                    free = i;
+                }
+                continue;
+            }
+            if (k1 == h1 && k2 == h2) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Answers {@code true} if the set contains the fingerprint.
+     *
+     * @param h1 long, the first half
+     * @param h2 long, the second half
+     * @return boolean
+     */
+    boolean contains(long h1, long h2) {
+        return find(h1 == 0 ? 1 : h1, h2) >= 0;
+    }
+
+    /**
+     * Removes the fingerprint.
+     *
+     * @param h1 long, the first half
+     * @param h2 long, the second half
+     * @return {@code true} if the set contained the fingerprint
+     */
+    boolean remove(long h1, long h2) {
+        int i = find(h1 == 0 ? 1 : h1, h2);
+        if (i < 0) {
+            return false;
+        }
+        put(table, i, 0, 1);
+        size--;
+        deleted++;
+        return true;
+    }
+
+    long size() {
+        return size;
+    }
+
+    private int find(long h1, long h2) {
+        int mask = capacity - 1;
+        for (int i = (int) h1 & mask; ; i = (i + 1) & mask) {
+            long k1 = get(table, i, 0);
+            long k2 = get(table, i, 1);
+            if (k1 == h1 && k2 == h2) {
+                return i;
+            }
+            if (k1 == 0 && k2 == 0) {
+                return -1;
+            }
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        if (newCapacity <= 0 || newCapacity > MAX_CAPACITY) {
+            throw new MapJenaException.IllegalState("Too many elements: " + size);
+        }
+        ByteBuffer[] prev = table;
+        int prevCapacity = capacity;
+        table = map(dir, newCapacity);
+        capacity = newCapacity;
+        size = 0;
+        deleted = 0;
+        int mask = capacity - 1;
+        for (int j = 0; j < prevCapacity; j++) {
+            long k1 = get(prev, j, 0);
+            if (k1 == 0) {
+                continue;
+            }
+            long k2 = get(prev, j, 1);
+            int i = (int) k1 & mask;
+            while (get(table, i, 0) != 0) {
+                i = (i + 1) & mask;
+            }
+            put(table, i, k1, k2);
+            size++;
+        }
+    }
+
+    @Override
+    public void close() {
+        // the buffers are unmapped by GC
+        table = null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FingerprintSet{size=%d, capacity=%d}", size, capacity);
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphListener;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.WrappedGraph;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.vocabulary.RDFS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.avicomp.map.MapJenaException;
+import ru.avicomp.map.MapManager;
+import ru.avicomp.map.MapModel;
+import ru.avicomp.map.spin.MapConfigImpl;
+import ru.avicomp.map.spin.MapManagerImpl;
+import ru.avicomp.map.spin.SpinModelConfig;
+import ru.avicomp.map.utils.BaseGraphListener;
+import ru.avicomp.map.utils.GraphUtils;
+import ru.avicomp.map.utils.ModelUtils;
+import ru.avicomp.ontapi.jena.UnionGraph;
+import ru.avicomp.ontapi.jena.impl.UnionModel;
+import ru.avicomp.ontapi.jena.model.OntGraphModel;
+import ru.avicomp.ontapi.jena.utils.Graphs;
+import ru.avicomp.ontapi.jena.vocabulary.RDF;
+
+import java.util.*;
+
+/**
+ * An incremental implementation of {@link MapManager.IncrementalInferenceEngine}.
+ * <p>
+ * While inference, all the source and the target graphs in the query model are wrapped
+ * so that each {@code find} or {@code contains} pattern, that a rule-individual pair issues, is recorded.
+ * The patterns (but not the found triples) are recorded, so the absence of data is also a dependency,
+ * e.g. for {@code OPTIONAL} or {@code FILTER NOT EXISTS}.
+ * The triples that each pair produces are recorded as well, each target triple has a support counter.
+ * On update, a changed triple affects all the pairs that have read a matching pattern,
+ * and also all the pairs of its subject, if it is an {@code rdf:type} declaration,
+ * or all the pairs of the individuals of its subject class, if it is a {@code rdfs:subClassOf} declaration.
+ * Each affected pair is retracted (a triple without support is removed from the target) and re-run.
+ * The changes of the target, made by the update, may affect other pairs in turn,
+ * so the process is repeated until there are no more changes.
+ * <p>
+ * The rules are run individual by individual, the {@link MapConfigImpl#inferenceParallelism() parallel}
+ * and the {@link MapConfigImpl#inferenceBatchSize() batch} modes are not used.
+ * <p>
+ * Created by @ssz on 26.06.2019.
+ */
+@SuppressWarnings("WeakerAccess")
+public class IncrementalInferenceEngineImpl extends InferenceEngineImpl implements MapManager.IncrementalInferenceEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalInferenceEngineImpl.class);
+
+    // A guard against an infinite loop in case of some weird mapping, that produces different results on each run
+    protected static final int MAX_UPDATE_ROUNDS = 1_000;
+
+    protected final Collector listener = new Collector();
+    // the graphs of the current run, used to assemble the query model:
+    protected Set<Graph> tracked = Collections.emptySet();
+    protected State state;
+    // the state that receives the read patterns, the engine is single-threaded:
+    private State active;
+
+    public IncrementalInferenceEngineImpl(MapModel mapping, MapManagerImpl manager) {
+        super(mapping, manager);
+    }
+
+    /**
+     * Forgets the previous state, runs the inference recording the read patterns,
+     * and starts listening to the source changes.
+     * Both the synchronous and the {@link #runAsync(Graph, Graph, java.util.concurrent.Executor) asynchronous}
+     * runs go through this method.
+     * If the run fails or is cancelled, the engine is left without state, so it must be run again before update.
+     *
+     * @param source a graph with data to infer, not {@code null}
+     * @param target a graph to write mapping results, not {@code null}
+     * @param task   {@link InferenceTaskImpl} or {@code null} for a synchronous run
+     * @throws MapJenaException in case if something goes wrong
+     */
+    @Override
+    protected void run(Graph source, Graph target, InferenceTaskImpl task) throws MapJenaException {
+        close();
+        Set<Graph> graphs = new HashSet<>();
+        Graphs.baseGraphs(source).forEach(graphs::add);
+        Graphs.baseGraphs(target).forEach(graphs::add);
+        graphs.add(source);
+        graphs.add(target);
+        this.tracked = graphs;
+        super.run(source, target, task);
+        source.getEventManager().register(listener);
+    }
+
+    /**
+     * Assemblies the query model, wrapping each source and target graph to record read patterns.
+     *
+     * @return {@link UnionModel} with SPIN personalities
+     */
+    @Override
+    public UnionModel assembleQueryModel() {
+        UnionGraph raw = (UnionGraph) super.assembleQueryModel().getGraph();
+        UnionGraph res = new UnionGraph(wrap(raw.getBaseGraph()), null, null, false);
+        res.getPrefixMapping().setNsPrefixes(raw.getPrefixMapping());
+        raw.getUnderlying().graphs().map(this::wrap).forEach(res::addGraph);
+        return new UnionModel(res, SpinModelConfig.LIB_PERSONALITY);
+    }
+
+    protected Graph wrap(Graph g) {
+        return tracked.contains(g) ? new RecordingGraph(g) : g;
+    }
+
+    @Override
+    protected void run(Collection<ProcessedQuery> queries, Graph source, Graph target, InferenceTaskImpl task) {
+        UnionModel query = (UnionModel) queries.iterator().next().getModel();
+        UnionGraph queryGraph = query.getGraph();
+        // the query graph with the raw graphs, to select the source individuals:
+        UnionGraph raw = new UnionGraph(unwrap(queryGraph.getBaseGraph()), null, null, false);
+        queryGraph.getUnderlying().graphs().map(IncrementalInferenceEngineImpl::unwrap).forEach(raw::addGraph);
+        OntGraphModel src = assembleSourceDataModel(raw, source, target);
+        if (!GraphUtils.containsAll(raw, source)) {
+            queryGraph.addGraph(new RecordingGraph(source));
+        }
+        if (!GraphUtils.containsAll(raw, target)) {
+            queryGraph.addGraph(new RecordingGraph(target));
+        }
+        State res = new State(new RuleIndex<>(queries), query, src, target);
+        Set<Node> individuals = new LinkedHashSet<>();
+        listIndividuals(src, res.dst).forEach(i -> individuals.add(i.asNode()));
+        if (task != null) {
+            task.setTotal(individuals.size());
+        }
+        res.refresh(individuals, Collections.emptySet(), task);
+        this.state = res;
+    }
+
+    private static Graph unwrap(Graph g) {
+        return g instanceof RecordingGraph ? ((RecordingGraph) g).getWrapped() : g;
+    }
+
+    @Override
+    public void update(Collection<Triple> added, Collection<Triple> removed) throws MapJenaException {
+        Set<Triple> changes = new LinkedHashSet<>(added);
+        changes.addAll(removed);
+        update(changes);
+    }
+
+    @Override
+    public void update() throws MapJenaException {
+        update(listener.flush());
+    }
+
+    protected void update(Set<Triple> changes) throws MapJenaException {
+        if (state == null) {
+            throw new MapJenaException.IllegalState("The engine has not been run yet.");
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        LOGGER.debug("Update: {} changed source triples.", changes.size());
+        registerRuntimeFunctions(state.query);
+        state.refresh(state.subjects(changes), state.affected(changes));
+    }
+
+    @Override
+    public GraphListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public void close() {
+        if (state != null) {
+            state.source.getEventManager().unregister(listener);
+            state = null;
+        }
+        active = null;
+        listener.flush();
+        tracked = Collections.emptySet();
+    }
+
+    /**
+     * A rule-individual pair.
+     */
+    protected static final class Pair {
+        private final int rule;
+        private final Node individual;
+
+        Pair(int rule, Node individual) {
+            this.rule = rule;
+            this.individual = individual;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Pair)) return false;
+            Pair other = (Pair) o;
+            return rule == other.rule && individual.equals(other.individual);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * individual.hashCode() + rule;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Pair{rule=%d, individual=%s}", rule, individual);
+        }
+    }
+
+    /**
+     * What a pair has read and what it has produced.
+     */
+    protected static final class Record {
+        private final Set<Triple> patterns;
+        private final Set<Triple> produced;
+
+        Record(Set<Triple> patterns, Set<Triple> produced) {
+            this.patterns = patterns;
+            this.produced = produced;
+        }
+    }
+
+    /**
+     * The inference state between updates.
+     */
+    protected class State {
+        protected final RuleIndex<ProcessedQuery> rules;
+        protected final List<ProcessedQuery> ordered;
+        protected final UnionModel query;
+        protected final OntGraphModel src;
+        protected final Graph source;
+        protected final Graph target;
+        protected final Model dst;
+        // the function cache lives as long as the state:
+        protected final Context context = createRunContext();
+        protected final Map<Pair, Record> records = new HashMap<>();
+        protected final Map<Node, BitSet> byIndividual = new HashMap<>();
+        protected final Map<Triple, Set<Pair>> byPattern = new HashMap<>();
+        protected final Map<Triple, Integer> support = new HashMap<>();
+        // the triples that have been in the target before, they are never removed:
+        protected final Set<Triple> external = new HashSet<>();
+        // the patterns of the currently running pair:
+        protected Set<Triple> reads;
+
+        protected State(RuleIndex<ProcessedQuery> rules, UnionModel query, OntGraphModel src, Graph target) {
+            this.rules = rules;
+            this.ordered = new ArrayList<>(rules.rules());
+            this.query = query;
+            this.src = src;
+            this.source = src.getGraph();
+            this.target = target;
+            this.dst = ModelFactory.createModelForGraph(target);
+            active = this;
+        }
+
+        /**
+         * Re-runs all the pairs for the given individuals and all the given pairs,
+         * then repeats the process for the pairs affected by the target changes.
+         *
+         * @param individuals Set of {@link Node}s, individuals to re-dispatch
+         * @param affected    Set of {@link Pair}s to re-run
+         */
+        protected void refresh(Set<Node> individuals, Set<Pair> affected) {
+            refresh(individuals, affected, null);
+        }
+
+        /**
+         * Re-runs the pairs reporting the progress into the given task.
+         *
+         * @param individuals Set of {@link Node}s, individuals to re-dispatch
+         * @param affected    Set of {@link Pair}s to re-run
+         * @param task        {@link InferenceTaskImpl} or {@code null}
+         * @throws java.util.concurrent.CancellationException if the task has been cancelled
+         */
+        protected void refresh(Set<Node> individuals, Set<Pair> affected, InferenceTaskImpl task) {
+            for (int round = 0; !individuals.isEmpty() || !affected.isEmpty(); round++) {
+                if (round == MAX_UPDATE_ROUNDS) {
+                    throw new MapJenaException.IllegalState("The inference does not converge after "
+                            + round + " rounds.");
+                }
+                Set<Triple> changes = refreshRound(individuals, affected, task);
+                individuals = subjects(changes);
+                affected = affected(changes);
+            }
+        }
+
+        /**
+         * Runs the single round of update.
+         *
+         * @param individuals Set of {@link Node}s, individuals to re-dispatch
+         * @param affected    Set of {@link Pair}s to re-run
+         * @param task        {@link InferenceTaskImpl} or {@code null}
+         * @return Set of target {@link Triple}s that have been added or removed
+         */
+        protected Set<Triple> refreshRound(Set<Node> individuals, Set<Pair> affected, InferenceTaskImpl task) {
+            Map<Node, BitSet> todo = new LinkedHashMap<>();
+            individuals.forEach(i -> {
+                BitSet res = todo.computeIfAbsent(i, x -> new BitSet());
+                BitSet prev = byIndividual.get(i);
+                if (prev != null) {
+                    res.or(prev);
+                }
+            });
+            affected.forEach(p -> todo.computeIfAbsent(p.individual, x -> new BitSet()).set(p.rule));
+            Set<Triple> added = new LinkedHashSet<>();
+            Set<Triple> unsupported = new LinkedHashSet<>();
+            todo.forEach((i, selected) -> {
+                if (task != null) {
+                    task.checkpoint(1);
+                }
+                BitSet applicable = new BitSet();
+                rules.select(classes(i)).forEach(q -> applicable.set(rules.ordinal(q)));
+                if (individuals.contains(i)) {
+                    selected.or(applicable);
+                }
+                Resource individual = dst.asRDFNode(i).asResource();
+                selected.stream().forEach(r -> {
+                    Pair p = new Pair(r, i);
+                    retract(p, unsupported);
+                    if (applicable.get(r)) {
+                        execute(p, individual, added, unsupported, task);
+                    }
+                });
+            });
+            Set<Triple> res = new LinkedHashSet<>(added);
+            unsupported.forEach(t -> {
+                if (external.contains(t)) {
+                    return;
+                }
+                target.delete(t);
+                res.add(t);
+            });
+            return res;
+        }
+
+        /**
+         * Lists all classes of the given individual both from the source and the target,
+         * including the indirect ones, i.e. the superclasses found in the source model,
+         * in the same way as the individuals are dispatched by the {@link InferenceEngineImpl}.
+         *
+         * @param individual {@link Node}
+         * @return Set of {@link Resource}s
+         */
+        protected Set<Resource> classes(Node individual) {
+            Set<Resource> res = new HashSet<>();
+            ModelUtils.listClasses(src.wrapAsResource(individual)).forEachRemaining(res::add);
+            target.find(individual, RDF.Nodes.type, Node.ANY)
+                    .mapWith(t -> src.asRDFNode(t.getObject()))
+                    .filterKeep(RDFNode::isResource)
+                    .forEachRemaining(o -> ModelUtils.listSuperClasses(o.asResource()).forEachRemaining(res::add));
+            return res;
+        }
+
+        /**
+         * Finds the individuals to re-dispatch for the given changes:
+         * the subjects of all {@code rdf:type} declarations,
+         * and all the individuals of a class (or of its subclasses),
+         * if there is a {@code rdfs:subClassOf} declaration for that class among the changes.
+         *
+         * @param changes Collection of {@link Triple}s
+         * @return Set of {@link Node}s
+         */
+        protected Set<Node> subjects(Collection<Triple> changes) {
+            Set<Node> res = new LinkedHashSet<>();
+            changes.forEach(t -> {
+                if (t.getSubject().isLiteral()) {
+                    return;
+                }
+                if (RDF.Nodes.type.equals(t.getPredicate())) {
+                    res.add(t.getSubject());
+                    return;
+                }
+                if (!RDFS.Nodes.subClassOf.equals(t.getPredicate())) {
+                    return;
+                }
+                for (Node type : listSubClasses(t.getSubject(), src)) {
+                    source.find(Node.ANY, RDF.Nodes.type, type).mapWith(Triple::getSubject).forEachRemaining(res::add);
+                    target.find(Node.ANY, RDF.Nodes.type, type).mapWith(Triple::getSubject).forEachRemaining(res::add);
+                }
+            });
+            return res;
+        }
+
+        /**
+         * Finds all the pairs that have read a pattern matching any of the given triples.
+         *
+         * @param changes Collection of {@link Triple}s
+         * @return Set of {@link Pair}s
+         */
+        protected Set<Pair> affected(Collection<Triple> changes) {
+            Set<Pair> res = new LinkedHashSet<>();
+            changes.forEach(t -> {
+                for (int mask = 0; mask < 8; mask++) {
+                    Triple pattern = Triple.create((mask & 1) == 0 ? t.getSubject() : Node.ANY,
+                            (mask & 2) == 0 ? t.getPredicate() : Node.ANY,
+                            (mask & 4) == 0 ? t.getObject() : Node.ANY);
+                    Set<Pair> pairs = byPattern.get(pattern);
+                    if (pairs != null) {
+                        res.addAll(pairs);
+                    }
+                }
+            });
+            return res;
+        }
+
+        /**
+         * Forgets everything about the given pair.
+         *
+         * @param p           {@link Pair}
+         * @param unsupported Set to collect target triples, that have no more support
+         */
+        protected void retract(Pair p, Set<Triple> unsupported) {
+            Record r = records.remove(p);
+            if (r == null) {
+                return;
+            }
+            BitSet rules = byIndividual.get(p.individual);
+            rules.clear(p.rule);
+            if (rules.isEmpty()) {
+                byIndividual.remove(p.individual);
+            }
+            r.patterns.forEach(t -> {
+                Set<Pair> pairs = byPattern.get(t);
+                pairs.remove(p);
+                if (pairs.isEmpty()) {
+                    byPattern.remove(t);
+                }
+            });
+            r.produced.forEach(t -> {
+                int n = support.merge(t, -1, Integer::sum);
+                if (n == 0) {
+                    support.remove(t);
+                    unsupported.add(t);
+                }
+            });
+        }
+
+        /**
+         * Runs the given pair, recording its reads, and writes the result into the target.
+         *
+         * @param p           {@link Pair}
+         * @param individual  {@link Resource}
+         * @param added       Set to collect new target triples
+         * @param unsupported Set of target triples, that are going to be removed
+         * @param task        {@link InferenceTaskImpl} to report the progress or {@code null}
+         */
+        protected void execute(Pair p,
+                               Resource individual,
+                               Set<Triple> added,
+                               Set<Triple> unsupported,
+                               InferenceTaskImpl task) {
+            ProcessedQuery q = ordered.get(p.rule);
+            LOGGER.debug("RUN: {} ::: '{}'", individual, q);
+            if (task != null) {
+                task.setRule(q);
+            }
+            Set<Triple> patterns = new HashSet<>();
+            Set<Triple> produced = new LinkedHashSet<>();
+            reads = patterns;
+            try {
+                q.run(individual, context, produced::add);
+            } finally {
+                reads = null;
+            }
+            if (task != null) {
+                task.addTriples(produced.size());
+            }
+            records.put(p, new Record(patterns, produced));
+            byIndividual.computeIfAbsent(p.individual, x -> new BitSet()).set(p.rule);
+            patterns.forEach(t -> byPattern.computeIfAbsent(t, x -> new HashSet<>()).add(p));
+            produced.forEach(t -> {
+                if (support.merge(t, 1, Integer::sum) != 1) {
+                    return;
+                }
+                if (unsupported.remove(t)) { // it is still in the target
+                    return;
+                }
+                if (target.contains(t)) {
+                    external.add(t);
+                    return;
+                }
+                target.add(t);
+                added.add(t);
+            });
+        }
+
+        protected void record(Triple pattern) {
+            if (reads != null) {
+                reads.add(pattern);
+            }
+        }
+    }
+
+    /**
+     * A graph wrapper, that records all read patterns into the current {@link State}.
+     */
+    protected class RecordingGraph extends WrappedGraph {
+
+        protected RecordingGraph(Graph base) {
+            super(base);
+        }
+
+        @Override
+        public ExtendedIterator<Triple> find(Triple m) {
+            record(m);
+            return super.find(m);
+        }
+
+        @Override
+        public ExtendedIterator<Triple> find(Node s, Node p, Node o) {
+            record(Triple.createMatch(s, p, o));
+            return super.find(s, p, o);
+        }
+
+        @Override
+        public boolean contains(Triple t) {
+            record(t);
+            return super.contains(t);
+        }
+
+        @Override
+        public boolean contains(Node s, Node p, Node o) {
+            record(Triple.createMatch(s, p, o));
+            return super.contains(s, p, o);
+        }
+
+        private void record(Triple pattern) {
+            if (active != null) {
+                active.record(pattern);
+            }
+        }
+    }
+
+    /**
+     * A listener to collect the source changes.
+     * Both additions and deletions are collected into the same set,
+     * since each of them is just a trigger to recompute the corresponding pairs.
+     */
+    protected static class Collector extends BaseGraphListener {
+        private Set<Triple> changes = new LinkedHashSet<>();
+
+        @Override
+        protected synchronized void addEvent(Triple t) {
+            changes.add(t);
+        }
+
+        @Override
+        protected synchronized void deleteEvent(Triple t) {
+            changes.add(t);
+        }
+
+        protected synchronized Set<Triple> flush() {
+            Set<Triple> res = changes;
+            changes = new LinkedHashSet<>();
+            return res;
+        }
+    }
+}
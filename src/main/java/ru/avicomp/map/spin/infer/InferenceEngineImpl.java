@@ -18,21 +18,43 @@
 
 package ru.avicomp.map.spin.infer;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import org.apache.jena.enhanced.BuiltinPersonalities;
+import org.apache.jena.graph.Factory;
 import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.GraphEventManager;
 import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QuerySolutionMap;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.rdf.model.Statement;
-import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementGroup;
 import org.apache.jena.sparql.util.Context;
+import org.apache.jena.sparql.util.Symbol;
+import org.apache.jena.util.iterator.ExtendedIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.topbraid.spin.arq.ARQFactory;
 import org.topbraid.spin.util.QueryWrapper;
 import org.topbraid.spin.vocabulary.SPIN;
+import ru.avicomp.map.MapContext;
 import ru.avicomp.map.MapJenaException;
 import ru.avicomp.map.MapManager;
 import ru.avicomp.map.MapModel;
@@ -41,6 +63,7 @@ import ru.avicomp.map.spin.vocabulary.AVC;
 import ru.avicomp.map.utils.GraphLogListener;
 import ru.avicomp.map.utils.GraphUtils;
 import ru.avicomp.map.utils.ModelUtils;
+import ru.avicomp.ontapi.NoOpReadWriteLock;
 import ru.avicomp.ontapi.jena.OntModelFactory;
 import ru.avicomp.ontapi.jena.UnionGraph;
 import ru.avicomp.ontapi.jena.impl.UnionModel;
@@ -52,7 +75,13 @@ import ru.avicomp.ontapi.jena.utils.Iter;
 import ru.avicomp.ontapi.jena.vocabulary.OWL;
 import ru.avicomp.ontapi.jena.vocabulary.RDF;
 
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -78,6 +107,8 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
     protected final Graph library;
     protected final MapConfigImpl config;
     protected final MapARQFactory factory;
+    // the metrics of the last run performed by the thread, see #getReport():
+    private final ThreadLocal<InferenceMetrics> reports = new ThreadLocal<>();
 
     // A threshold for internal nodes cache.
     // Assume there is Hotspot Java 6 VM (x32)
@@ -89,6 +120,12 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
     // Let it be ten times more ~ 1024 byte, i.e. 1MB ~= 1000 nodes (Wow! It is very very understated. But whatever)
     // Then 50MB threshold:
     protected static final int INTERMEDIATE_NODES_STORE_THRESHOLD = 50_000;
+    // The number of source individuals in a single task while parallel processing:
+    protected static final int PARALLEL_PARTITION_SIZE = 1_000;
+    // A context-key to hold the InferenceTaskImpl of an asynchronous run:
+    protected static final Symbol TASK = Symbol.create(InferenceEngineImpl.class.getName() + ".Task");
+    // A context-key to hold the query model of a run, see ProcessedQuery#getModel(Context):
+    protected static final Symbol QUERY_MODEL = Symbol.create(InferenceEngineImpl.class.getName() + ".QueryModel");
 
     public InferenceEngineImpl(MapModel mapping, MapManagerImpl manager) {
         this(mapping, manager.getTopSpinGraph(), manager.getFactory(), manager.getMappingConfiguration());
@@ -103,32 +140,166 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
 
     @Override
     public void run(Graph source, Graph target) throws MapJenaException {
-        UnionModel query = assembleQueryModel();
-        // re-register runtime functions
-        query.getBaseModel().listResourcesWithProperty(AVC.runtime)
-                .mapWith(r -> r.inModel(query))
-                .forEachRemaining(factory::replace);
-        // find rules:
-        Set<ProcessedQuery> rules = selectMapRules(query);
-        if (LOGGER.isDebugEnabled())
-            rules.forEach(c -> LOGGER.debug("Rule for <{}>: '{}'", c.getSubject(), c));
-        if (rules.isEmpty()) {
-            throw Exceptions.INFERENCE_NO_RULES.create()
-                    .add(Exceptions.Key.MAPPING, String.valueOf(mapping))
-                    .build();
-        }
+        run(source, target, null);
+    }
+
+    /**
+     * Starts the inference in the given executor.
+     * The task is passed to the {@link Worker}s through the run context (see {@link #TASK}),
+     * so a subclass, that runs rules in its own way, still works, but cannot be stopped once it is started.
+     *
+     * @param source   a graph with data to infer, not {@code null}
+     * @param target   a graph to write mapping results, not {@code null}
+     * @param executor {@link Executor} to run the inference, not {@code null}
+     * @return {@link InferenceTaskImpl}
+     */
+    @Override
+    public InferenceTaskImpl runAsync(Graph source, Graph target, Executor executor) {
+        Objects.requireNonNull(source, "Null source");
+        Objects.requireNonNull(target, "Null target");
+        InferenceTaskImpl res = new InferenceTaskImpl();
+        executor.execute(() -> {
+            if (res.isStopped()) {
+                return;
+            }
+            try {
+                run(source, target, res);
+                res.future().complete(null);
+            } catch (Throwable t) {
+                res.future().completeExceptionally(t);
+            } finally {
+                // the report is held by the task, the executor thread must not keep it:
+                reports.remove();
+            }
+        });
+        return res;
+    }
+
+    /**
+     * Performs the inference reporting the progress into the given task.
+     *
+     * @param source a graph with data to infer, not {@code null}
+     * @param target a graph to write mapping results, not {@code null}
+     * @param task   {@link InferenceTaskImpl} or {@code null} for a synchronous run
+     * @throws MapJenaException in case if something goes wrong
+     * @throws CancellationException if the task has been cancelled
+     */
+    protected void run(Graph source, Graph target, InferenceTaskImpl task) throws MapJenaException {
+        Collection<ProcessedQuery> rules = prepareRules();
         // run rules:
         GraphEventManager events = target.getEventManager();
         GraphLogListener logs = new GraphLogListener(LOGGER::debug);
         if (LOGGER.isDebugEnabled())
             events.register(logs);
         try {
-            run(rules, source, target);
+            run(rules, source, target, task);
         } finally {
             events.unregister(logs);
         }
     }
 
+    /**
+     * Performs inference over the data, that is read from the given stream.
+     * Only a single resource description (i.e. consecutive triples with the same subject) is kept in memory:
+     * it is loaded into a temporary graph, which is a part of the query model,
+     * then all suitable rules are run for that resource, including the dependent rules for the result individuals,
+     * and the result is sent to the {@code target} stream.
+     * So the source data is expected to be grouped by subjects,
+     * and the rules can only see the description of the current resource, the mapping and the schemas,
+     * but not the other resources from the stream.
+     * A resource is processed by the rules of all its classes, including the superclasses from the schemas,
+     * as in the graph-based run.
+     * The {@code target} stream is started and finished by this method (even if the run fails),
+     * the result is not distinct across different descriptions.
+     *
+     * @param source {@link InputStream} with the source data, not {@code null}
+     * @param lang   {@link Lang}, the syntax of the source data, e.g. {@link Lang#NTRIPLES}, not {@code null}
+     * @param target {@link StreamRDF} to write the inference results, not {@code null}
+     * @throws MapJenaException in case if something goes wrong
+     */
+    @Override
+    public void run(InputStream source, Lang lang, StreamRDF target) throws MapJenaException {
+        Collection<ProcessedQuery> found = prepareRules();
+        RuleIndex<ProcessedQuery> rules = new RuleIndex<>(found);
+        Graph data = Factory.createGraphMem();
+        Graph res = Factory.createGraphMem();
+        Model src = ModelFactory.createModelForGraph(data);
+        Model dst = ModelFactory.createModelForGraph(res);
+        Context context = createRunContext();
+        // the query model contains the schemas, so the class hierarchy is available:
+        Model query = createRunQueryModel(found, data, res);
+        context.set(QUERY_MODEL, query);
+        Worker worker = new Worker(NoOpReadWriteLock.NO_OP_RW_LOCK, context);
+        target.start();
+        try {
+            mapping.asGraphModel().getNsPrefixMap().forEach(target::prefix);
+            try (NodeStore pending = NodeStore.inMemory(INTERMEDIATE_NODES_STORE_THRESHOLD)) {
+                RDFParser.source(source).lang(lang).parse(new SubjectGroupingStreamRDF(data, subject -> {
+                    try {
+                        Resource i = src.asRDFNode(subject).asResource();
+                        // as in the graph run, a source individual is selected through the subclass closure:
+                        Set<Resource> classes = ModelUtils.listClasses(query.wrapAsResource(subject)).toSet();
+                        ProcessedStore processed = ProcessedStore.inMemory();
+                        processOne(rules, classes, processed, pending, dst, i, worker);
+                        processMany(rules, processed, dst, pending, worker);
+                        res.find(Triple.ANY).forEachRemaining(target::triple);
+                    } finally {
+                        data.clear();
+                        res.clear();
+                    }
+                }));
+            }
+            logCacheStats(context);
+        } finally {
+            target.finish();
+        }
+    }
+
+    /**
+     * Assembles the query model, registers the runtime functions and selects all mapping rules.
+     * It is called for each run,
+     * a subclass may override it to reuse the rules (see {@link PreparedInferenceEngineImpl}).
+     *
+     * @return Collection of {@link ProcessedQuery}s, not empty
+     * @throws MapJenaException if there are no rules
+     */
+    protected Collection<ProcessedQuery> prepareRules() throws MapJenaException {
+        UnionModel query = assembleQueryModel();
+        registerRuntimeFunctions(query);
+        return findRules(query);
+    }
+
+    /**
+     * Selects all mapping rules from the query model.
+     *
+     * @param query {@link UnionModel} the query model
+     * @return Set of {@link ProcessedQuery}s, not empty
+     * @throws MapJenaException if there are no rules
+     */
+    protected Set<ProcessedQuery> findRules(UnionModel query) throws MapJenaException {
+        Set<ProcessedQuery> res = selectMapRules(query);
+        if (LOGGER.isDebugEnabled())
+            res.forEach(c -> LOGGER.debug("Rule for <{}>: '{}'", c.getSubject(), c));
+        if (res.isEmpty()) {
+            throw Exceptions.INFERENCE_NO_RULES.create()
+                    .add(Exceptions.Key.MAPPING, String.valueOf(mapping))
+                    .build();
+        }
+        return res;
+    }
+
+    /**
+     * Re-registers the runtime functions (i.e. those that have {@link AVC#runtime avc:runtime} property)
+     * from the given query model.
+     *
+     * @param query {@link UnionModel} the query model
+     */
+    protected void registerRuntimeFunctions(UnionModel query) {
+        query.getBaseModel().listResourcesWithProperty(AVC.runtime)
+                .mapWith(r -> r.inModel(query))
+                .forEachRemaining(factory::replace);
+    }
+
     /**
      * Assemblies a query {@link UnionModel union model} from the given {@link MapModel mapping}.
      * The returned model has a flat graph structure without repetitions,
@@ -156,44 +327,656 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
 
     /**
      * Runs the given query collection on the {@code source} model and stores the result to the {@code target}.
+     * The rules are run according to the {@link #createSchedule(Collection) schedule}, if it is possible,
+     * otherwise in two passes (see {@link #runTwoPasses(RuleIndex, Collection, OntGraphModel, Model, Context)}).
      *
      * @param queries List of {@link ProcessedQuery}s, must not be empty
      * @param source  {@link Graph} containing source individuals
      * @param target  {@link Graph} to write resulting individuals
+     * @param task    {@link InferenceTaskImpl} to report the progress or {@code null}
      */
-    protected void run(Collection<ProcessedQuery> queries, Graph source, Graph target) {
-        Context context = factory.getContext();
+    protected void run(Collection<ProcessedQuery> queries, Graph source, Graph target, InferenceTaskImpl task) {
+        Context context = createRunContext();
         UnionGraph queryGraph = (UnionGraph) (queries.iterator().next().getModel()).getGraph();
         OntGraphModel src = assembleSourceDataModel(queryGraph, source, target);
+        if (task != null) {
+            context.set(TASK, task);
+            task.setReport(reports.get());
+            task.setTotal(countIndividuals(queries, src));
+        }
         Model dst = ModelFactory.createModelForGraph(target);
-        // insets the source data into the query model, if it is absent:
-        if (!GraphUtils.containsAll(queryGraph, source)) {
-            queryGraph.addGraph(source);
+        context.set(QUERY_MODEL, createRunQueryModel(queries, source, target));
+        RuleSchedule<ProcessedQuery> schedule = createSchedule(queries);
+        if (schedule != null) {
+            runSchedule(schedule, queries, src, dst, context);
+        } else {
+            runTwoPasses(new RuleIndex<>(queries), queries, src, dst, context);
+        }
+        logCacheStats(context);
+    }
+
+    /**
+     * Creates a query model for a single run:
+     * a new union of all the graphs from the rules query model and the given data graphs, if they are absent.
+     * The rules query model itself is not modified, so the rules may be shared between concurrent runs.
+     *
+     * @param queries Collection of {@link ProcessedQuery}s, not empty
+     * @param data    Array of data {@link Graph}s (e.g. the source and the target)
+     * @return {@link UnionModel}
+     */
+    protected static UnionModel createRunQueryModel(Collection<ProcessedQuery> queries, Graph... data) {
+        UnionGraph query = (UnionGraph) queries.iterator().next().getModel().getGraph();
+        UnionGraph res = new UnionGraph(query.getBaseGraph(), null, null, false);
+        res.getPrefixMapping().setNsPrefixes(query.getPrefixMapping());
+        query.getUnderlying().graphs().forEach(res::addGraph);
+        // the target is also needed: dependent rules read the individuals inferred by other rules
+        for (Graph g : data) {
+            if (!GraphUtils.containsAll(res, g)) {
+                res.addGraph(g);
+            }
+        }
+        return new UnionModel(res, SpinModelConfig.LIB_PERSONALITY);
+    }
+
+    /**
+     * Estimates the number of the source individuals to process,
+     * i.e. counts the individuals of all classes that have rules,
+     * selecting them in the same way as the run does: through the {@link #listSubClasses(Node, Model) subclasses}.
+     * An individual is counted once for each class with rules, that it belongs to.
+     *
+     * @param queries Collection of {@link ProcessedQuery}s
+     * @param source  {@link Model} with the source data and the class hierarchy
+     * @return long
+     */
+    protected static long countIndividuals(Collection<ProcessedQuery> queries, Model source) {
+        Graph graph = source.getGraph();
+        long res = 0;
+        for (Node type : queries.stream().map(q -> q.getSubject().asNode()).collect(Collectors.toSet())) {
+            List<Node> types = listSubClasses(type, source);
+            for (int k = 0; k < types.size(); k++) {
+                // the individual has been already counted through a previous class:
+                List<Node> previous = types.subList(0, k);
+                ExtendedIterator<Node> it = graph.find(Node.ANY, RDF.Nodes.type, types.get(k))
+                        .mapWith(Triple::getSubject)
+                        .filterDrop(s -> hasAnyType(graph, s, previous));
+                try {
+                    while (it.hasNext()) {
+                        it.next();
+                        res++;
+                    }
+                } finally {
+                    it.close();
+                }
+            }
         }
-        // don't quite understand why without target it doesn't always work
-        if (!GraphUtils.containsAll(queryGraph, target)) {
-            queryGraph.addGraph(target);
+        return res;
+    }
+
+    /**
+     * Builds a schedule for the given rules from the dependencies between the contexts of the {@link #mapping}.
+     * Cycles between contexts are not errors, but they are reported in the log,
+     * since such contexts have to be processed repeatedly.
+     *
+     * @param queries Collection of {@link ProcessedQuery}s
+     * @return {@link RuleSchedule} or {@code null} if some rule has no context and, therefore, cannot be scheduled
+     */
+    public RuleSchedule<ProcessedQuery> createSchedule(Collection<ProcessedQuery> queries) {
+        Map<ProcessedQuery, String> contexts = new HashMap<>();
+        for (ProcessedQuery q : queries) {
+            Optional<Resource> c = SPINInferenceHelper.rule(q).flatMap(SpinModels::context);
+            if (!c.isPresent()) {
+                LOGGER.debug("Can't find context for the rule '{}', the schedule is not possible.", q);
+                return null;
+            }
+            contexts.put(q, c.get().getURI());
         }
-        Set<Node> inMemory = new HashSet<>();
+        Map<String, Set<String>> dependencies = mapping.contexts()
+                .collect(Collectors.toMap(MapContext::name,
+                        c -> c.dependentContexts().map(MapContext::name).collect(Collectors.toSet()), (a, b) -> a));
+        RuleSchedule<ProcessedQuery> res = RuleSchedule.create(queries, contexts::get, dependencies);
+        res.cycles().forEach(c -> LOGGER.warn("Cyclic dependency between contexts {}: " +
+                "their rules will be repeated for the new individuals.", c));
+        LOGGER.debug("Schedule: {}", res);
+        return res;
+    }
 
-        Map<Node, NodeValue> factoryCache = context.get(MapARQFactory.NODE_TO_VALUE_CACHE);
-        // first process all direct individuals from the source graph:
-        listIndividuals(src, dst).forEach(i -> {
-            Set<OntCE> classes = i.classes(false).collect(Collectors.toSet());
-            Map<String, Set<QueryWrapper>> visited;
-            processOne(queries, classes, visited = new HashMap<>(), inMemory, dst, i);
-            // in case no enough memory to keep temporary objects, flush individuals set-store immediately:
-            if (inMemory.size() > INTERMEDIATE_NODES_STORE_THRESHOLD) {
-                processMany(queries, visited, dst, inMemory);
+    /**
+     * Runs the rules wave by wave according to the given schedule.
+     * Within a wave, each group of rules is processed class by class:
+     * the rules of a class are run only for the individuals of that class,
+     * which are taken both from the source and from the target (i.e. from the results of the previous waves).
+     * Only those target individuals are taken, that have been produced by this run:
+     * the individuals, which were in the target before, are not mapped.
+     * So, unlike the {@link #runTwoPasses(RuleIndex, Collection, OntGraphModel, Model, Context) two-pass mode},
+     * a rule is never tried for an individual that cannot match it,
+     * and a chained rule always sees the complete results of the rules it depends on.
+     * In the parallel mode the individuals of acyclic groups are split into partitions,
+     * which are processed concurrently together with the partitions of the other groups of the same wave.
+     * The cyclic groups are processed sequentially at the end of the wave,
+     * each one until there are no new individuals.
+     *
+     * @param schedule {@link RuleSchedule}
+     * @param queries  Collection of all {@link ProcessedQuery}s
+     * @param src      {@link OntGraphModel}, the source
+     * @param dst      {@link Model}, the target
+     * @param context  {@link Context} of the run
+     * @throws MapJenaException in case exception occurred while inference
+     */
+    protected void runSchedule(RuleSchedule<ProcessedQuery> schedule,
+                               Collection<ProcessedQuery> queries,
+                               OntGraphModel src,
+                               Model dst,
+                               Context context) throws MapJenaException {
+        int parallelism = config.inferenceParallelism();
+        ExecutorService executor = parallelism > 1 && canRunInParallel(queries, src, dst) ?
+                createExecutor(parallelism) : null;
+        ReadWriteLock lock = executor == null ? NoOpReadWriteLock.NO_OP_RW_LOCK : new ReentrantReadWriteLock();
+        // the source is read directly, if it is not modified during inference:
+        Graph source = Graphs.isSameBase(src.getBaseGraph(), dst.getGraph()) ? null : src.getGraph();
+        int size = Math.max(PARALLEL_PARTITION_SIZE, config.inferenceBatchSize());
+        // the number of tasks in flight is limited in order not to keep the whole source in memory:
+        Deque<Future<?>> tasks = new ArrayDeque<>();
+        // all the individuals, that are declared in the target by this run, are collected through the workers:
+        try (NodeStore produced = createNodeStore()) {
+            Worker worker = new Worker(lock, context, produced);
+            int n = 0;
+            for (List<RuleSchedule.Group<ProcessedQuery>> wave : schedule.waves()) {
+                LOGGER.debug("Wave #{}: {}", ++n, wave);
+                for (RuleSchedule.Group<ProcessedQuery> group : wave) {
+                    if (group.isCyclic()) {
+                        continue;
+                    }
+                    RuleIndex<ProcessedQuery> rules = group.rules();
+                    for (Node type : rules.classes()) {
+                        List<Node> types = listSubClasses(type, src);
+                        forEachChunk(types, source, dst.getGraph(), produced, lock, size, chunk -> {
+                            if (executor == null) {
+                                processChunk(rules, type, chunk, ProcessedStore.inMemory(), null, dst, worker);
+                                return;
+                            }
+                            tasks.add(executor.submit(() -> processChunk(rules, type, chunk,
+                                    ProcessedStore.inMemory(), null, dst, new Worker(lock, context, produced))));
+                            while (tasks.size() > 2 * parallelism) {
+                                await(tasks.removeFirst());
+                            }
+                        });
+                    }
+                }
+                while (!tasks.isEmpty()) {
+                    await(tasks.removeFirst());
+                }
+                wave.stream().filter(RuleSchedule.Group::isCyclic)
+                        .forEach(g -> runCycle(g.rules(), src, source, dst, produced, lock, size, worker));
             }
-            if (factoryCache.size() > INTERMEDIATE_NODES_STORE_THRESHOLD) {
-                factoryCache.clear();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
-        });
-        // next iteration: flush temporarily stored individuals that are appeared on first pass,
-        // this time it is for dependent queries:
-        processMany(queries, new HashMap<>(), dst, inMemory);
-        factoryCache.clear();
+        }
+    }
+
+    /**
+     * Runs the rules of a cyclic group: first for all the individuals of the group classes,
+     * then for the new individuals that appear in the target, until there are no more.
+     *
+     * @param rules    {@link RuleIndex} of the group
+     * @param src      {@link OntGraphModel}, the source with the class hierarchy
+     * @param source   {@link Graph} to select source individuals or {@code null} if the source is the target
+     * @param target   {@link Model} to write
+     * @param produced {@link NodeStore} of the target individuals produced by the run so far
+     * @param lock     {@link ReadWriteLock} to read the target
+     * @param size     int, the chunk size
+     * @param worker   {@link Worker} to run queries
+     */
+    protected void runCycle(RuleIndex<ProcessedQuery> rules,
+                            OntGraphModel src,
+                            Graph source,
+                            Model target,
+                            NodeStore produced,
+                            ReadWriteLock lock,
+                            int size,
+                            Worker worker) {
+        try (NodeStore store = createNodeStore(); ProcessedStore processed = createProcessedStore()) {
+            rules.classes().forEach(type -> forEachChunk(listSubClasses(type, src), source, target.getGraph(),
+                    produced, lock, size, chunk -> processChunk(rules, type, chunk, processed, store, target, worker)));
+            processMany(rules, processed, target, store, worker);
+        }
+    }
+
+    /**
+     * Lists the given class together with all its subclasses from the specified model.
+     * The rules of a class are run for the individuals of all these classes,
+     * in the same way as in the {@link #runTwoPasses(RuleIndex, Collection, OntGraphModel, Model, Context) two-pass mode},
+     * where an individual is dispatched on all its classes, including the indirect ones.
+     *
+     * @param type  {@link Node} the class
+     * @param model {@link Model} with the class hierarchy
+     * @return List of class {@link Node}s, the given one is the first
+     */
+    protected static List<Node> listSubClasses(Node type, Model model) {
+        List<Node> res = new ArrayList<>();
+        res.add(type);
+        ModelUtils.listSubClasses(model.wrapAsResource(type)).mapWith(Resource::asNode)
+                .filterDrop(type::equals).forEachRemaining(res::add);
+        return res;
+    }
+
+    /**
+     * Selects all individuals of the given classes, both from the source and from the target,
+     * and passes them chunk by chunk into the {@code action}.
+     * An individual is passed only once, even if it belongs to several classes from the list.
+     * From the target only the individuals produced by the current run are taken,
+     * those that were there before the run are skipped, unless the source is the target itself.
+     * The target is modified while processing, so its individuals are collected in advance under the read lock,
+     * the store is {@link #createNodeStore() file-based} if the spill directory is configured.
+     *
+     * @param types    List of class {@link Node}s, usually a class with its {@link #listSubClasses(Node, Model) subclasses}
+     * @param source   {@link Graph} or {@code null} if the source is the target
+     * @param target   {@link Graph}
+     * @param produced {@link NodeStore} of the target individuals produced by the run so far
+     * @param lock     {@link ReadWriteLock} to read the target
+     * @param size     int, the maximum chunk size
+     * @param action   {@code Consumer} to accept the chunks
+     */
+    protected void forEachChunk(List<Node> types,
+                                Graph source,
+                                Graph target,
+                                NodeStore produced,
+                                ReadWriteLock lock,
+                                int size,
+                                Consumer<List<Node>> action) {
+        if (source != null) {
+            for (int k = 0; k < types.size(); k++) {
+                // the individual has been already selected through a previous class:
+                List<Node> previous = types.subList(0, k);
+                ExtendedIterator<Node> it = source.find(Node.ANY, RDF.Nodes.type, types.get(k))
+                        .mapWith(Triple::getSubject)
+                        .filterDrop(s -> hasAnyType(source, s, previous));
+                try {
+                    while (it.hasNext()) {
+                        action.accept(nextChunk(it, size));
+                    }
+                } finally {
+                    it.close();
+                }
+            }
+        }
+        try (NodeStore found = createNodeStore()) {
+            lock.readLock().lock();
+            try {
+                for (Node type : types) {
+                    target.find(Node.ANY, RDF.Nodes.type, type).mapWith(Triple::getSubject)
+                            // the individual was in the target before the run:
+                            .filterKeep(s -> source == null || produced.contains(s))
+                            // the individual has been already processed as a source:
+                            .filterDrop(s -> source != null && hasAnyType(source, s, types))
+                            .forEachRemaining(found::add);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            List<Node> chunk = new ArrayList<>();
+            Node n;
+            while ((n = found.next()) != null) {
+                found.remove(n);
+                chunk.add(n);
+                if (chunk.size() == size) {
+                    action.accept(chunk);
+                    chunk = new ArrayList<>();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                action.accept(chunk);
+            }
+        }
+    }
+
+    private static boolean hasAnyType(Graph graph, Node individual, List<Node> types) {
+        for (Node type : types) {
+            if (graph.contains(individual, RDF.Nodes.type, type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the rules of the given class for the chunk of individuals of that class.
+     * In the batch mode each {@link ProcessedQuery#isBatchable() batchable} rule is executed once for a batch,
+     * otherwise the rules are run individual by individual, in their natural order.
+     *
+     * @param rules       {@link RuleIndex} of the group
+     * @param type        {@link Node} the class
+     * @param individuals List of individual {@link Node}s of the class
+     * @param processed   {@link ProcessedStore} of already processed individual-queries
+     * @param store       {@link NodeStore} to collect result individuals or {@code null} if they are not needed
+     * @param target      {@link Model} to write
+     * @param worker      {@link Worker} to run queries
+     */
+    protected void processChunk(RuleIndex<ProcessedQuery> rules,
+                                Node type,
+                                List<Node> individuals,
+                                ProcessedStore processed,
+                                NodeStore store,
+                                Model target,
+                                Worker worker) {
+        List<ProcessedQuery> queries = rules.select(type);
+        int batchSize = config.inferenceBatchSize();
+        if (batchSize <= 1) {
+            individuals.forEach(n -> {
+                worker.checkpoint(1);
+                Resource i = target.asRDFNode(n).asResource();
+                queries.forEach(q -> {
+                    if (!processed.add(n, rules.ordinal(q))) {
+                        return;
+                    }
+                    LOGGER.debug("RUN: {} ::: '{}'", i, q);
+                    worker.run(q, i, target.getGraph(), store);
+                });
+            });
+            return;
+        }
+        Iterator<Node> it = individuals.iterator();
+        while (it.hasNext()) {
+            List<Resource> batch = nextChunk(it, batchSize).stream()
+                    .map(n -> target.asRDFNode(n).asResource()).collect(Collectors.toList());
+            worker.checkpoint(batch.size());
+            queries.forEach(q -> {
+                List<Resource> suitable = batch.stream()
+                        .filter(i -> processed.add(i.asNode(), rules.ordinal(q)))
+                        .collect(Collectors.toList());
+                if (suitable.isEmpty()) {
+                    return;
+                }
+                if (q.isBatchable()) {
+                    LOGGER.debug("RUN: {} individuals ::: '{}'", suitable.size(), q);
+                    worker.run(q, suitable, target.getGraph(), store);
+                    return;
+                }
+                suitable.forEach(i -> {
+                    LOGGER.debug("RUN: {} ::: '{}'", i, q);
+                    worker.run(q, i, target.getGraph(), store);
+                });
+            });
+        }
+    }
+
+    /**
+     * Runs the given rules in two passes:
+     * first all the source individuals are processed with all suitable rules,
+     * then the target individuals, that have appeared on the first pass, are processed with the dependent rules.
+     * This is a fallback for the rules that cannot be {@link #createSchedule(Collection) scheduled}.
+     *
+     * @param rules   {@link RuleIndex} of all {@link ProcessedQuery}s
+     * @param queries Collection of all {@link ProcessedQuery}s
+     * @param src     {@link OntGraphModel}, the source
+     * @param dst     {@link Model}, the target
+     * @param context {@link Context} of the run
+     */
+    protected void runTwoPasses(RuleIndex<ProcessedQuery> rules,
+                                Collection<ProcessedQuery> queries,
+                                OntGraphModel src,
+                                Model dst,
+                                Context context) {
+        int parallelism = config.inferenceParallelism();
+        try (NodeStore pending = createNodeStore()) {
+            if (parallelism > 1 && canRunInParallel(queries, src, dst)) {
+                runParallel(rules, listIndividuals(src, dst), dst, pending, context, parallelism);
+            } else {
+                Worker worker = new Worker(NoOpReadWriteLock.NO_OP_RW_LOCK, context);
+                int batchSize = config.inferenceBatchSize();
+                if (batchSize > 1) {
+                    // first process all direct individuals from the source graph, chunk by chunk:
+                    Iterator<OntIndividual> it = listIndividuals(src, dst).iterator();
+                    while (it.hasNext()) {
+                        ProcessedStore visited = ProcessedStore.inMemory();
+                        processBatch(rules, nextChunk(it, batchSize), visited, pending, dst, worker);
+                        if (pending.isFull()) {
+                            processMany(rules, visited, dst, pending, worker);
+                        }
+                    }
+                } else {
+                    // first process all direct individuals from the source graph:
+                    listIndividuals(src, dst).forEach(i -> {
+                        Set<OntCE> classes = i.classes(false).collect(Collectors.toSet());
+                        ProcessedStore visited;
+                        processOne(rules, classes, visited = ProcessedStore.inMemory(), pending, dst, i, worker);
+                        // in case no enough memory to keep temporary objects, flush individuals set-store immediately:
+                        if (pending.isFull()) {
+                            processMany(rules, visited, dst, pending, worker);
+                        }
+                    });
+                }
+            }
+            // next iteration: flush temporarily stored individuals that are appeared on first pass,
+            // this time it is for dependent queries:
+            try (ProcessedStore processed = createProcessedStore()) {
+                processMany(rules, processed, dst, pending, new Worker(NoOpReadWriteLock.NO_OP_RW_LOCK, context));
+            }
+        }
+    }
+
+    /**
+     * Creates a new execution context for a single inference run.
+     * The context has its own {@link MapARQFactory#NODE_TO_VALUE_CACHE function cache},
+     * so function results are not shared between different runs,
+     * even if they are performed concurrently by the same manager.
+     * All {@link Worker}s of the run share the same cache, but each of them has its own copy of the context.
+     * If the metrics are enabled, the context also holds the {@link MapARQFactory#METRICS metrics} collector;
+     * a collector of the run is remembered as the {@link #getReport() report} of the current thread in any case.
+     *
+     * @return {@link Context}
+     * @see MapARQFactory#createNodeValueCache()
+     */
+    protected Context createRunContext() {
+        Context res = factory.createExecutionContext();
+        res.set(MapARQFactory.NODE_TO_VALUE_CACHE, MapARQFactory.createNodeValueCache());
+        InferenceMetrics metrics = createMetrics();
+        if (config.inferenceMetrics()) {
+            res.set(MapARQFactory.METRICS, metrics);
+        }
+        reports.set(metrics);
+        return res;
+    }
+
+    /**
+     * Creates a fresh metrics collector for a run.
+     * Subclasses may override this method to bridge the metrics to some monitoring system.
+     *
+     * @return {@link InferenceMetrics}, not {@code null}
+     */
+    protected InferenceMetrics createMetrics() {
+        return new InferenceMetrics();
+    }
+
+    /**
+     * Returns the metrics of the last run, that has been performed by the calling thread.
+     * The report is empty if the metrics are not {@link MapConfigImpl#inferenceMetrics() enabled}.
+     * So concurrent runs of the same engine never overwrite each other reports.
+     * The report of an asynchronous run is available through its {@link InferenceTaskImpl#report() task}.
+     *
+     * @return {@link InferenceMetrics}
+     * @throws MapJenaException.IllegalState if the engine has not been run by the current thread yet
+     */
+    @Override
+    public InferenceMetrics getReport() throws MapJenaException.IllegalState {
+        InferenceMetrics res = reports.get();
+        if (res == null) {
+            throw new MapJenaException.IllegalState("The engine has not been run by the current thread yet");
+        }
+        return res;
+    }
+
+    /**
+     * Logs the statistics of the run caches.
+     *
+     * @param context {@link Context} of the run
+     */
+    protected static void logCacheStats(Context context) {
+        if (!LOGGER.isDebugEnabled()) {
+            return;
+        }
+        Cache<?, ?> cache = context.get(MapARQFactory.NODE_TO_VALUE_CACHE);
+        LOGGER.debug("Function cache: size={}, {}", cache.estimatedSize(), cache.stats());
+        cache = context.get(MapARQFactory.EXPRESSION_CACHE);
+        LOGGER.debug("Expression cache: size={}, {}", cache.estimatedSize(), cache.stats());
+        InferenceMetrics metrics = context.get(MapARQFactory.METRICS);
+        if (metrics != null) {
+            LOGGER.debug("Metrics:\n{}", metrics);
+        }
+    }
+
+    /**
+     * Creates a store for the target individuals, that are waiting for the dependent rules.
+     * By default the store is in-memory and is considered as full once it exceeds the
+     * {@link #INTERMEDIATE_NODES_STORE_THRESHOLD threshold}, in that case the individuals are processed ahead of time.
+     * If the {@link MapConfigImpl#inferenceSpillDirectory() spill directory} is configured,
+     * the store is file-based and is never full.
+     * Subclasses may override this method to provide another implementation.
+     *
+     * @return {@link NodeStore}, must be thread-safe
+     */
+    protected NodeStore createNodeStore() {
+        Path dir = config.inferenceSpillDirectory();
+        return dir == null ? NodeStore.inMemory(INTERMEDIATE_NODES_STORE_THRESHOLD) : new FileNodeStore(dir);
+    }
+
+    /**
+     * Creates a registry for the individual-rule pairs, that are processed while draining a {@link NodeStore}.
+     * This registry may grow as large as the whole set of the target individuals,
+     * so it is also file-based if the {@link MapConfigImpl#inferenceSpillDirectory() spill directory} is configured.
+     * Subclasses may override this method to provide another implementation.
+     *
+     * @return {@link ProcessedStore}
+     */
+    protected ProcessedStore createProcessedStore() {
+        Path dir = config.inferenceSpillDirectory();
+        return dir == null ? ProcessedStore.inMemory() : new FileProcessedStore(dir);
+    }
+
+    /**
+     * Answers {@code true} if the source individuals can be processed concurrently.
+     * It is not possible if the source and the target share the same base graph.
+     *
+     * @param queries Collection of all {@link ProcessedQuery}s, not empty
+     * @param src     {@link OntGraphModel}, the source
+     * @param dst     {@link Model}, the target
+     * @return boolean
+     */
+    protected boolean canRunInParallel(Collection<ProcessedQuery> queries, OntGraphModel src, Model dst) {
+        if (Graphs.isSameBase(src.getBaseGraph(), dst.getGraph())) {
+            LOGGER.debug("The source and the target are the same: parallel mode is not possible.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Processes the given individuals concurrently.
+     * The individuals are split into partitions, each of them is handled by a separate task.
+     * All tasks read the shared query graph (which includes the target) under the read lock,
+     * while the inferred triples are written into the {@code target} under the write lock.
+     * Each task has its own {@link Worker} with a separate execution {@link Context}.
+     * Since each individual is handled entirely within a single task,
+     * the rule order for a particular individual is the same as in the sequential mode,
+     * and therefore the final result is also the same.
+     *
+     * @param rules       {@link RuleIndex} of all {@link ProcessedQuery}s found in the {@link #mapping}
+     * @param individuals {@code Stream} of {@link OntIndividual}s to process
+     * @param target      {@link Model} to write inference result
+     * @param store       {@link NodeStore} to collect result individuals for the next step
+     * @param context     {@link Context} of the run, each task makes its own copy
+     * @param parallelism int, the number of threads
+     * @throws MapJenaException in case exception occurred while inference
+     */
+    protected void runParallel(RuleIndex<ProcessedQuery> rules,
+                               Stream<OntIndividual> individuals,
+                               Model target,
+                               NodeStore store,
+                               Context context,
+                               int parallelism) throws MapJenaException {
+        ReadWriteLock lock = new ReentrantReadWriteLock();
+        ExecutorService executor = createExecutor(parallelism);
+        // the number of tasks in flight is limited in order not to keep the whole source in memory:
+        Deque<Future<?>> tasks = new ArrayDeque<>();
+        try {
+            int batchSize = config.inferenceBatchSize();
+            Iterator<OntIndividual> it = individuals.iterator();
+            while (it.hasNext()) {
+                List<OntIndividual> partition = nextChunk(it, Math.max(PARALLEL_PARTITION_SIZE, batchSize));
+                tasks.add(executor.submit(() -> {
+                    Worker worker = new Worker(lock, context);
+                    if (batchSize > 1) {
+                        Iterator<OntIndividual> chunks = partition.iterator();
+                        while (chunks.hasNext()) {
+                            processBatch(rules, nextChunk(chunks, batchSize), ProcessedStore.inMemory(),
+                                    store, target, worker);
+                        }
+                        return;
+                    }
+                    partition.forEach(i -> {
+                        Set<OntCE> classes = i.classes(false).collect(Collectors.toSet());
+                        processOne(rules, classes, ProcessedStore.inMemory(), store, target, i, worker);
+                    });
+                }));
+                while (tasks.size() > 2 * parallelism) {
+                    await(tasks.removeFirst());
+                }
+                if (store.isFull()) {
+                    // no enough memory to keep temporary objects: wait for all tasks and flush the store
+                    while (!tasks.isEmpty()) {
+                        await(tasks.removeFirst());
+                    }
+                    try (ProcessedStore processed = createProcessedStore()) {
+                        processMany(rules, processed, target, store,
+                                new Worker(NoOpReadWriteLock.NO_OP_RW_LOCK, context));
+                    }
+                }
+            }
+            while (!tasks.isEmpty()) {
+                await(tasks.removeFirst());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates an executor to run parallel inference.
+     * Subclasses may override this method to provide an own thread pool.
+     * The executor is shutdown at the end of inference.
+     *
+     * @param parallelism int, the desired number of threads
+     * @return {@link ExecutorService}
+     */
+    protected ExecutorService createExecutor(int parallelism) {
+        return new ForkJoinPool(parallelism);
+    }
+
+    private static <X> List<X> nextChunk(Iterator<X> it, int size) {
+        List<X> res = new ArrayList<>(size);
+        while (it.hasNext() && res.size() < size) {
+            res.add(it.next());
+        }
+        return res;
+    }
+
+    private static void await(Future<?> task) throws MapJenaException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MapJenaException.IllegalState("Inference has been interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new MapJenaException.IllegalState("Inference has been failed", cause);
+        }
     }
 
     /**
@@ -247,61 +1030,137 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
      * Runs a query collection against a collection of individuals (in the form of regular resources),
      * writes the result into the specified {@code target} model.
      *
-     * @param queries     Collection of all {@link ProcessedQuery}s found in the {@link #mapping}
-     * @param processed   Map of already processed individual-queries to prevent recursion
+     * @param rules       {@link RuleIndex} of all {@link ProcessedQuery}s found in the {@link #mapping}
+     * @param processed   {@link ProcessedStore} of already processed individual-queries to prevent recursion
+     * @param target      {@link Model} to write
+     * @param individuals {@link NodeStore} of individuals to drain
+     */
+    protected void processMany(RuleIndex<ProcessedQuery> rules,
+                               ProcessedStore processed,
+                               Model target,
+                               NodeStore individuals) {
+        processMany(rules, processed, target, individuals, new Worker(NoOpReadWriteLock.NO_OP_RW_LOCK));
+    }
+
+    /**
+     * Runs a query collection against a collection of individuals using the given {@link Worker}.
+     * The store is drained until it is empty, including the individuals that appear while processing.
+     *
+     * @param rules       {@link RuleIndex} of all {@link ProcessedQuery}s found in the {@link #mapping}
+     * @param processed   {@link ProcessedStore} of already processed individual-queries to prevent recursion
      * @param target      {@link Model} to write
-     * @param individuals List of {@link Resource}s
+     * @param individuals {@link NodeStore} of individuals to drain
+     * @param worker      {@link Worker} to run queries
      */
-    protected void processMany(Collection<ProcessedQuery> queries,
-                               Map<String, Set<QueryWrapper>> processed,
+    protected void processMany(RuleIndex<ProcessedQuery> rules,
+                               ProcessedStore processed,
                                Model target,
-                               Set<Node> individuals) {
-        Iterator<Node> iterator = individuals.iterator();
-        while (iterator.hasNext()) {
-            Resource i = target.asRDFNode(iterator.next()).asResource();
+                               NodeStore individuals,
+                               Worker worker) {
+        Node node;
+        while ((node = individuals.next()) != null) {
+            Resource i = target.asRDFNode(node).asResource();
             Set<Resource> classes = ModelUtils.listDirectClasses(i).toSet();
-            processOne(queries, classes, processed, individuals, target, i);
-            iterator.remove();
+            processOne(rules, classes, processed, individuals, target, i, worker);
+            individuals.remove(node);
         }
     }
 
     /**
      * Runs a query collection against the single individual.
      *
-     * @param queries   Collection of all {@link ProcessedQuery}s found in the {@link #mapping}
+     * @param rules     {@link RuleIndex} of all {@link ProcessedQuery}s found in the {@link #mapping}
      * @param classes   Set of class expressions, which the given individual is belonged to
-     * @param processed Map of already processed individual-queries to prevent possible recursion,
-     *                  it is not expected to be large
-     * @param store     Set of {@link Node}s, the collection of result individuals to process in the next step
+     * @param processed {@link ProcessedStore} of already processed individual-queries to prevent possible recursion
+     * @param store     {@link NodeStore}, the collection of result individuals to process in the next step
      * @param target    {@link Model} to write inference result (individuals and property assertions)
      * @param source    {@link Resource} the current individual to process
      */
-    protected void processOne(Collection<ProcessedQuery> queries,
+    protected void processOne(RuleIndex<ProcessedQuery> rules,
                               Set<? extends Resource> classes,
-                              Map<String, Set<QueryWrapper>> processed,
-                              Set<Node> store,
+                              ProcessedStore processed,
+                              NodeStore store,
                               Model target,
                               Resource source) {
-        queries.stream()
-                .filter(q -> classes.contains(q.getSubject()))
+        processOne(rules, classes, processed, store, target, source, new Worker(NoOpReadWriteLock.NO_OP_RW_LOCK));
+    }
+
+    /**
+     * Runs a query collection against the single individual using the given {@link Worker}.
+     *
+     * @param rules     {@link RuleIndex} of all {@link ProcessedQuery}s found in the {@link #mapping}
+     * @param classes   Set of class expressions, which the given individual is belonged to
+     * @param processed {@link ProcessedStore} of already processed individual-queries to prevent possible recursion
+     * @param store     {@link NodeStore}, the collection of result individuals to process in the next step
+     * @param target    {@link Model} to write inference result (individuals and property assertions)
+     * @param source    {@link Resource} the current individual to process
+     * @param worker    {@link Worker} to run queries and to write their results
+     */
+    protected void processOne(RuleIndex<ProcessedQuery> rules,
+                              Set<? extends Resource> classes,
+                              ProcessedStore processed,
+                              NodeStore store,
+                              Model target,
+                              Resource source,
+                              Worker worker) {
+        worker.checkpoint(1);
+        rules.select(classes)
                 .forEach(q -> {
-                    if (!processed.computeIfAbsent(ModelUtils.getResourceID(source), i -> new HashSet<>()).add(q)) {
+                    if (!processed.add(source.asNode(), rules.ordinal(q))) {
                         LOGGER.warn("The query '{}' has been already processed for individual {}.", q, source);
                         return;
                     }
                     LOGGER.debug("RUN: {} ::: '{}'", source, q);
-                    // use a fresh model, otherwise there is a danger of java.util.ConcurrentModificationException
-                    // while graph iterating by some unclear reason if there are dependent rules in the mapping
-                    Model res = q.run(source);
-                    res.listStatements().forEachRemaining(s -> {
-                        if (RDF.type.equals(s.getPredicate())) {
-                            store.add(s.getSubject().asNode());
-                        }
-                        target.add(s);
-                    });
+                    worker.run(q, source, target.getGraph(), store);
                 });
     }
 
+    /**
+     * Runs a query collection against the chunk of individuals in the batch mode:
+     * each query is executed once for all suitable individuals from the chunk,
+     * if it does not depend on individual-specific functions (see {@link ProcessedQuery#isBatchable()}),
+     * otherwise it is executed for each individual separately.
+     * Note that the queries are processed one by one in their natural order,
+     * so, for example, a class-map rule is executed for all individuals
+     * before any property-map rule from the same context.
+     *
+     * @param rules       {@link RuleIndex} of all {@link ProcessedQuery}s found in the {@link #mapping}
+     * @param individuals List of {@link OntIndividual}s to process
+     * @param processed   {@link ProcessedStore} to record processed individual-queries to prevent recursion
+     * @param store       {@link NodeStore}, the collection of result individuals to process in the next step
+     * @param target      {@link Model} to write inference result (individuals and property assertions)
+     * @param worker      {@link Worker} to run queries and to write their results
+     */
+    protected void processBatch(RuleIndex<ProcessedQuery> rules,
+                                List<OntIndividual> individuals,
+                                ProcessedStore processed,
+                                NodeStore store,
+                                Model target,
+                                Worker worker) {
+        worker.checkpoint(individuals.size());
+        // the natural order of queries:
+        Map<ProcessedQuery, List<OntIndividual>> tasks = new TreeMap<>();
+        individuals.forEach(i -> rules.select(i.classes(false).collect(Collectors.toList()))
+                .forEach(q -> tasks.computeIfAbsent(q, x -> new ArrayList<>()).add(i)));
+        tasks.forEach((q, candidates) -> {
+            List<OntIndividual> suitable = candidates.stream()
+                    .filter(i -> processed.add(i.asNode(), rules.ordinal(q)))
+                    .collect(Collectors.toList());
+            if (suitable.isEmpty()) {
+                return;
+            }
+            if (q.isBatchable()) {
+                LOGGER.debug("RUN: {} individuals ::: '{}'", suitable.size(), q);
+                worker.run(q, suitable, target.getGraph(), store);
+                return;
+            }
+            suitable.forEach(i -> {
+                LOGGER.debug("RUN: {} ::: '{}'", i, q);
+                worker.run(q, i, target.getGraph(), store);
+            });
+        });
+    }
+
     /**
      * Lists all valid spin map rules (i.e. {@code spinmap:rule}) from the given query model.
      *
@@ -324,7 +1183,19 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
         }
         Resource type = SPINInferenceHelper.getTypeDeclaration(qw);
         if (type == null) {
-            return new ProcessedQuery(qw);
+            // ?this and the template arguments are bound before execution, see CompiledQuery:
+            Set<Var> inputs = new HashSet<>();
+            inputs.add(Var.alloc(SPIN.THIS_VAR_NAME));
+            Map<String, RDFNode> args = qw.getTemplateBinding();
+            if (args != null) {
+                args.keySet().forEach(k -> inputs.add(Var.alloc(k)));
+            }
+            RulePlan plan = RulePlan.compile(qw.getQuery(), inputs, factory.getContext());
+            if (plan == null) {
+                LOGGER.debug("Can't compile the query '{}', it will be executed as SPARQL.", qw);
+                return new ProcessedQuery(qw);
+            }
+            return new CompiledQuery(qw, plan);
         }
         if (OWL.NamedIndividual.equals(type)) {
             return new NamedIndividualQuery(qw);
@@ -338,24 +1209,231 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
                 .collect(Collectors.toCollection(TreeSet::new));
     }
 
+    /**
+     * A helper to run {@link ProcessedQuery}s sequentially, within a single thread.
+     * It holds its own execution {@link Context}, that is used to pass the current individual into the functions,
+     * and a {@link ReadWriteLock} to access the shared graphs:
+     * the read lock is used while query execution,
+     * the write lock is used while writing the query results into the target.
+     * <p>
+     * The query results are streamed into a reusable buffer, that is flushed into the target right after the query.
+     * It is not possible to write directly into the target while the query is running:
+     * the target is a part of the query graph, that is being iterated at that moment
+     * (there is a danger of {@link ConcurrentModificationException}),
+     * also a read lock cannot be upgraded to the write lock.
+     * But in comparison with a fresh {@link Model} for each query, the plain list buffer is much cheaper:
+     * there are no graph indexes and no per-query allocations, except the triples themselves.
+     */
+    protected class Worker {
+        protected final Context context;
+        protected final ReadWriteLock lock;
+        protected final List<Triple> buffer = new ArrayList<>();
+        // null if the metrics are disabled:
+        protected final InferenceMetrics metrics;
+        // null if the run is synchronous:
+        protected final InferenceTaskImpl task;
+        // null if the produced individuals are not tracked:
+        protected final NodeStore produced;
+
+        protected Worker(ReadWriteLock lock) {
+            this(lock, factory.createExecutionContext());
+        }
+
+        /**
+         * Creates a worker with a copy of the given context.
+         *
+         * @param lock    {@link ReadWriteLock}
+         * @param context {@link Context} of the run, the content (e.g. caches) is shared
+         */
+        protected Worker(ReadWriteLock lock, Context context) {
+            this(lock, context, null);
+        }
+
+        /**
+         * Creates a worker with a copy of the given context,
+         * that collects all the individuals it declares in the target into the {@code produced} store.
+         *
+         * @param lock     {@link ReadWriteLock}
+         * @param context  {@link Context} of the run, the content (e.g. caches) is shared
+         * @param produced {@link NodeStore} to collect all the result individuals of the run, can be {@code null}
+         */
+        protected Worker(ReadWriteLock lock, Context context, NodeStore produced) {
+            this.lock = Objects.requireNonNull(lock);
+            this.context = context.copy();
+            this.metrics = context.get(MapARQFactory.METRICS);
+            this.task = context.get(TASK);
+            this.produced = produced;
+        }
+
+        /**
+         * Checks that the run is not cancelled and reports the individuals, that are going to be processed.
+         *
+         * @param individuals long, the number of individuals
+         * @throws CancellationException if the run has been cancelled
+         */
+        public void checkpoint(long individuals) throws CancellationException {
+            if (task != null) {
+                task.checkpoint(individuals);
+            }
+        }
+
+        /**
+         * Runs the query for the given individual and writes the result into the {@code target}.
+         *
+         * @param query      {@link ProcessedQuery} to run
+         * @param individual {@link Resource} the current individual
+         * @param target     {@link Graph} to write
+         * @param store      {@link NodeStore} to collect result individuals
+         */
+        public void run(ProcessedQuery query, Resource individual, Graph target, NodeStore store) {
+            buffer.clear();
+            if (task != null) {
+                task.setRule(query);
+            }
+            long start = metrics == null ? 0 : System.nanoTime();
+            lock.readLock().lock();
+            try {
+                query.run(individual, context, buffer::add);
+            } finally {
+                lock.readLock().unlock();
+            }
+            record(query, start);
+            flush(target, store);
+        }
+
+        /**
+         * Runs the query for the given individuals at once and writes the result into the {@code target}.
+         *
+         * @param query       {@link ProcessedQuery} to run
+         * @param individuals Collection of {@link Resource}s
+         * @param target      {@link Graph} to write
+         * @param store       {@link NodeStore} to collect result individuals
+         */
+        public void run(ProcessedQuery query,
+                        Collection<? extends Resource> individuals,
+                        Graph target,
+                        NodeStore store) {
+            buffer.clear();
+            if (task != null) {
+                task.setRule(query);
+            }
+            long start = metrics == null ? 0 : System.nanoTime();
+            lock.readLock().lock();
+            try {
+                query.run(individuals, context, buffer::add);
+            } finally {
+                lock.readLock().unlock();
+            }
+            record(query, start);
+            flush(target, store);
+        }
+
+        /**
+         * Records the execution of the query, if the metrics are enabled.
+         * The produced triples are the content of the buffer, which is not flushed yet.
+         *
+         * @param query {@link ProcessedQuery}
+         * @param start long, the start time in nanoseconds
+         */
+        protected void record(ProcessedQuery query, long start) {
+            if (metrics != null) {
+                metrics.ruleExecuted(query, System.nanoTime() - start, buffer.size());
+            }
+        }
+
+        /**
+         * Writes the buffered triples into the {@code target} graph,
+         * all the individuals declarations are collected into the {@code store}, if it is specified.
+         *
+         * @param target {@link Graph} to write
+         * @param store  {@link NodeStore} to collect result individuals, can be {@code null}
+         */
+        protected void flush(Graph target, NodeStore store) {
+            if (task != null) {
+                task.addTriples(buffer.size());
+            }
+            lock.writeLock().lock();
+            try {
+                buffer.forEach(t -> {
+                    if (RDF.Nodes.type.equals(t.getPredicate())) {
+                        if (store != null) {
+                            store.add(t.getSubject());
+                        }
+                        if (produced != null) {
+                            produced.add(t.getSubject());
+                        }
+                    }
+                    target.add(t);
+                });
+            } finally {
+                buffer.clear();
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
     /**
      * An {@link ExtendedQuery Extended SPIN Query} with possibility to process it for the given individual.
      * <p>
      * Created by @ssz on 14.11.2018.
      */
     public class ProcessedQuery extends ExtendedQuery {
+        private final boolean batchable;
 
         public ProcessedQuery(QueryWrapper qw) {
             super(qw);
+            this.batchable = config.inferenceBatchSize() > 1
+                    && !SPINInferenceHelper.callsFunction(qw, AVC.currentIndividual);
+        }
+
+        /**
+         * Returns the query model of the current run, if it is present in the context,
+         * otherwise the model, which this query is attached to.
+         *
+         * @param context {@link Context} of the run
+         * @return {@link Model}
+         * @see #createRunQueryModel(Collection, Graph...)
+         */
+        public Model getModel(Context context) {
+            Model res = context.get(QUERY_MODEL);
+            return res == null ? getModel() : res;
+        }
+
+        /**
+         * Answers {@code true} if this query can be executed for many individuals at once.
+         * This is not possible if the query depends on the current individual
+         * not only through the {@code ?this} variable, e.g. it uses {@link AVC#currentIndividual} function call.
+         *
+         * @return boolean
+         * @see #run(Collection, Context, Consumer)
+         */
+        public boolean isBatchable() {
+            return batchable;
         }
 
         /**
          * Runs the Jena Query encapsulating in this object
          * for a given individual and returns the inferred triples as a Model.
+         *
+         * @param instance {@link Resource}, an individual to process, not {@code null}
+         * @return {@link Model}, new triples, not {@code null}
+         * @throws MapJenaException in case exception occurred while inference
+         * @see #run(Resource, Context, Consumer)
+         */
+        public Model run(Resource instance) {
+            Model res = ModelFactory.createDefaultModel();
+            run(instance, factory.createExecutionContext(), res.getGraph()::add);
+            return res;
+        }
+
+        /**
+         * Runs the Jena Query encapsulating in this object
+         * for a given individual within the specified execution context
+         * and streams the inferred triples into the {@code sink}.
          * <p>
          * There is a difference with SPIN-API Inferences implementation:
          * in additional to passing {@code ?this} to top-level query binding (mapping construct)
-         * there is also a ONT-MAP workaround solution to place it deep in all sub-queries,
+         * there is also a ONT-MAP solution to make it available deep in all sub-queries,
          * which are called by specified construct.
          * Handling {@code ?this} only by the top-level mappings is definitely leak of SPIN-API functionality,
          * which severely limits the space of usage opportunities.
@@ -365,41 +1443,146 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
          * may accept {@code ?this} but only in some limited conditions,
          * for example (and at least) for the original {@code spinmap:Mapping-1-1},
          * that has no been cloned with changing namespace to local mapping model.
+         * The individual is placed into the given {@link Context} under the {@link MapARQFactory#CURRENT_INDIVIDUAL} key,
+         * the context is passed into all nested query executions, where it is available through
+         * the {@link org.apache.jena.sparql.function.FunctionEnv ARQ Function Env}.
+         * Neither the mapping graph nor the function registry is modified,
+         * so different individuals can be processed simultaneously using different contexts.
          *
          * @param instance {@link Resource}, an individual to process, not {@code null}
-         * @return {@link Model}, new triples, not {@code null}
+         * @param context  {@link Context} to run query, not {@code null}, must not be shared between threads
+         * @param sink     {@code Consumer} to accept new {@link Triple}s, not {@code null}
          * @throws MapJenaException in case exception occurred while inference
-         * @see SPINInferenceHelper#runQueryOnInstance(ARQFactory, QueryWrapper, Resource, Model)
+         * @see SPINInferenceHelper#runQueryOnInstance(ARQFactory, QueryWrapper, Resource, Dataset, Consumer)
+         * @see MapARQFactory#createExecutionContext()
          * @see AVC#currentIndividual
          * @see AVC#MagicFunctions
          */
-        public Model run(Resource instance) {
-            Model mapping = getModel();
-            Resource _this = AVC.currentIndividual.inModel(mapping);
-            Map<Statement, Statement> vars = getThisVarReplacement(_this, instance);
+        public void run(Resource instance, Context context, Consumer<Triple> sink) {
+            context.set(MapARQFactory.CURRENT_INDIVIDUAL, instance.asNode());
             try {
-                vars.forEach((a, b) -> mapping.add(b).remove(a));
-                if (!vars.isEmpty()) {
-                    factory.replace(_this);
-                }
-                try {
-                    return SPINInferenceHelper.runQueryOnInstance(factory, this, instance, null);
-                } catch (RuntimeException ex) {
-                    throw Exceptions.INFERENCE_FAIL.create()
-                            .add(Exceptions.Key.QUERY, String.valueOf(this))
-                            .add(Exceptions.Key.INSTANCE, instance.toString())
-                            .build(ex);
-                }
+                execute(instance, context, sink);
+            } catch (RuntimeException ex) {
+                throw Exceptions.INFERENCE_FAIL.create()
+                        .add(Exceptions.Key.QUERY, String.valueOf(this))
+                        .add(Exceptions.Key.INSTANCE, instance.toString())
+                        .build(ex);
             } finally {
-                vars.forEach((a, b) -> mapping.add(a).remove(b));
+                context.remove(MapARQFactory.CURRENT_INDIVIDUAL);
+            }
+        }
+
+        /**
+         * Executes the query for the given individual.
+         *
+         * @param instance {@link Resource}, an individual to process, not {@code null}
+         * @param context  {@link Context} to run query, not {@code null}
+         * @param sink     {@code Consumer} to accept new {@link Triple}s, not {@code null}
+         */
+        protected void execute(Resource instance, Context context, Consumer<Triple> sink) {
+            Dataset dataset = factory.getDataset(getModel(context), context);
+            SPINInferenceHelper.runQueryOnInstance(factory, this, instance, dataset, sink);
+        }
+
+        /**
+         * Runs the query for all the given individuals at once and streams the inferred triples into the {@code sink}.
+         * The query must be {@link #isBatchable() batchable}.
+         *
+         * @param individuals Collection of {@link Resource}s to process, not empty
+         * @param context     {@link Context} to run query, not {@code null}, must not be shared between threads
+         * @param sink        {@code Consumer} to accept new {@link Triple}s, not {@code null}
+         * @throws MapJenaException in case exception occurred while inference
+         */
+        public void run(Collection<? extends Resource> individuals, Context context, Consumer<Triple> sink) {
+            try {
+                executeBatch(individuals, context, sink);
+            } catch (RuntimeException ex) {
+                throw Exceptions.INFERENCE_FAIL.create()
+                        .add(Exceptions.Key.QUERY, String.valueOf(this))
+                        .add(Exceptions.Key.INSTANCE, individuals.size() + " individuals")
+                        .build(ex);
             }
         }
 
-        private Map<Statement, Statement> getThisVarReplacement(Resource function, Resource instance) {
-            Model m = function.getModel();
-            return SpinModels.getLocalFunctionBody(m, function).stream()
-                    .filter(s -> Objects.equals(s.getObject(), SPIN._this))
-                    .collect(Collectors.toMap(x -> x, x -> m.createStatement(x.getSubject(), x.getPredicate(), instance)));
+        /**
+         * Executes the query for all the given individuals.
+         * The individuals are passed to the query as a {@code VALUES} block for the {@code ?this} variable,
+         * so there is only one query execution for the whole collection.
+         *
+         * @param individuals Collection of {@link Resource}s to process
+         * @param context     {@link Context} to run query
+         * @param sink        {@code Consumer} to accept new {@link Triple}s
+         */
+        protected void executeBatch(Collection<? extends Resource> individuals,
+                                    Context context,
+                                    Consumer<Triple> sink) {
+            Var var = Var.alloc(SPIN.THIS_VAR_NAME);
+            ElementData values = new ElementData();
+            values.add(var);
+            individuals.forEach(i -> values.add(BindingFactory.binding(var, i.asNode())));
+            ElementGroup where = new ElementGroup();
+            where.addElement(values);
+            Query query = getQuery().cloneQuery();
+            Element pattern = query.getQueryPattern();
+            if (pattern instanceof ElementGroup) {
+                ((ElementGroup) pattern).getElements().forEach(where::addElement);
+            } else {
+                where.addElement(pattern);
+            }
+            query.setQueryPattern(where);
+            QuerySolutionMap bindings = new QuerySolutionMap();
+            Map<String, RDFNode> args = getTemplateBinding();
+            if (args != null) {
+                args.forEach(bindings::add);
+            }
+            Dataset dataset = factory.getDataset(getModel(context), context);
+            try (QueryExecution exec = factory.createQueryExecution(query, dataset, bindings)) {
+                exec.execConstructTriples().forEachRemaining(sink);
+            }
+        }
+    }
+
+    /**
+     * A {@link ProcessedQuery} that is executed through the {@link RulePlan} instead of SPARQL engine.
+     * <p>
+     * Created by @ssz on 22.06.2019.
+     */
+    public class CompiledQuery extends ProcessedQuery {
+        private final RulePlan plan;
+        private final Binding arguments;
+
+        public CompiledQuery(QueryWrapper qw, RulePlan plan) {
+            super(qw);
+            this.plan = Objects.requireNonNull(plan);
+            BindingMap res = BindingFactory.create();
+            Map<String, RDFNode> args = qw.getTemplateBinding();
+            if (args != null) {
+                args.forEach((k, v) -> res.add(Var.alloc(k), v.asNode()));
+            }
+            this.arguments = res;
+        }
+
+        @Override
+        protected void execute(Resource instance, Context context, Consumer<Triple> sink) {
+            executeBatch(Collections.singleton(instance), context, sink);
+        }
+
+        @Override
+        protected void executeBatch(Collection<? extends Resource> individuals,
+                                    Context context,
+                                    Consumer<Triple> sink) {
+            Model model = getModel(context);
+            Graph graph = model.getGraph();
+            DatasetGraph dataset = factory.getDataset(model, context).asDatasetGraph();
+            ExecutionContext env = new ExecutionContext(Context.setupContextExec(context, dataset),
+                    graph, dataset, QC.getFactory(context));
+            Var var = Var.alloc(SPIN.THIS_VAR_NAME);
+            individuals.forEach(i -> plan.execute(BindingFactory.binding(arguments, var, i.asNode()),
+                    graph, env, sink));
+        }
+
+        public RulePlan getPlan() {
+            return plan;
         }
     }
 
@@ -418,12 +1601,13 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
         }
 
         @Override
-        public Model run(Resource individual) {
-            return individual.inModel(emptyModel()).addProperty(RDF.type, type).getModel();
+        public void run(Resource individual, Context context, Consumer<Triple> sink) {
+            sink.accept(Triple.create(individual.asNode(), RDF.Nodes.type, type.asNode()));
         }
 
-        protected Model emptyModel() {
-            return ModelFactory.createDefaultModel();
+        @Override
+        public void run(Collection<? extends Resource> individuals, Context context, Consumer<Triple> sink) {
+            individuals.forEach(i -> run(i, context, sink));
         }
     }
 
@@ -439,9 +1623,9 @@ public class InferenceEngineImpl implements MapManager.InferenceEngine {
         }
 
         @Override
-        public Model run(Resource individual) {
-            if (individual.isAnon()) return emptyModel();
-            return super.run(individual);
+        public void run(Resource individual, Context context, Consumer<Triple> sink) {
+            if (individual.isAnon()) return;
+            super.run(individual, context, sink);
         }
     }
 }
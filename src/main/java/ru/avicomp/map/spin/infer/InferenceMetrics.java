@@ -0,0 +1,190 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import ru.avicomp.map.MapManager;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A thread-safe collector of the inference execution metrics,
+ * which is also the {@link MapManager.InferenceReport report} of the run.
+ * For each rule and each function it records the number of invocations, the cumulative time,
+ * the latency distribution and (for rules only) the number of produced triples.
+ * The latencies are kept in a fixed log-linear histogram (four sub-buckets per power of two),
+ * so a percentile is approximate, but recording is cheap and does not allocate.
+ * An instance is created for each run only if the metrics are enabled,
+ * otherwise the inference does not measure anything.
+ * Subclasses may override the {@code *Executed} methods to pass the measurements to some other monitoring system.
+ * <p>
+ * Created by @ssz on 09.07.2019.
+ *
+ * @see ru.avicomp.map.spin.MapConfigImpl#inferenceMetrics()
+ * @see ru.avicomp.map.spin.MapARQFactory#METRICS
+ */
+@SuppressWarnings("WeakerAccess")
+public class InferenceMetrics implements MapManager.InferenceReport {
+    private final Map<ExtendedQuery, Stat> rules = new ConcurrentHashMap<>();
+    private final Map<String, Stat> functions = new ConcurrentHashMap<>();
+
+    /**
+     * Records a single execution of the rule.
+     *
+     * @param rule    {@link ExtendedQuery} the rule
+     * @param nanos   long, the execution time
+     * @param triples long, the number of triples produced
+     */
+    public void ruleExecuted(ExtendedQuery rule, long nanos, long triples) {
+        Stat res = rules.computeIfAbsent(rule, q -> new Stat(q.toString()));
+        res.record(nanos);
+        res.triples.add(triples);
+    }
+
+    /**
+     * Records a single call of the function.
+     *
+     * @param uri   String, the function URI
+     * @param nanos long, the execution time
+     */
+    public void functionExecuted(String uri, long nanos) {
+        functions.computeIfAbsent(uri, Stat::new).record(nanos);
+    }
+
+    @Override
+    public Stream<MapManager.Metric> rules() {
+        return sorted(rules);
+    }
+
+    @Override
+    public Stream<MapManager.Metric> functions() {
+        return sorted(functions);
+    }
+
+    private static Stream<MapManager.Metric> sorted(Map<?, Stat> map) {
+        return map.values().stream()
+                .sorted(Comparator.comparingLong(Stat::totalNanos).reversed().thenComparing(Stat::name))
+                .map(MapManager.Metric.class::cast);
+    }
+
+    @Override
+    public String toString() {
+        return Stream.concat(rules(), functions()).map(Object::toString).collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * The statistics of a single rule or function.
+     */
+    protected static class Stat implements MapManager.Metric {
+        // 4 sub-buckets for each power of two, the values less than 4 are exact:
+        private static final int SUB_BITS = 2;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder triples = new LongAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(Long.SIZE * SUB_COUNT);
+
+        protected Stat(String name) {
+            this.name = name;
+        }
+
+        protected void record(long nanos) {
+            long v = Math.max(nanos, 0);
+            this.count.increment();
+            this.nanos.add(v);
+            this.histogram.incrementAndGet(bucket(v));
+        }
+
+        private static int bucket(long v) {
+            if (v < SUB_COUNT) {
+                return (int) v;
+            }
+            int exp = Long.SIZE - 1 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+            return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+            long sub = bucket & (SUB_COUNT - 1);
+            long res = ((SUB_COUNT + sub + 1) << (exp - SUB_BITS)) - 1;
+            return res < 0 ? Long.MAX_VALUE : res;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public long count() {
+            return count.sum();
+        }
+
+        @Override
+        public long totalNanos() {
+            return nanos.sum();
+        }
+
+        @Override
+        public long percentileNanos(double quantile) {
+            if (quantile <= 0 || quantile > 1) {
+                throw new IllegalArgumentException("Wrong quantile: " + quantile);
+            }
+            long[] counts = new long[histogram.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i] = histogram.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(counts.length - 1);
+        }
+
+        @Override
+        public long triples() {
+            return triples.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: count=%d, total=%dms, p50=%dus, p99=%dus, triples=%d", name, count(),
+                    totalNanos() / 1_000_000, percentileNanos(0.5) / 1_000, percentileNanos(0.99) / 1_000, triples());
+        }
+    }
+}
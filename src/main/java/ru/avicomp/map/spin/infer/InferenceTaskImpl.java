@@ -0,0 +1,132 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import ru.avicomp.map.MapJenaException;
+import ru.avicomp.map.MapManager;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An implementation of {@link MapManager.InferenceTask},
+ * that is also a cancellation flag and a progress sink for an inference run.
+ * The engine calls {@link #checkpoint(long)} between individuals,
+ * which throws a {@link CancellationException} once the {@link #future() future} is done,
+ * so an abandoned run stops instead of wasting CPU.
+ * <p>
+ * Created by @ssz on 10.07.2019.
+ *
+ * @see InferenceEngineImpl#runAsync(org.apache.jena.graph.Graph, org.apache.jena.graph.Graph, java.util.concurrent.Executor)
+ */
+@SuppressWarnings("WeakerAccess")
+public class InferenceTaskImpl implements MapManager.InferenceTask {
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder triples = new LongAdder();
+    private volatile long total = -1;
+    private volatile ExtendedQuery rule;
+    private volatile InferenceMetrics report;
+
+    @Override
+    public CompletableFuture<Void> future() {
+        return future;
+    }
+
+    @Override
+    public long processed() {
+        return processed.sum();
+    }
+
+    @Override
+    public long total() {
+        return total;
+    }
+
+    @Override
+    public String currentRule() {
+        ExtendedQuery res = rule;
+        return res == null ? null : res.toString();
+    }
+
+    @Override
+    public long triples() {
+        return triples.sum();
+    }
+
+    /**
+     * Returns the metrics of this run.
+     *
+     * @return {@link InferenceMetrics}
+     * @throws MapJenaException.IllegalState if the run has not been started yet
+     */
+    @Override
+    public InferenceMetrics report() throws MapJenaException.IllegalState {
+        InferenceMetrics res = report;
+        if (res == null) {
+            throw new MapJenaException.IllegalState("The inference has not been started yet");
+        }
+        return res;
+    }
+
+    /**
+     * Answers {@code true} if the inference should be stopped.
+     *
+     * @return boolean
+     */
+    public boolean isStopped() {
+        return future.isDone();
+    }
+
+    /**
+     * Checks the task is not stopped and counts the individuals, that are going to be processed.
+     *
+     * @param individuals long, the number of individuals
+     * @throws CancellationException if the task is stopped
+     */
+    public void checkpoint(long individuals) throws CancellationException {
+        if (isStopped()) {
+            throw new CancellationException("The inference has been cancelled");
+        }
+        processed.add(individuals);
+    }
+
+    protected void setTotal(long total) {
+        this.total = total;
+    }
+
+    protected void setReport(InferenceMetrics report) {
+        this.report = report;
+    }
+
+    protected void setRule(ExtendedQuery rule) {
+        this.rule = rule;
+    }
+
+    protected void addTriples(long count) {
+        triples.add(count);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("InferenceTask{processed=%d, total=%d, triples=%d, rule='%s', done=%s}",
+                processed(), total(), triples(), currentRule(), future.isDone());
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import org.apache.jena.graph.Node;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A store of pending individuals (URI or blank {@link Node}s),
+ * that have appeared in the target during inference and wait for the dependent rules.
+ * It is a set: a node, that is already in the store, is not added twice.
+ * The store is drained through the {@link #next()} and {@link #remove(Node)} pair,
+ * new nodes may be added while draining.
+ * All methods must be thread-safe.
+ * <p>
+ * Created by @ssz on 25.06.2019.
+ *
+ * @see InferenceEngineImpl#createNodeStore()
+ * @see FileNodeStore
+ */
+public interface NodeStore extends AutoCloseable {
+
+    /**
+     * Creates an in-memory store, that is considered as {@link #isFull() full}
+     * once the number of nodes exceeds the specified threshold.
+     *
+     * @param threshold int, the number of nodes
+     * @return {@link NodeStore}
+     */
+    static NodeStore inMemory(int threshold) {
+        return new Memory(threshold);
+    }
+
+    /**
+     * Adds the node to the store.
+     *
+     * @param node {@link Node}, URI or blank, not {@code null}
+     * @return {@code true} if the store did not already contain the node
+     */
+    boolean add(Node node);
+
+    /**
+     * Removes the node from the store.
+     *
+     * @param node {@link Node}, not {@code null}
+     * @return {@code true} if the store contained the node
+     */
+    boolean remove(Node node);
+
+    /**
+     * Answers {@code true} if the store contains the node.
+     *
+     * @param node {@link Node}, not {@code null}
+     * @return boolean
+     */
+    boolean contains(Node node);
+
+    /**
+     * Returns some node from the store without removing it.
+     *
+     * @return {@link Node} or {@code null} if the store is empty
+     */
+    Node next();
+
+    /**
+     * Returns the number of nodes in the store.
+     *
+     * @return long
+     */
+    long size();
+
+    /**
+     * Answers {@code true} if the store must be flushed immediately,
+     * i.e. it is too large to keep it any longer.
+     * A store that is not limited by the heap size always returns {@code false}.
+     *
+     * @return boolean
+     */
+    boolean isFull();
+
+    /**
+     * Releases all resources associated with this store.
+     */
+    @Override
+    void close();
+
+    /**
+     * Answers {@code true} if the store is empty.
+     *
+     * @return boolean
+     */
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * The default in-memory implementation, that is bounded by the threshold.
+     * The insertion order is preserved, so {@link #next()} is constant-time.
+     */
+    class Memory implements NodeStore {
+        protected final Set<Node> nodes = new LinkedHashSet<>();
+        protected final int threshold;
+
+        protected Memory(int threshold) {
+            this.threshold = threshold;
+        }
+
+        @Override
+        public synchronized boolean add(Node node) {
+            return nodes.add(node);
+        }
+
+        @Override
+        public synchronized boolean remove(Node node) {
+            return nodes.remove(node);
+        }
+
+        @Override
+        public synchronized boolean contains(Node node) {
+            return nodes.contains(node);
+        }
+
+        @Override
+        public synchronized Node next() {
+            Iterator<Node> it = nodes.iterator();
+            return it.hasNext() ? it.next() : null;
+        }
+
+        @Override
+        public synchronized long size() {
+            return nodes.size();
+        }
+
+        @Override
+        public synchronized boolean isFull() {
+            return nodes.size() > threshold;
+        }
+
+        @Override
+        public synchronized void close() {
+            nodes.clear();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import ru.avicomp.map.MapJenaException;
+import ru.avicomp.map.MapModel;
+import ru.avicomp.map.spin.MapManagerImpl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+/**
+ * An {@link InferenceEngineImpl} that compiles the mapping rules only once and reuses them in all runs,
+ * until the mapping is changed.
+ * A regular engine assembles the query model, re-registers the runtime functions
+ * (those that have {@link ru.avicomp.map.spin.vocabulary.AVC#runtime avc:runtime}) and selects the rules on each run,
+ * which is too expensive if the same mapping is applied to a lot of small documents.
+ * <p>
+ * The runtime functions are registered in a private {@link ru.avicomp.map.spin.MapARQFactory#createOverlayFactory()
+ * overlay factory}, so they do not flush the caches of the manager factory
+ * and do not interfere with other engines, whose mappings may have different bodies for the same functions.
+ * The prepared rules and the schedule are immutable, each run has its own query model (see {@link #QUERY_MODEL})
+ * and its own execution context, therefore the engine can be run concurrently.
+ * The rules are recompiled on the next run after any change in the mapping graphs of the manager
+ * (see {@link MapManagerImpl#getMappingsVersion()}) or in its function library
+ * (see {@link ru.avicomp.map.spin.MapARQFactory#getLibraryVersion()}).
+ * <p>
+ * Created by @ssz on 11.07.2019.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PreparedInferenceEngineImpl extends InferenceEngineImpl {
+    protected final MapManagerImpl manager;
+    private volatile Prepared prepared;
+
+    public PreparedInferenceEngineImpl(MapModel mapping, MapManagerImpl manager) {
+        super(mapping, manager.getTopSpinGraph(), manager.getFactory().createOverlayFactory(),
+                manager.getMappingConfiguration());
+        this.manager = manager;
+    }
+
+    /**
+     * Returns the prepared rules, compiling them if it is the first run or the mapping or the library has been changed.
+     *
+     * @return unmodifiable Collection of {@link ProcessedQuery}s, not empty
+     * @throws MapJenaException if there are no rules
+     */
+    @Override
+    protected Collection<ProcessedQuery> prepareRules() throws MapJenaException {
+        Prepared res = prepared;
+        if (res != null && res.isActual(manager)) {
+            return res.rules;
+        }
+        synchronized (this) {
+            // the versions are taken before compiling: a concurrent change will cause recompiling on the next run
+            long mappings = manager.getMappingsVersion();
+            long library = manager.getFactory().getLibraryVersion();
+            res = prepared;
+            if (res != null && res.isActual(manager)) {
+                return res.rules;
+            }
+            // the caches of the overlay factory are not cleared by the manager:
+            factory.invalidateFunctionResults();
+            Collection<ProcessedQuery> rules = Collections.unmodifiableSet(new LinkedHashSet<>(super.prepareRules()));
+            prepared = res = new Prepared(mappings, library, rules, super.createSchedule(rules));
+            return res.rules;
+        }
+    }
+
+    /**
+     * Returns the prepared schedule, if the given rules are the prepared ones.
+     *
+     * @param queries Collection of {@link ProcessedQuery}s
+     * @return {@link RuleSchedule} or {@code null}
+     */
+    @Override
+    public RuleSchedule<ProcessedQuery> createSchedule(Collection<ProcessedQuery> queries) {
+        Prepared res = prepared;
+        return res != null && res.rules == queries ? res.schedule : super.createSchedule(queries);
+    }
+
+    /**
+     * The compiled state of the engine.
+     */
+    protected static class Prepared {
+        protected final long mappingsVersion;
+        protected final long libraryVersion;
+        protected final Collection<ProcessedQuery> rules;
+        // null if the rules cannot be scheduled:
+        protected final RuleSchedule<ProcessedQuery> schedule;
+
+        protected Prepared(long mappingsVersion,
+                           long libraryVersion,
+                           Collection<ProcessedQuery> rules,
+                           RuleSchedule<ProcessedQuery> schedule) {
+            this.mappingsVersion = mappingsVersion;
+            this.libraryVersion = libraryVersion;
+            this.rules = rules;
+            this.schedule = schedule;
+        }
+
+        /**
+         * Answers {@code true} if neither the mappings nor the library of the manager have been changed
+         * since the rules were compiled.
+         *
+         * @param manager {@link MapManagerImpl}
+         * @return boolean
+         */
+        protected boolean isActual(MapManagerImpl manager) {
+            return mappingsVersion == manager.getMappingsVersion()
+                    && libraryVersion == manager.getFactory().getLibraryVersion();
+        }
+    }
+}
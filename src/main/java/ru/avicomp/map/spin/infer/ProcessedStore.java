@@ -0,0 +1,84 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import org.apache.jena.graph.Node;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A registry of already processed individual-rule pairs, that is used to prevent recursion while inference.
+ * A rule is identified by its ordinal number within the {@link RuleIndex}.
+ * Unlike {@link NodeStore}, the implementations are not required to be thread-safe.
+ * <p>
+ * Created by @ssz on 25.06.2019.
+ *
+ * @see InferenceEngineImpl#createProcessedStore()
+ * @see FileProcessedStore
+ */
+public interface ProcessedStore extends AutoCloseable {
+
+    /**
+     * Creates a simple in-memory registry.
+     *
+     * @return {@link ProcessedStore}
+     */
+    static ProcessedStore inMemory() {
+        return new Memory();
+    }
+
+    /**
+     * Records that the rule has been processed for the individual.
+     *
+     * @param individual {@link Node}, URI or blank, not {@code null}
+     * @param rule       int, the rule ordinal
+     * @return {@code true} if the pair has not been recorded before
+     */
+    boolean add(Node individual, int rule);
+
+    /**
+     * Releases all resources associated with this registry.
+     */
+    @Override
+    void close();
+
+    /**
+     * The default in-memory implementation.
+     */
+    class Memory implements ProcessedStore {
+        protected final Map<Node, BitSet> map = new HashMap<>();
+
+        @Override
+        public boolean add(Node individual, int rule) {
+            BitSet rules = map.computeIfAbsent(individual, x -> new BitSet());
+            if (rules.get(rule)) {
+                return false;
+            }
+            rules.set(rule);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            map.clear();
+        }
+    }
+}
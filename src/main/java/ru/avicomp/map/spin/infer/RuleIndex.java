@@ -0,0 +1,164 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.RDFNode;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A dispatch index of mapping rules, that allows to find all rules for an individual in constant time.
+ * The rules are grouped by their subjects (i.e. by the context source classes),
+ * each group and each merged list for an individual with several classes
+ * keeps the natural order of {@link ExtendedQuery}s.
+ * The merged lists are cached, the number of different class combinations is expected to be small.
+ * The index is immutable (except the internal cache) and can be shared between threads.
+ * <p>
+ * Created by @ssz on 24.06.2019.
+ *
+ * @param <Q> subtype of {@link ExtendedQuery}
+ */
+@SuppressWarnings("WeakerAccess")
+public class RuleIndex<Q extends ExtendedQuery> {
+    // a limit for merged lists cache, just in case of some pathological data with a lot of class combinations
+    protected static final int MERGED_CACHE_LIMIT = 1024;
+
+    private final Collection<Q> rules;
+    private final Map<Q, Integer> ordinals = new IdentityHashMap<>();
+    private final Map<Node, List<Q>> byClass;
+    private final Map<Set<Node>, List<Q>> merged = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an index.
+     *
+     * @param rules a {@code Collection} of rules, not {@code null}
+     */
+    public RuleIndex(Collection<Q> rules) {
+        List<Q> all = new ArrayList<>(rules);
+        Collections.sort(all);
+        all.forEach(q -> ordinals.put(q, ordinals.size()));
+        Map<Node, List<Q>> res = new HashMap<>();
+        all.forEach(q -> res.computeIfAbsent(q.getSubject().asNode(), x -> new ArrayList<>()).add(q));
+        res.replaceAll((k, v) -> Collections.unmodifiableList(v));
+        this.rules = Collections.unmodifiableList(all);
+        this.byClass = res;
+    }
+
+    /**
+     * Lists all the rules in their natural order.
+     *
+     * @return unmodifiable {@code Collection} of rules
+     */
+    public Collection<Q> rules() {
+        return rules;
+    }
+
+    /**
+     * Lists all classes, that have rules.
+     *
+     * @return unmodifiable {@code Set} of class {@link Node}s
+     */
+    public Set<Node> classes() {
+        return Collections.unmodifiableSet(byClass.keySet());
+    }
+
+    /**
+     * Returns the position of the rule in the natural order.
+     *
+     * @param rule a rule from this index
+     * @return int, non-negative
+     * @throws IllegalArgumentException if there is no such rule in the index
+     */
+    public int ordinal(Q rule) {
+        Integer res = ordinals.get(rule);
+        if (res == null) {
+            throw new IllegalArgumentException("Unknown rule: " + rule);
+        }
+        return res;
+    }
+
+    /**
+     * Answers {@code true} if there are no rules.
+     *
+     * @return boolean
+     */
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Selects all rules for the given class.
+     *
+     * @param clazz {@link Node} the class
+     * @return unmodifiable ordered {@code List} of rules, possibly empty
+     */
+    public List<Q> select(Node clazz) {
+        return byClass.getOrDefault(clazz, Collections.emptyList());
+    }
+
+    /**
+     * Selects all rules for an individual with the given classes.
+     *
+     * @param classes {@code Collection} of class {@link RDFNode}s
+     * @return unmodifiable ordered {@code List} of rules, possibly empty
+     */
+    public List<Q> select(Collection<? extends RDFNode> classes) {
+        Set<Node> keys = null;
+        Node first = null;
+        for (RDFNode c : classes) {
+            Node n = c.asNode();
+            if (!byClass.containsKey(n)) {
+                continue;
+            }
+            if (first == null) {
+                first = n;
+                continue;
+            }
+            if (keys == null) {
+                keys = new HashSet<>();
+                keys.add(first);
+            }
+            keys.add(n);
+        }
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        if (keys == null || keys.size() == 1) {
+            return byClass.get(first);
+        }
+        List<Q> res = merged.get(keys);
+        if (res != null) {
+            return res;
+        }
+        res = merge(keys);
+        if (merged.size() < MERGED_CACHE_LIMIT) {
+            merged.put(keys, res);
+        }
+        return res;
+    }
+
+    private List<Q> merge(Set<Node> classes) {
+        List<Q> res = new ArrayList<>();
+        classes.forEach(c -> res.addAll(byClass.get(c)));
+        Collections.sort(res);
+        return Collections.unmodifiableList(res);
+    }
+}
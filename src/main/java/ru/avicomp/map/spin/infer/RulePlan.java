@@ -0,0 +1,634 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.algebra.walker.Walker;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.expr.*;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.sparql.syntax.*;
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.topbraid.spin.vocabulary.SPIN;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A compiled execution plan for a {@code spinmap:rule} CONSTRUCT query.
+ * <p>
+ * The plan is a direct Java equivalent of the query:
+ * triple patterns are evaluated through {@link Graph#find(Node, Node, Node)},
+ * {@code BIND} and {@code FILTER} expressions are evaluated directly as ARQ {@link Expr}s (with no query parsing,
+ * algebra compiling and optimization, that take place for each {@link org.apache.jena.query.QueryExecution}),
+ * and the CONSTRUCT template triples are emitted straight into the given sink.
+ * Only the subset of SPARQL, that is used by the mapping templates, is supported:
+ * basic graph patterns without property paths, {@code OPTIONAL}, {@code BIND}, {@code FILTER}
+ * and {@code [NOT] EXISTS} with a single triple pattern inside.
+ * This covers all templates generated by the {@link ru.avicomp.map.spin.TemplateBuilder}
+ * (i.e. {@code avc:Mapping-*} and {@code avc:PropertyMapping-*}) and also most of the standard spinmap templates.
+ * For any other query {@link #compile(Query, Context)} returns {@code null},
+ * and the query is expected to be executed as SPARQL.
+ * <p>
+ * The steps of each group are reordered so that every filter is evaluated as early as possible:
+ * right after the steps that bind its variables, which, in turn, go before all the other steps of the group.
+ * This is correct, since a SPARQL filter applies to the whole group regardless of its position,
+ * and only independent steps change places (i.e. steps that do not bind variables mentioned by each other).
+ * For a filtering mapping template this means that the filter expression is evaluated
+ * right after the filter source predicates are read,
+ * and the mapping expression and the target resource are not computed for the rejected individuals.
+ * <p>
+ * The plan is immutable and can be shared between threads.
+ * Created by @ssz on 22.06.2019.
+ *
+ * @see InferenceEngineImpl.CompiledQuery
+ */
+@SuppressWarnings("WeakerAccess")
+public class RulePlan {
+    private final List<Triple> template;
+    private final List<Step> steps;
+
+    protected RulePlan(List<Triple> template, List<Step> steps) {
+        this.template = Objects.requireNonNull(template);
+        this.steps = Objects.requireNonNull(steps);
+    }
+
+    /**
+     * Compiles the given query into a {@link RulePlan}, assuming that only {@code ?this} is bound initially.
+     *
+     * @param query   {@link Query}, not {@code null}
+     * @param context {@link Context} with {@link org.apache.jena.sparql.function.FunctionRegistry}, not {@code null}
+     * @return {@link RulePlan} or {@code null} if the query cannot be compiled
+     * @see #compile(Query, Set, Context)
+     */
+    public static RulePlan compile(Query query, Context context) {
+        return compile(query, Collections.singleton(Var.alloc(SPIN.THIS_VAR_NAME)), context);
+    }
+
+    /**
+     * Compiles the given query into a {@link RulePlan}.
+     * All functions found in the query expressions are bound using the registry from the given context.
+     * The input variables are those that are always bound in the initial {@link Binding}
+     * (i.e. {@code ?this} and the specified template arguments),
+     * they are treated as constants while reordering steps.
+     *
+     * @param query   {@link Query}, not {@code null}
+     * @param inputs  Set of input {@link Var}s, not {@code null}
+     * @param context {@link Context} with {@link org.apache.jena.sparql.function.FunctionRegistry}, not {@code null}
+     * @return {@link RulePlan} or {@code null} if the query cannot be compiled
+     */
+    public static RulePlan compile(Query query, Set<Var> inputs, Context context) {
+        if (!query.isConstructType()
+                || query.hasLimit() || query.hasOffset() || query.hasOrderBy()
+                || query.hasGroupBy() || query.hasHaving() || query.hasAggregators() || query.hasValues()
+                || !query.getGraphURIs().isEmpty() || !query.getNamedGraphURIs().isEmpty()) {
+            return null;
+        }
+        Template construct = query.getConstructTemplate();
+        if (construct == null || construct.containsRealQuad()) {
+            return null;
+        }
+        List<Triple> template = construct.getTriples();
+        if (template.stream().anyMatch(t -> t.getSubject().isBlank()
+                || t.getPredicate().isBlank() || t.getObject().isBlank())) {
+            // to support this, fresh b-nodes must be generated for each solution
+            return null;
+        }
+        try {
+            List<Step> steps = compileGroup(query.getQueryPattern(), new HashSet<>(), false, inputs, context);
+            return steps == null ? null : new RulePlan(Collections.unmodifiableList(template), steps);
+        } catch (RuntimeException e) {
+            // can't bind some function or something else wrong, let the SPARQL engine deal with it
+            return null;
+        }
+    }
+
+    private static List<Step> compileGroup(Element element,
+                                           Set<Var> outer,
+                                           boolean optional,
+                                           Set<Var> inputs,
+                                           Context context) {
+        if (element == null) {
+            return null;
+        }
+        List<Element> elements = element instanceof ElementGroup ?
+                ((ElementGroup) element).getElements() : Collections.singletonList(element);
+        List<Step> res = new ArrayList<>();
+        List<Step> filters = new ArrayList<>();
+        Set<Var> local = new HashSet<>();
+        for (Element e : elements) {
+            if (e instanceof ElementPathBlock || e instanceof ElementTriplesBlock) {
+                List<Triple> triples = asTriples(e);
+                if (triples == null) {
+                    return null;
+                }
+                triples.forEach(t -> {
+                    res.add(new MatchStep(t));
+                    local.addAll(vars(t));
+                });
+                continue;
+            }
+            if (e instanceof ElementBind) {
+                ElementBind bind = (ElementBind) e;
+                Set<Var> mentioned = bind.getExpr().getVarsMentioned();
+                if (optional && mentioned.stream().anyMatch(v -> outer.contains(v) && !local.contains(v))) {
+                    // the SPARQL engine would evaluate such a group bottom-up, where outer variables are not visible
+                    return null;
+                }
+                Expr expr = prepare(bind.getExpr(), context);
+                if (expr == null) {
+                    return null;
+                }
+                res.add(new BindStep(bind.getVar(), expr));
+                local.add(bind.getVar());
+                continue;
+            }
+            if (e instanceof ElementFilter) {
+                Step filter = compileFilter(((ElementFilter) e).getExpr(), context);
+                if (filter == null) {
+                    return null;
+                }
+                filters.add(filter);
+                continue;
+            }
+            if (e instanceof ElementOptional) {
+                if (optional) { // nested optionals are not supported
+                    return null;
+                }
+                Set<Var> visible = new HashSet<>(outer);
+                visible.addAll(local);
+                List<Step> sub = compileGroup(((ElementOptional) e).getOptionalElement(),
+                        visible, true, inputs, context);
+                if (sub == null) {
+                    return null;
+                }
+                res.add(new OptionalStep(sub));
+                sub.forEach(s -> local.addAll(s.vars()));
+                continue;
+            }
+            return null;
+        }
+        // filters are applied to the whole group:
+        res.addAll(filters);
+        return Collections.unmodifiableList(pushDownFilters(res, inputs));
+    }
+
+    /**
+     * Reorders the steps of a group, so that the filters are evaluated as soon as possible.
+     * A step must stay after every preceding step, that binds a variable mentioned by it, or vice versa.
+     * Among the steps, whose predecessors are already placed, a filter is chosen first,
+     * then a step that some filter depends on, then any other, in the original order.
+     *
+     * @param steps  List of {@link Step}s, the filters are at the end
+     * @param inputs Set of {@link Var}s, that are bound before the plan runs
+     * @return List of {@link Step}s
+     */
+    private static List<Step> pushDownFilters(List<Step> steps, Set<Var> inputs) {
+        int n = steps.size();
+        List<Set<Integer>> dependencies = new ArrayList<>(n);
+        for (int j = 0; j < n; j++) {
+            Set<Integer> res = new HashSet<>();
+            for (int i = 0; i < j; i++) {
+                if (dependsOn(steps.get(j), steps.get(i), inputs)) {
+                    res.add(i);
+                }
+            }
+            dependencies.add(res);
+        }
+        // the steps that filters depend on, directly or transitively:
+        boolean[] urgent = new boolean[n];
+        for (int j = n - 1; j >= 0; j--) {
+            if (steps.get(j).isFilter() || urgent[j]) {
+                dependencies.get(j).forEach(i -> urgent[i] = true);
+            }
+        }
+        List<Step> res = new ArrayList<>(n);
+        boolean[] placed = new boolean[n];
+        while (res.size() < n) {
+            int next = -1;
+            for (int j = 0; j < n; j++) {
+                if (placed[j] || !dependencies.get(j).stream().allMatch(i -> placed[i])) {
+                    continue;
+                }
+                if (steps.get(j).isFilter()) {
+                    next = j;
+                    break;
+                }
+                if (next == -1 || (urgent[j] && !urgent[next])) {
+                    next = j;
+                }
+            }
+            placed[next] = true;
+            res.add(steps.get(next));
+        }
+        return res;
+    }
+
+    private static boolean dependsOn(Step right, Step left, Set<Var> inputs) {
+        return intersects(right.mentioned(), left.vars(), inputs) || intersects(left.mentioned(), right.vars(), inputs);
+    }
+
+    private static boolean intersects(Set<Var> mentioned, Set<Var> bound, Set<Var> inputs) {
+        return bound.stream().anyMatch(v -> !inputs.contains(v) && mentioned.contains(v));
+    }
+
+    private static Step compileFilter(Expr expr, Context context) {
+        if (expr instanceof E_Exists || expr instanceof E_NotExists) {
+            List<Triple> triples = asTriples(((ExprFunctionOp) expr).getElement());
+            if (triples == null || triples.size() != 1) {
+                return null;
+            }
+            return new ExistsStep(triples.get(0), expr instanceof E_NotExists);
+        }
+        Expr res = prepare(expr, context);
+        return res == null ? null : new FilterStep(res);
+    }
+
+    /**
+     * Makes a copy of the given expression with all functions bound.
+     *
+     * @param expr    {@link Expr}
+     * @param context {@link Context}
+     * @return {@link Expr} or {@code null} if the expression contains a sub-query ({@code EXISTS}, {@code NOT EXISTS})
+     */
+    private static Expr prepare(Expr expr, Context context) {
+        boolean[] hasSubQuery = new boolean[1];
+        Walker.walk(expr, new ExprVisitorBase() {
+            @Override
+            public void visit(ExprFunctionOp op) {
+                hasSubQuery[0] = true;
+            }
+        });
+        if (hasSubQuery[0]) {
+            return null;
+        }
+        // a deep copy, since the function binding modifies the expression
+        Expr res = expr.deepCopy();
+        Walker.walk(res, new ExprBuild(context));
+        return res;
+    }
+
+    private static List<Triple> asTriples(Element element) {
+        if (element instanceof ElementGroup) {
+            List<Element> elements = ((ElementGroup) element).getElements();
+            if (elements.size() != 1) {
+                return null;
+            }
+            element = elements.get(0);
+        }
+        if (element instanceof ElementTriplesBlock) {
+            return ((ElementTriplesBlock) element).getPattern().getList();
+        }
+        if (!(element instanceof ElementPathBlock)) {
+            return null;
+        }
+        List<Triple> res = new ArrayList<>();
+        for (TriplePath path : ((ElementPathBlock) element).getPattern().getList()) {
+            if (!path.isTriple()) {
+                return null;
+            }
+            res.add(path.asTriple());
+        }
+        return res;
+    }
+
+    private static Set<Var> vars(Triple t) {
+        Set<Var> res = new HashSet<>();
+        for (Node n : new Node[]{t.getSubject(), t.getPredicate(), t.getObject()}) {
+            if (Var.isVar(n)) {
+                res.add(Var.alloc(n));
+            }
+        }
+        return res;
+    }
+
+    private static Node substitute(Node n, Binding binding) {
+        return Var.isVar(n) ? Var.lookup(binding, n) : n;
+    }
+
+    private static Node asPattern(Node n, Binding binding) {
+        Node res = substitute(n, binding);
+        return Var.isVar(res) ? Node.ANY : res;
+    }
+
+    /**
+     * Runs the plan and passes the result triples into the {@code sink} one by one, as soon as they are produced.
+     * Note that the triples are not distinct.
+     *
+     * @param input {@link Binding}, the initial binding, that contains {@code ?this} and the template arguments
+     * @param graph {@link Graph} to query
+     * @param env   {@link FunctionEnv} to evaluate expressions
+     * @param sink  {@code Consumer} to accept the result {@link Triple}s
+     */
+    public void execute(Binding input, Graph graph, FunctionEnv env, Consumer<Triple> sink) {
+        run(steps, 0, input, graph, env, binding -> template.forEach(t -> {
+            Node s = substitute(t.getSubject(), binding);
+            Node p = substitute(t.getPredicate(), binding);
+            Node o = substitute(t.getObject(), binding);
+            // the same as for SPARQL CONSTRUCT: skip unbound and illegal triples
+            if (Var.isVar(s) || Var.isVar(p) || Var.isVar(o) || s.isLiteral() || !p.isURI()) {
+                return;
+            }
+            sink.accept(Triple.create(s, p, o));
+        }));
+    }
+
+    private static void run(List<Step> steps,
+                            int index,
+                            Binding binding,
+                            Graph graph,
+                            FunctionEnv env,
+                            Consumer<Binding> sink) {
+        if (index == steps.size()) {
+            sink.accept(binding);
+            return;
+        }
+        steps.get(index).run(binding, graph, env, b -> run(steps, index + 1, b, graph, env, sink));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RulePlan%s=>%s", steps, template);
+    }
+
+    /**
+     * A single operation of the plan.
+     */
+    protected interface Step {
+        /**
+         * Processes the binding and passes the results into the {@code next} consumer.
+         *
+         * @param binding {@link Binding} the current solution
+         * @param graph   {@link Graph} to query
+         * @param env     {@link FunctionEnv}
+         * @param next    {@link Consumer} for solutions
+         */
+        void run(Binding binding, Graph graph, FunctionEnv env, Consumer<Binding> next);
+
+        /**
+         * Lists all variables that can be bound by this step.
+         *
+         * @return Set of {@link Var}s
+         */
+        default Set<Var> vars() {
+            return Collections.emptySet();
+        }
+
+        /**
+         * Lists all variables that are used by this step, either read or bound.
+         *
+         * @return Set of {@link Var}s
+         */
+        default Set<Var> mentioned() {
+            return vars();
+        }
+
+        /**
+         * Answers {@code true} if this step only filters solutions, but does not produce new ones.
+         *
+         * @return boolean
+         */
+        default boolean isFilter() {
+            return false;
+        }
+    }
+
+    /**
+     * A triple pattern.
+     */
+    protected static class MatchStep implements Step {
+        private final Triple pattern;
+
+        protected MatchStep(Triple pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public void run(Binding binding, Graph graph, FunctionEnv env, Consumer<Binding> next) {
+            Node s = asPattern(pattern.getSubject(), binding);
+            Node p = asPattern(pattern.getPredicate(), binding);
+            Node o = asPattern(pattern.getObject(), binding);
+            ExtendedIterator<Triple> it = graph.find(s, p, o);
+            try {
+                while (it.hasNext()) {
+                    Triple t = it.next();
+                    BindingMap res = BindingFactory.create(binding);
+                    if (bind(res, pattern.getSubject(), t.getSubject())
+                            && bind(res, pattern.getPredicate(), t.getPredicate())
+                            && bind(res, pattern.getObject(), t.getObject())) {
+                        next.accept(res);
+                    }
+                }
+            } finally {
+                it.close();
+            }
+        }
+
+        private static boolean bind(BindingMap binding, Node pattern, Node value) {
+            if (!Var.isVar(pattern)) {
+                return true;
+            }
+            Var v = Var.alloc(pattern);
+            Node current = binding.get(v);
+            if (current == null) {
+                binding.add(v, value);
+                return true;
+            }
+            return current.equals(value);
+        }
+
+        @Override
+        public Set<Var> vars() {
+            return RulePlan.vars(pattern);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Match[%s]", pattern);
+        }
+    }
+
+    /**
+     * {@code BIND (expr AS ?var)}.
+     */
+    protected static class BindStep implements Step {
+        private final Var var;
+        private final Expr expr;
+
+        protected BindStep(Var var, Expr expr) {
+            this.var = var;
+            this.expr = expr;
+        }
+
+        @Override
+        public void run(Binding binding, Graph graph, FunctionEnv env, Consumer<Binding> next) {
+            Node value;
+            try {
+                value = expr.eval(binding, env).asNode();
+            } catch (ExprEvalException e) {
+                // an error leaves the variable unbound
+                next.accept(binding);
+                return;
+            }
+            Node current = binding.get(var);
+            if (current == null) {
+                next.accept(BindingFactory.binding(binding, var, value));
+            } else if (current.sameValueAs(value)) {
+                next.accept(binding);
+            }
+        }
+
+        @Override
+        public Set<Var> vars() {
+            return Collections.singleton(var);
+        }
+
+        @Override
+        public Set<Var> mentioned() {
+            Set<Var> res = new HashSet<>(expr.getVarsMentioned());
+            res.add(var);
+            return res;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Bind[%s=%s]", var, expr);
+        }
+    }
+
+    /**
+     * {@code FILTER (expr)}.
+     */
+    protected static class FilterStep implements Step {
+        private final Expr expr;
+
+        protected FilterStep(Expr expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        public void run(Binding binding, Graph graph, FunctionEnv env, Consumer<Binding> next) {
+            if (expr.isSatisfied(binding, env)) {
+                next.accept(binding);
+            }
+        }
+
+        @Override
+        public Set<Var> mentioned() {
+            return expr.getVarsMentioned();
+        }
+
+        @Override
+        public boolean isFilter() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Filter[%s]", expr);
+        }
+    }
+
+    /**
+     * {@code FILTER [NOT] EXISTS { s p o }}.
+     */
+    protected static class ExistsStep implements Step {
+        private final Triple pattern;
+        private final boolean not;
+
+        protected ExistsStep(Triple pattern, boolean not) {
+            this.pattern = pattern;
+            this.not = not;
+        }
+
+        @Override
+        public void run(Binding binding, Graph graph, FunctionEnv env, Consumer<Binding> next) {
+            Node s = asPattern(pattern.getSubject(), binding);
+            Node p = asPattern(pattern.getPredicate(), binding);
+            Node o = asPattern(pattern.getObject(), binding);
+            if (graph.contains(s, p, o) != not) {
+                next.accept(binding);
+            }
+        }
+
+        @Override
+        public Set<Var> mentioned() {
+            return RulePlan.vars(pattern);
+        }
+
+        @Override
+        public boolean isFilter() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%s]", not ? "NotExists" : "Exists", pattern);
+        }
+    }
+
+    /**
+     * {@code OPTIONAL { ... }}.
+     */
+    protected static class OptionalStep implements Step {
+        private final List<Step> steps;
+
+        protected OptionalStep(List<Step> steps) {
+            this.steps = steps;
+        }
+
+        @Override
+        public void run(Binding binding, Graph graph, FunctionEnv env, Consumer<Binding> next) {
+            List<Binding> res = new ArrayList<>();
+            RulePlan.run(steps, 0, binding, graph, env, res::add);
+            if (res.isEmpty()) {
+                next.accept(binding);
+                return;
+            }
+            res.forEach(next);
+        }
+
+        @Override
+        public Set<Var> vars() {
+            Set<Var> res = new HashSet<>();
+            steps.forEach(s -> res.addAll(s.vars()));
+            return res;
+        }
+
+        @Override
+        public Set<Var> mentioned() {
+            Set<Var> res = new HashSet<>();
+            steps.forEach(s -> res.addAll(s.mentioned()));
+            return res;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Optional%s", steps);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A schedule of mapping rules, that is built from the dependency graph of the mapping contexts.
+ * A context {@code B} depends on a context {@code A} if {@code B} is chained to {@code A}
+ * (i.e. its source class is the target class of {@code A})
+ * or if {@code B} refers to {@code A} in its expressions (e.g. through {@code spinmap:targetResource}),
+ * see {@link ru.avicomp.map.spin.MapContextImpl#listDependentContexts()}.
+ * <p>
+ * The strongly connected components of the graph (i.e. the cycles) are collapsed into single {@link Group}s,
+ * then the groups are distributed over the topological waves:
+ * each group depends only on the groups from the previous waves,
+ * so the groups within a wave are independent and can be processed simultaneously.
+ * A {@link Group#isCyclic() cyclic} group (this includes a context that depends on itself)
+ * must be processed until there are no new individuals.
+ * The contexts without rules do not form groups, but still take part in the ordering.
+ * The schedule is immutable and can be shared between threads.
+ * <p>
+ * Created by @ssz on 08.07.2019.
+ *
+ * @param <Q> subtype of {@link ExtendedQuery}
+ */
+@SuppressWarnings("WeakerAccess")
+public class RuleSchedule<Q extends ExtendedQuery> {
+    private final List<List<Group<Q>>> waves;
+
+    protected RuleSchedule(List<List<Group<Q>>> waves) {
+        this.waves = waves;
+    }
+
+    /**
+     * Creates a schedule.
+     *
+     * @param rules        a {@code Collection} of rules, not {@code null}
+     * @param context      a {@code Function} to get the context name (URI) for a rule, must not return {@code null}
+     * @param dependencies a {@code Map} with the context names as keys and the names of dependent contexts as values
+     * @param <Q>          subtype of {@link ExtendedQuery}
+     * @return {@link RuleSchedule}
+     */
+    public static <Q extends ExtendedQuery> RuleSchedule<Q> create(Collection<Q> rules,
+                                                                 Function<Q, String> context,
+                                                                 Map<String, ? extends Collection<String>> dependencies) {
+        Map<String, List<Q>> byContext = new HashMap<>();
+        rules.forEach(q -> byContext.computeIfAbsent(Objects.requireNonNull(context.apply(q),
+                "No context for " + q), x -> new ArrayList<>()).add(q));
+        // all nodes, sorted to make the result predictable:
+        Set<String> nodes = new TreeSet<>(byContext.keySet());
+        dependencies.forEach((k, v) -> {
+            nodes.add(k);
+            nodes.addAll(v);
+        });
+        List<Set<String>> components = new Tarjan(nodes, dependencies).run();
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < components.size(); i++) {
+            int c = i;
+            components.get(i).forEach(n -> index.put(n, c));
+        }
+        // Tarjan's algorithm returns components in the reverse topological order:
+        int[] levels = new int[components.size()];
+        boolean[] cyclic = new boolean[components.size()];
+        for (int i = components.size() - 1; i >= 0; i--) {
+            for (String n : components.get(i)) {
+                for (String d : get(dependencies, n)) {
+                    int j = index.get(d);
+                    if (j == i) {
+                        cyclic[i] = true;
+                        continue;
+                    }
+                    levels[j] = Math.max(levels[j], levels[i] + 1);
+                }
+            }
+        }
+        Map<Integer, List<Group<Q>>> waves = new TreeMap<>();
+        for (int i = components.size() - 1; i >= 0; i--) {
+            Set<String> names = components.get(i);
+            List<Q> queries = names.stream()
+                    .flatMap(n -> byContext.getOrDefault(n, Collections.emptyList()).stream())
+                    .collect(Collectors.toList());
+            if (queries.isEmpty()) {
+                continue;
+            }
+            waves.computeIfAbsent(levels[i], x -> new ArrayList<>())
+                    .add(new Group<>(names, new RuleIndex<>(queries), cyclic[i] || names.size() > 1));
+        }
+        Comparator<Group<Q>> order = Comparator.comparing(g -> g.contexts().iterator().next());
+        waves.values().forEach(x -> x.sort(order));
+        List<List<Group<Q>>> res = waves.values().stream()
+                .map(Collections::unmodifiableList).collect(Collectors.toList());
+        return new RuleSchedule<>(Collections.unmodifiableList(res));
+    }
+
+    private static Collection<String> get(Map<String, ? extends Collection<String>> map, String key) {
+        Collection<String> res = map.get(key);
+        return res == null ? Collections.emptySet() : res;
+    }
+
+    /**
+     * Lists all waves in the order of processing.
+     *
+     * @return unmodifiable {@code List} of non-empty unmodifiable {@code List}s of independent {@link Group}s
+     */
+    public List<List<Group<Q>>> waves() {
+        return waves;
+    }
+
+    /**
+     * Lists the context names of all cyclic groups.
+     *
+     * @return {@code List} of sorted {@code Set}s of context names
+     */
+    public List<Set<String>> cycles() {
+        return waves.stream().flatMap(Collection::stream)
+                .filter(Group::isCyclic).map(Group::contexts).collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        return waves.toString();
+    }
+
+    /**
+     * A group of rules from one or more contexts, that must be processed together.
+     *
+     * @param <Q> subtype of {@link ExtendedQuery}
+     */
+    public static class Group<Q extends ExtendedQuery> {
+        private final Set<String> contexts;
+        private final RuleIndex<Q> rules;
+        private final boolean cyclic;
+
+        protected Group(Set<String> contexts, RuleIndex<Q> rules, boolean cyclic) {
+            this.contexts = Collections.unmodifiableSet(new TreeSet<>(contexts));
+            this.rules = rules;
+            this.cyclic = cyclic;
+        }
+
+        /**
+         * Returns the names of the contexts of this group.
+         *
+         * @return unmodifiable sorted {@code Set} of context URIs
+         */
+        public Set<String> contexts() {
+            return contexts;
+        }
+
+        /**
+         * Returns the index of the rules of this group.
+         * The rule ordinals are local to the group.
+         *
+         * @return {@link RuleIndex}
+         */
+        public RuleIndex<Q> rules() {
+            return rules;
+        }
+
+        /**
+         * Answers {@code true} if the group has a dependency on itself,
+         * i.e. the rules may produce new individuals for the same group.
+         *
+         * @return boolean
+         */
+        public boolean isCyclic() {
+            return cyclic;
+        }
+
+        @Override
+        public String toString() {
+            return (cyclic ? "cycle" : "group") + contexts;
+        }
+    }
+
+    /**
+     * Tarjan's algorithm to find the strongly connected components of a directed graph.
+     */
+    private static class Tarjan {
+        private final Collection<String> nodes;
+        private final Map<String, ? extends Collection<String>> edges;
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final Map<String, Integer> lows = new HashMap<>();
+        private final Deque<String> stack = new ArrayDeque<>();
+        private final Set<String> onStack = new HashSet<>();
+        private final List<Set<String>> res = new ArrayList<>();
+
+        private Tarjan(Collection<String> nodes, Map<String, ? extends Collection<String>> edges) {
+            this.nodes = nodes;
+            this.edges = edges;
+        }
+
+        private List<Set<String>> run() {
+            nodes.forEach(n -> {
+                if (!indexes.containsKey(n)) {
+                    visit(n);
+                }
+            });
+            return res;
+        }
+
+        private void visit(String n) {
+            int index = indexes.size();
+            indexes.put(n, index);
+            lows.put(n, index);
+            stack.push(n);
+            onStack.add(n);
+            for (String d : new TreeSet<>(get(edges, n))) {
+                if (!indexes.containsKey(d)) {
+                    visit(d);
+                    lows.put(n, Math.min(lows.get(n), lows.get(d)));
+                } else if (onStack.contains(d)) {
+                    lows.put(n, Math.min(lows.get(n), indexes.get(d)));
+                }
+            }
+            if (lows.get(n) != index) {
+                return;
+            }
+            Set<String> component = new TreeSet<>();
+            String x;
+            do {
+                x = stack.pop();
+                onStack.remove(x);
+                component.add(x);
+            } while (!x.equals(n));
+            res.add(component);
+        }
+    }
+}
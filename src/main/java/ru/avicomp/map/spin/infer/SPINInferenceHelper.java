@@ -19,6 +19,9 @@
 package ru.avicomp.map.spin.infer;
 
 import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QuerySolutionMap;
 import org.apache.jena.rdf.model.*;
 import org.apache.jena.util.iterator.ExtendedIterator;
@@ -35,13 +38,19 @@ import ru.avicomp.map.spin.SpinModels;
 import ru.avicomp.map.utils.ModelUtils;
 import ru.avicomp.ontapi.jena.impl.UnionModel;
 import ru.avicomp.ontapi.jena.utils.Iter;
+import ru.avicomp.ontapi.jena.utils.Models;
 import ru.avicomp.ontapi.jena.vocabulary.OWL;
 import ru.avicomp.ontapi.jena.vocabulary.RDF;
 
+import java.util.ArrayDeque;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * An ONT-MAP replacement for several Topbraid-SPIN common classes to conduct inference.
@@ -124,6 +133,45 @@ public class SPINInferenceHelper {
                 .filter(r -> r.getRequiredProperty(SPINMAP.context).getObject().isURIResource());
     }
 
+    /**
+     * Answers {@code true} if the given rule calls the specified function,
+     * either directly or through other spin functions and templates.
+     * The rule itself, its template body and all template arguments (e.g. a mapping context) are inspected.
+     *
+     * @param cw       {@link CommandWrapper} the rule, not {@code null}
+     * @param function {@link Resource} the function to search for, not {@code null}
+     * @return boolean
+     */
+    public static boolean callsFunction(CommandWrapper cw, Resource function) {
+        Deque<Resource> queue = new ArrayDeque<>();
+        rule(cw).ifPresent(queue::add);
+        Map<String, RDFNode> args = cw.getTemplateBinding();
+        if (args != null) {
+            args.values().stream().filter(RDFNode::isResource).map(RDFNode::asResource).forEach(queue::add);
+        }
+        Set<Resource> seen = new HashSet<>();
+        while (!queue.isEmpty()) {
+            Resource r = queue.poll();
+            if (!seen.add(r)) {
+                continue;
+            }
+            for (Statement s : Models.getAssociatedStatements(r)) {
+                if (!RDF.type.equals(s.getPredicate()) || !s.getObject().isURIResource()) {
+                    continue;
+                }
+                Resource type = s.getResource();
+                if (function.equals(type)) {
+                    return true;
+                }
+                Statement body = type.getProperty(SPIN.body);
+                if (body != null && body.getObject().isResource()) {
+                    queue.add(body.getResource());
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Lists all mapping rules in the form of {@link QueryWrapper}s.
      *
@@ -290,17 +338,41 @@ public class SPINInferenceHelper {
      * @see org.topbraid.spin.inference.SPINInferences#runQueryOnInstance(QueryWrapper, Model, Model, Resource, boolean)
      */
     public static Model runQueryOnInstance(ARQFactory factory, QueryWrapper query, Resource instance, Model res) {
+        Model model = MapJenaException.notNull(query.getSPINQuery().getModel(), "Unattached query: " + query);
         if (res == null) {
             res = ModelFactory.createDefaultModel();
         }
-        Model model = MapJenaException.notNull(query.getSPINQuery().getModel(), "Unattached query: " + query);
+        runQueryOnInstance(factory, query, instance, factory.getDataset(model), res.getGraph()::add);
+        return res;
+    }
+
+    /**
+     * Runs a given Jena Query on a given individual over the specified {@link Dataset},
+     * which must wrap the query model as the default graph.
+     * The dataset {@link org.apache.jena.sparql.util.Context Context} is passed into the query execution.
+     * The constructed triples are streamed into the {@code sink} as they are produced,
+     * without an intermediate model; they are not distinct.
+     *
+     * @param factory  {@link ARQFactory}, not {@code null}
+     * @param query    {@link QueryWrapper} command to run, not {@code null}
+     * @param instance {@link Resource} individual to infer, not {@code null}
+     * @param dataset  {@link Dataset} to run the query against, not {@code null}
+     * @param sink     {@code Consumer} to accept new {@link Triple}s, not {@code null}
+     */
+    public static void runQueryOnInstance(ARQFactory factory,
+                                          QueryWrapper query,
+                                          Resource instance,
+                                          Dataset dataset,
+                                          Consumer<Triple> sink) {
         Map<String, RDFNode> initialBindings = query.getTemplateBinding();
         QuerySolutionMap bindings = new QuerySolutionMap();
         if (initialBindings != null) {
             initialBindings.forEach(bindings::add);
         }
         bindings.add(SPIN.THIS_VAR_NAME, instance);
-        return factory.createQueryExecution(query.getQuery(), model, bindings).execConstruct(res);
+        try (QueryExecution exec = factory.createQueryExecution(query.getQuery(), dataset, bindings)) {
+            exec.execConstructTriples().forEachRemaining(sink);
+        }
     }
 
 }
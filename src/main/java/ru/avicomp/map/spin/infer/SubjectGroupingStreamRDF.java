@@ -0,0 +1,96 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.spin.infer;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * A {@link StreamRDF} that collects consecutive triples with the same subject (i.e. a description of a resource)
+ * into the buffer graph and calls the handler each time the subject changes and at the end of the stream.
+ * The handler must clear the buffer after processing.
+ * Quads are treated as triples, the graph name is ignored.
+ * Prefixes and base are not interesting for the inference and are skipped.
+ * <p>
+ * Created by @ssz on 27.06.2019.
+ */
+@SuppressWarnings("WeakerAccess")
+public class SubjectGroupingStreamRDF implements StreamRDF {
+    private final Graph buffer;
+    private final Consumer<Node> handler;
+    private Node subject;
+
+    /**
+     * Creates a stream.
+     *
+     * @param buffer  {@link Graph} to collect a single description, not {@code null}
+     * @param handler {@code Consumer} that accepts the subject of the collected description, not {@code null}
+     */
+    public SubjectGroupingStreamRDF(Graph buffer, Consumer<Node> handler) {
+        this.buffer = Objects.requireNonNull(buffer);
+        this.handler = Objects.requireNonNull(handler);
+    }
+
+    @Override
+    public void start() {
+        subject = null;
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        Node s = triple.getSubject();
+        if (subject != null && !subject.equals(s)) {
+            flush();
+        }
+        subject = s;
+        buffer.add(triple);
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        triple(quad.asTriple());
+    }
+
+    @Override
+    public void base(String base) {
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+    }
+
+    @Override
+    public void finish() {
+        if (subject != null) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        Node s = subject;
+        subject = null;
+        handler.accept(s);
+    }
+}
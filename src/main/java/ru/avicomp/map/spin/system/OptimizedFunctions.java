@@ -22,10 +22,13 @@ import org.apache.jena.sparql.function.Function;
 import org.topbraid.spin.vocabulary.SPINMAP;
 import org.topbraid.spin.vocabulary.SPL;
 import ru.avicomp.map.spin.functions.avc.UUID;
+import ru.avicomp.map.spin.functions.avc.currentIndividual;
 import ru.avicomp.map.spin.functions.avc.objectWithFilter;
 import ru.avicomp.map.spin.functions.spinmap.targetResource;
-import ru.avicomp.map.spin.functions.spinmapl.concatWithSeparator;
+import ru.avicomp.map.spin.functions.spinmapl.*;
+import ru.avicomp.map.spin.functions.spl.hasValue;
 import ru.avicomp.map.spin.functions.spl.object;
+import ru.avicomp.map.spin.functions.spl.objectCount;
 import ru.avicomp.map.spin.vocabulary.AVC;
 import ru.avicomp.map.spin.vocabulary.SPINMAPL;
 
@@ -45,8 +48,19 @@ class OptimizedFunctions {
                     put(SPINMAP.targetResource.getURI(), targetResource.class);
                     put(SPINMAPL.concatWithSeparator.getURI(), concatWithSeparator.class);
                     put(SPL.object.getURI(), object.class);
+                    put(SPL.objectCount.getURI(), objectCount.class);
+                    put(SPL.hasValue.getURI(), hasValue.class);
+                    put(SPINMAPL.buildURI1.getURI(), buildURI1.class);
+                    put(SPINMAPL.buildURI2.getURI(), buildURI2.class);
+                    put(SPINMAPL.buildURI3.getURI(), buildURI3.class);
+                    put(SPINMAPL.buildURI4.getURI(), buildURI4.class);
+                    put(SPINMAPL.buildURI5.getURI(), buildURI5.class);
+                    put(SPINMAPL.composeURI.getURI(), composeURI.class);
+                    put(SPINMAPL.changeNamespace.getURI(), changeNamespace.class);
                     put(AVC.objectWithFilter.getURI(), objectWithFilter.class);
                     put(AVC.UUID.getURI(), UUID.class);
+                    // no avc:optimize, the SPARQL body does not work for nested calls:
+                    put(AVC.currentIndividual.getURI(), currentIndividual.class);
                 }
             });
 }
@@ -144,7 +144,7 @@ public class AVC {
      * This is an analogue of {@code ?this} variable,
      * but which is intended to work for any link from a function-chain and in all circumstances.
      *
-     * @see ru.avicomp.map.spin.infer.InferenceEngineImpl.ProcessedQuery#run(Resource) explanation.
+     * @see ru.avicomp.map.spin.functions.avc.currentIndividual
      * @see #MagicFunctions
      */
     public static final Resource currentIndividual = resource("currentIndividual");
@@ -185,6 +185,15 @@ public class AVC {
      */
     public static final Property optimize = property("optimize");
 
+    /**
+     * A property-indicator to tell that the result of SPARQL-based function depends only on its arguments.
+     * The results of such a function are memorized, the same as for functions marked with {@code spin:cachable}.
+     * The right part of a statement with this predicate must be a {@code xsd:boolean} literal.
+     *
+     * @see ru.avicomp.map.spin.MapARQFactory#isDeterministic(org.topbraid.spin.model.Function)
+     */
+    public static final Property deterministic = property("deterministic");
+
     /**
      * Expression predicate to use in conditional templates as a filter.
      */
@@ -29,6 +29,7 @@ import ru.avicomp.ontapi.jena.vocabulary.OWL;
 import ru.avicomp.ontapi.jena.vocabulary.RDF;
 
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -294,6 +295,34 @@ public class ModelUtils {
         return Iter.create(() -> JenaUtil.getAllSuperClassesStar(clazz).iterator());
     }
 
+    /**
+     * Returns a set consisting of a given class and all its subclasses.
+     * Similar to {@code ^rdfs:subClassOf*}.
+     *
+     * @param clazz {@link Resource} the class to return with its subclasses
+     * @return an {@link ExtendedIterator} of class resources
+     */
+    public static ExtendedIterator<Resource> listSubClasses(Resource clazz) {
+        return Iter.create(() -> JenaUtil.getAllSubClassesStar(clazz).iterator());
+    }
+
+    /**
+     * Lists all class-types of the given individual, i.e. the direct classes together with their superclasses.
+     * Similar to {@code rdf:type/rdfs:subClassOf*}.
+     * Unlike the {@link #listDirectClasses(Resource)} method,
+     * this one needs the model of the individual to contain the class hierarchy.
+     *
+     * @param individual {@link Resource}, individual, not {@code null}
+     * @return an {@link ExtendedIterator} of class resources
+     */
+    public static ExtendedIterator<Resource> listClasses(Resource individual) {
+        return Iter.create(() -> {
+            Set<Resource> res = new LinkedHashSet<>();
+            listDirectClasses(individual).forEachRemaining(c -> res.addAll(JenaUtil.getAllSuperClassesStar(c)));
+            return res.iterator();
+        });
+    }
+
     /**
      * Checks whether a given Resource is an instance of a given type, or a subclass thereof.
      * Make sure that the {@code expectedType} parameter is associated
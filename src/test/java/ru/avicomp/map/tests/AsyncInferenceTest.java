@@ -0,0 +1,152 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.graph.Factory;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.compose.Union;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.avicomp.map.MapManager;
+import ru.avicomp.map.Managers;
+import ru.avicomp.map.OWLMapManager;
+import ru.avicomp.map.utils.BaseGraphListener;
+import ru.avicomp.ontapi.jena.vocabulary.OWL;
+import ru.avicomp.ontapi.jena.vocabulary.RDF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * To test the asynchronous inference
+ * (see {@link MapManager.InferenceEngine#runAsync(Graph, Graph, Executor)}).
+ */
+public class AsyncInferenceTest {
+    private static final int INDIVIDUALS_NUM = 456;
+
+    @Test
+    public void testRunAsync() throws Exception {
+        MapManager manager = Managers.createMapManager();
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(manager, INDIVIDUALS_NUM);
+
+        Graph expected = Factory.createGraphMem();
+        manager.getInferenceEngine(s.map).run(s.data, expected);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Graph actual = Factory.createGraphMem();
+            MapManager.InferenceTask task = manager.getInferenceEngine(s.map).runAsync(s.data, actual, executor);
+            task.future().get(1, TimeUnit.MINUTES);
+            Assert.assertTrue(expected.isIsomorphicWith(actual));
+            Assert.assertEquals(INDIVIDUALS_NUM, task.total());
+            Assert.assertTrue(task.processed() >= task.total());
+            Assert.assertTrue(task.triples() >= actual.size());
+            Assert.assertNotNull(task.currentRule());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRunAsyncOWLManager() throws Exception {
+        OWLMapManager manager = Managers.createOWLMapManager();
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(manager, manager, INDIVIDUALS_NUM);
+        List<Triple> schema = s.target.getBaseGraph().find(Triple.ANY).toList();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (MapManager.InferenceEngine engine : Arrays.asList(manager.getInferenceEngine(s.map),
+                    manager.getPreparedInferenceEngine(s.map), manager.getIncrementalInferenceEngine(s.map))) {
+                s.target.getBaseGraph().clear();
+                schema.forEach(s.target.getBaseGraph()::add);
+                // the target belongs to the manager, so the job takes the write lock on the executor thread:
+                MapManager.InferenceTask task = engine.runAsync(s.data, s.target.getBaseGraph(), executor);
+                task.future().get(1, TimeUnit.MINUTES);
+                Assert.assertEquals(INDIVIDUALS_NUM, task.total());
+                InfrPerfTester.validate(s.target, INDIVIDUALS_NUM);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTotalWithSubClass() {
+        String ns = "http://source.avicomp.ru#";
+        MapManager manager = Managers.createMapManager();
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(manager, INDIVIDUALS_NUM);
+        Union union = (Union) s.source.getBaseGraph();
+        Model schema = ModelFactory.createModelForGraph(union.getL());
+        Resource subClass = schema.createResource(ns + "SubClassSource", OWL.Class)
+                .addProperty(RDFS.subClassOf, schema.getResource(ns + "ClassSource"));
+        ModelFactory.createModelForGraph(union.getR())
+                .createResource(ns + "Individual-" + (INDIVIDUALS_NUM + 1), OWL.NamedIndividual)
+                .addProperty(RDF.type, subClass);
+
+        List<Runnable> jobs = new ArrayList<>();
+        MapManager.InferenceTask task = manager.getInferenceEngine(s.map)
+                .runAsync(union, Factory.createGraphMem(), jobs::add);
+        Assert.assertEquals(1, jobs.size());
+        jobs.get(0).run();
+
+        Assert.assertTrue(task.future().isDone());
+        // the individual of the subclass is counted as it is processed:
+        Assert.assertEquals(INDIVIDUALS_NUM + 1, task.total());
+        Assert.assertTrue(task.processed() >= task.total());
+    }
+
+    @Test
+    public void testCancel() {
+        MapManager manager = Managers.createMapManager();
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(manager, INDIVIDUALS_NUM);
+
+        Graph actual = Factory.createGraphMem();
+        List<Runnable> jobs = new ArrayList<>();
+        MapManager.InferenceTask task = manager.getInferenceEngine(s.map).runAsync(s.data, actual, jobs::add);
+        AtomicReference<Triple> first = new AtomicReference<>();
+        // cancel the task as soon as something is written:
+        actual.getEventManager().register(new BaseGraphListener() {
+            @Override
+            protected void addEvent(Triple t) {
+                if (first.compareAndSet(null, t)) {
+                    task.cancel();
+                }
+            }
+
+            @Override
+            protected void deleteEvent(Triple t) {
+            }
+        });
+        Assert.assertEquals(1, jobs.size());
+        jobs.get(0).run();
+
+        Assert.assertTrue(task.future().isCancelled());
+        Assert.assertNotNull(first.get());
+        Assert.assertTrue(task.processed() < INDIVIDUALS_NUM);
+        Assert.assertTrue(actual.size() < INDIVIDUALS_NUM);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.graph.Graph;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.avicomp.map.MapModel;
+import ru.avicomp.map.spin.MapConfigImpl;
+import ru.avicomp.map.tests.maps.SelfMapTest;
+import ru.avicomp.map.utils.TestUtils;
+import ru.avicomp.ontapi.jena.model.OntGraphModel;
+
+/**
+ * To test the batch inference mode.
+ *
+ * @see MapConfigImpl#inferenceBatchSize()
+ */
+public class BatchInferenceTest {
+    private static final int INDIVIDUALS_NUM = 1_234;
+    private static final int BATCH_SIZE = 100;
+
+    @Test
+    public void testBatchInferenceMatchesSequential() {
+        Graph expected = InfrPerfTester.runInference(MapConfigImpl.INSTANCE, INDIVIDUALS_NUM);
+        Graph actual = InfrPerfTester.runInference(MapConfigImpl.INSTANCE.setInferenceBatchSize(BATCH_SIZE),
+                INDIVIDUALS_NUM);
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertTrue(expected.isIsomorphicWith(actual));
+    }
+
+    @Test
+    public void testBatchInferenceWithoutOptimization() {
+        // all rules are executed as SPARQL queries with VALUES block
+        Graph expected = InfrPerfTester.runInference(MapConfigImpl.INSTANCE.setAllOptimizations(false),
+                INDIVIDUALS_NUM);
+        Graph actual = InfrPerfTester.runInference(MapConfigImpl.INSTANCE.setAllOptimizations(false)
+                .setInferenceBatchSize(BATCH_SIZE), INDIVIDUALS_NUM);
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertTrue(expected.isIsomorphicWith(actual));
+    }
+
+    @Test
+    public void testParallelBatchInference() {
+        Graph expected = InfrPerfTester.runInference(MapConfigImpl.INSTANCE, INDIVIDUALS_NUM);
+        Graph actual = InfrPerfTester.runInference(MapConfigImpl.INSTANCE.setInferenceBatchSize(BATCH_SIZE)
+                .setInferenceParallelism(3), INDIVIDUALS_NUM);
+        Assert.assertTrue(expected.isIsomorphicWith(actual));
+    }
+
+    @Test
+    public void testBatchInferenceWithCurrentIndividual() {
+        OntGraphModel s = SelfMapTest.createSourceModel(INDIVIDUALS_NUM);
+        OntGraphModel t = SelfMapTest.createTargetModel();
+        long expected = s.individuals().filter(i -> i.getURI().contains("-1")).count();
+        MapModel m = SelfMapTest.composeIfMapping(TestUtils.withConfig(MapConfigImpl.INSTANCE
+                .setInferenceBatchSize(BATCH_SIZE)), s, t);
+        m.runInference(s.getGraph(), t.getGraph());
+        Assert.assertEquals(expected, t.individuals().count());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongBatchSize() {
+        MapConfigImpl.INSTANCE.setInferenceBatchSize(-1);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2018, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.avicomp.map.MapJenaException;
+import ru.avicomp.map.MapManager;
+import ru.avicomp.map.Managers;
+import ru.avicomp.ontapi.jena.vocabulary.OWL;
+import ru.avicomp.ontapi.jena.vocabulary.RDF;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * To test {@link MapManager.IncrementalInferenceEngine}.
+ */
+public class IncrementalInferenceTest {
+    private static final int INDIVIDUALS_NUM = 123;
+    private static final String NS = "http://source.avicomp.ru#";
+    private static final String VALUE = "val-2-1, val-1-1";
+
+    @Test
+    public void testUpdateViaListener() {
+        InfrPerfTester.Scenario actual = scenario();
+        MapManager.IncrementalInferenceEngine engine = actual.manager.getIncrementalInferenceEngine(actual.map);
+        engine.run(actual.data, actual.target.getBaseGraph());
+        InfrPerfTester.validate(actual.target, INDIVIDUALS_NUM);
+
+        modify(actual.data);
+        engine.update();
+        engine.close();
+
+        InfrPerfTester.Scenario expected = scenario();
+        modify(expected.data);
+        expected.manager.getInferenceEngine(expected.map).run(expected.data, expected.target.getBaseGraph());
+
+        Assert.assertEquals(expected.target.getBaseGraph().size(), actual.target.getBaseGraph().size());
+        Assert.assertTrue(expected.target.getBaseGraph().isIsomorphicWith(actual.target.getBaseGraph()));
+    }
+
+    @Test
+    public void testUpdateAfterRunAsync() throws Exception {
+        InfrPerfTester.Scenario actual = scenario();
+        MapManager.IncrementalInferenceEngine engine = actual.manager.getIncrementalInferenceEngine(actual.map);
+        List<Runnable> jobs = new ArrayList<>();
+        MapManager.InferenceTask task = engine.runAsync(actual.data, actual.target.getBaseGraph(), jobs::add);
+        Assert.assertEquals(1, jobs.size());
+        jobs.get(0).run();
+        task.future().get();
+        Assert.assertEquals(INDIVIDUALS_NUM, task.total());
+        Assert.assertTrue(task.processed() >= task.total());
+        InfrPerfTester.validate(actual.target, INDIVIDUALS_NUM);
+
+        // the async run leaves the engine ready to update through the listener:
+        modify(actual.data);
+        engine.update();
+        engine.close();
+
+        InfrPerfTester.Scenario expected = scenario();
+        modify(expected.data);
+        expected.manager.getInferenceEngine(expected.map).run(expected.data, expected.target.getBaseGraph());
+        Assert.assertTrue(expected.target.getBaseGraph().isIsomorphicWith(actual.target.getBaseGraph()));
+    }
+
+    @Test
+    public void testUpdateWithExplicitChanges() {
+        InfrPerfTester.Scenario s = scenario();
+        Graph target = s.target.getBaseGraph();
+        MapManager.IncrementalInferenceEngine engine = s.manager.getIncrementalInferenceEngine(s.map);
+        engine.run(s.data, target);
+        engine.close();
+        long size = target.size();
+
+        Model m = ModelFactory.createModelForGraph(s.data);
+        Triple removed = m.getResource(NS + "Individual-1")
+                .getProperty(m.getProperty(NS + "sourceProperty1")).asTriple();
+        // closed engine is not able to update:
+        try {
+            engine.update(Collections.emptySet(), Collections.singleton(removed));
+            Assert.fail("Possible to update a closed engine");
+        } catch (MapJenaException.IllegalState e) {
+            // expected
+        }
+
+        engine.run(s.data, target);
+        s.data.delete(removed);
+        engine.update(Collections.emptySet(), Collections.singleton(removed));
+        Assert.assertFalse(s.target.contains(null, null, VALUE));
+        long changed = target.size();
+        // nothing has changed:
+        engine.update(Collections.emptySet(), Collections.emptySet());
+        Assert.assertEquals(changed, target.size());
+
+        s.data.add(removed);
+        engine.update(Collections.singleton(removed), Collections.emptySet());
+        Assert.assertEquals(size, target.size());
+        InfrPerfTester.validate(s.target, INDIVIDUALS_NUM);
+    }
+
+    @Test
+    public void testUpdateSubClassOf() {
+        InfrPerfTester.Scenario s = scenario();
+        Graph target = s.target.getBaseGraph();
+        Model m = ModelFactory.createModelForGraph(s.data);
+        Resource clazz = m.getResource(NS + "ClassSource");
+        Resource subClass = m.createResource(NS + "SubClassSource", OWL.Class);
+        m.createResource(NS + "Individual-" + (INDIVIDUALS_NUM + 1), OWL.NamedIndividual)
+                .addProperty(RDF.type, subClass)
+                .addProperty(m.getProperty(NS + "sourceProperty1"), "val-1-" + (INDIVIDUALS_NUM + 1))
+                .addProperty(m.getProperty(NS + "sourceProperty2"), "val-2-" + (INDIVIDUALS_NUM + 1));
+        MapManager.IncrementalInferenceEngine engine = s.manager.getIncrementalInferenceEngine(s.map);
+        engine.run(s.data, target);
+        InfrPerfTester.validate(s.target, INDIVIDUALS_NUM);
+        long size = target.size();
+
+        // the individual of the subclass is dispatched on the rules of the superclass:
+        m.add(subClass, RDFS.subClassOf, clazz);
+        engine.update();
+        InfrPerfTester.validate(s.target, INDIVIDUALS_NUM + 1);
+
+        m.remove(subClass, RDFS.subClassOf, clazz);
+        engine.update();
+        engine.close();
+        Assert.assertEquals(size, target.size());
+        InfrPerfTester.validate(s.target, INDIVIDUALS_NUM);
+    }
+
+    /**
+     * Changes a value, removes an individual and adds a new one.
+     *
+     * @param data {@link Graph}
+     */
+    private static void modify(Graph data) {
+        Model m = ModelFactory.createModelForGraph(data);
+        Property p1 = m.getProperty(NS + "sourceProperty1");
+        Property p2 = m.getProperty(NS + "sourceProperty2");
+        Resource clazz = m.getResource(NS + "ClassSource");
+        m.getResource(NS + "Individual-1").removeAll(p1).addProperty(p1, "changed");
+        m.getResource(NS + "Individual-2").removeAll(RDF.type);
+        m.createResource(NS + "Individual-" + (INDIVIDUALS_NUM + 1), OWL.NamedIndividual)
+                .addProperty(RDF.type, clazz)
+                .addProperty(p1, "new-1")
+                .addProperty(p2, "new-2");
+    }
+
+    private static InfrPerfTester.Scenario scenario() {
+        return new InfrPerfTester.Scenario(Managers.createMapManager(), INDIVIDUALS_NUM);
+    }
+}
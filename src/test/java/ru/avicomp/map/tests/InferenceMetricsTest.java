@@ -0,0 +1,144 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.graph.Factory;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.avicomp.map.MapJenaException;
+import ru.avicomp.map.MapManager;
+import ru.avicomp.map.OWLMapManager;
+import ru.avicomp.map.spin.MapConfigImpl;
+import ru.avicomp.map.spin.infer.InferenceMetrics;
+import ru.avicomp.map.utils.TestUtils;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * To test the inference metrics.
+ *
+ * @see MapConfigImpl#inferenceMetrics()
+ * @see MapManager.InferenceEngine#getReport()
+ */
+public class InferenceMetricsTest {
+    private static final int INDIVIDUALS_NUM = 321;
+
+    @Test
+    public void testMetricsEnabled() {
+        MapManager.InferenceReport report = runInference(MapConfigImpl.INSTANCE.setInferenceMetrics(true));
+        List<MapManager.Metric> rules = report.rules().collect(Collectors.toList());
+        Assert.assertFalse(rules.isEmpty());
+        rules.forEach(m -> {
+            Assert.assertNotNull(m.name());
+            Assert.assertTrue(m.count() > 0);
+            Assert.assertTrue(m.totalNanos() >= m.percentileNanos(0.5));
+            Assert.assertTrue(m.percentileNanos(0.5) <= m.percentileNanos(1));
+        });
+        Assert.assertTrue(rules.stream().mapToLong(MapManager.Metric::triples).sum() > INDIVIDUALS_NUM);
+        report.functions().forEach(m -> {
+            Assert.assertTrue(m.count() > 0);
+            Assert.assertEquals(0, m.triples());
+        });
+    }
+
+    @Test
+    public void testOWLManagerReport() {
+        OWLMapManager m = TestUtils.withOWLConfig(MapConfigImpl.INSTANCE.setInferenceMetrics(true));
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(m, m, INDIVIDUALS_NUM);
+
+        MapManager.InferenceEngine engine = m.getInferenceEngine(s.map);
+        engine.run(s.data, s.target.getBaseGraph());
+        InfrPerfTester.validate(s.target, INDIVIDUALS_NUM);
+        Assert.assertTrue(triples(engine.getReport()) > INDIVIDUALS_NUM);
+    }
+
+    @Test
+    public void testMetricsDisabled() {
+        MapManager.InferenceReport report = runInference(MapConfigImpl.INSTANCE);
+        Assert.assertEquals(0, report.rules().count());
+        Assert.assertEquals(0, report.functions().count());
+    }
+
+    @Test
+    public void testReportPerRun() throws Exception {
+        MapManager m = TestUtils.withConfig(MapConfigImpl.INSTANCE.setInferenceMetrics(true));
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(m, INDIVIDUALS_NUM);
+        Graph single = Factory.createGraphMem();
+        s.data.find(NodeFactory.createURI("http://source.avicomp.ru#Individual-1"), Node.ANY, Node.ANY)
+                .forEachRemaining(single::add);
+
+        MapManager.InferenceEngine engine = m.getInferenceEngine(s.map);
+        engine.run(s.data, Factory.createGraphMem());
+        long all = triples(engine.getReport());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MapManager.InferenceTask task = engine.runAsync(single, Factory.createGraphMem(), executor);
+            task.future().get();
+            long one = triples(task.report());
+            Assert.assertTrue(one > 0 && one < all);
+            // the run in another thread does not overwrite the report of this thread:
+            Assert.assertEquals(all, triples(engine.getReport()));
+            // the executor thread does not keep the report, it is held by the task only:
+            try {
+                executor.submit(engine::getReport).get();
+                Assert.fail("Report is still bound to the executor thread");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof MapJenaException.IllegalState);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        InferenceMetrics metrics = new InferenceMetrics();
+        for (int i = 1; i <= 1000; i++) {
+            metrics.functionExecuted("x", i);
+        }
+        MapManager.Metric m = metrics.functions().findFirst().orElseThrow(AssertionError::new);
+        Assert.assertEquals(1000, m.count());
+        Assert.assertEquals(500_500, m.totalNanos());
+        long p50 = m.percentileNanos(0.5);
+        Assert.assertTrue(String.valueOf(p50), p50 >= 500 && p50 <= 625);
+        long p100 = m.percentileNanos(1);
+        Assert.assertTrue(String.valueOf(p100), p100 >= 1000 && p100 <= 1250);
+    }
+
+    private static MapManager.InferenceReport runInference(MapConfigImpl config) {
+        MapManager m = TestUtils.withConfig(config);
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(m, INDIVIDUALS_NUM);
+
+        MapManager.InferenceEngine engine = m.getInferenceEngine(s.map);
+        engine.run(s.data, s.target.getBaseGraph());
+        InfrPerfTester.validate(s.target, INDIVIDUALS_NUM);
+        return engine.getReport();
+    }
+
+    private static long triples(MapManager.InferenceReport report) {
+        return report.rules().mapToLong(MapManager.Metric::triples).sum();
+    }
+}
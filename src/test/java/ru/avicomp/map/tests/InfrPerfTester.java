@@ -48,6 +48,8 @@ import ru.avicomp.ontapi.jena.model.OntNDP;
 import ru.avicomp.ontapi.jena.vocabulary.OWL;
 import ru.avicomp.ontapi.jena.vocabulary.XSD;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -97,25 +99,58 @@ public class InfrPerfTester {
 
     @Test
     public void testInference() {
-        OWLMapManager m = Managers.createOWLMapManager();
+        // the inference is sequential, since only the allocations of the calling thread are measured:
+        OWLMapManager m = TestUtils.withOWLConfig(MapConfigImpl.INSTANCE.setInferenceParallelism(1));
         testInference(m, m);
     }
 
     @Test
     public void testInferenceNoOptimization() {
         OntologyManager m1 = OntManagers.createONT();
-        MapManager m2 = TestUtils.withConfig(MapConfigImpl.INSTANCE.setAllOptimizations(false));
+        // sequential, see #testInference():
+        MapManager m2 = TestUtils.withConfig(MapConfigImpl.INSTANCE.setAllOptimizations(false)
+                .setInferenceParallelism(1));
         testInference(m1, m2);
     }
 
     public void testInference(OntologyManager ontologyManager, MapManager mappingManager) {
-        OntGraphModel target = createTargetModel(ontologyManager);
-        OntGraphModel source = createSourceModel(ontologyManager, individualsNum);
-        MapModel map = composeMapping(mappingManager, source, target);
-        Graph data = ((Union) source.getBaseGraph()).getR();
+        Scenario s = new Scenario(ontologyManager, mappingManager, individualsNum);
 
-        map.runInference(data, target.getBaseGraph());
-        validate(target, individualsNum);
+        long bytes = allocatedBytes();
+        s.map.runInference(s.data, s.target.getBaseGraph());
+        if (bytes >= 0) {
+            LOGGER.info("Allocated while inference: {} MB.", (allocatedBytes() - bytes) / (1024 * 1024));
+        }
+        validate(s.target, individualsNum);
+    }
+
+    /**
+     * Runs the inference for a fresh {@link Scenario} with the given configuration and validates the result.
+     *
+     * @param config {@link MapConfigImpl}
+     * @param num    long, the number of source individuals
+     * @return {@link Graph}, the inferred target
+     */
+    public static Graph runInference(MapConfigImpl config, long num) {
+        Scenario s = new Scenario(TestUtils.withConfig(config), num);
+        s.map.runInference(s.data, s.target.getBaseGraph());
+        validate(s.target, num);
+        return s.target.getBaseGraph();
+    }
+
+    /**
+     * Returns the total amount of memory in bytes allocated by the current thread.
+     * The allocations of other threads (e.g. of the parallel inference workers) are not included,
+     * so the measurement makes sense only for a sequential run.
+     *
+     * @return long, or {@code -1} if the JVM does not support such a measurement
+     */
+    public static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
     }
 
     public static void validate(OntGraphModel target, long c) {
@@ -204,5 +239,27 @@ public class InfrPerfTester {
         return res;
     }
 
+    /**
+     * The source and target models with the mapping between them.
+     * The source data, i.e. the individuals without the schema, is also available as a separate graph.
+     */
+    public static class Scenario {
+        public final MapManager manager;
+        public final OntGraphModel source;
+        public final OntGraphModel target;
+        public final MapModel map;
+        public final Graph data;
+
+        public Scenario(MapManager manager, long num) {
+            this(OntManagers.createONT(), manager, num);
+        }
 
+        public Scenario(OntologyManager ontologies, MapManager manager, long num) {
+            this.manager = manager;
+            this.target = createTargetModel(ontologies);
+            this.source = createSourceModel(ontologies, num);
+            this.map = composeMapping(manager, source, target);
+            this.data = ((Union) source.getBaseGraph()).getR();
+        }
+    }
 }
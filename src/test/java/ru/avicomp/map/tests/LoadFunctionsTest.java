@@ -19,9 +19,25 @@
 package ru.avicomp.map.tests;
 
 import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.graph.*;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.sparql.function.FunctionFactory;
 import org.apache.jena.sparql.function.FunctionRegistry;
 import org.apache.jena.sparql.pfunction.PropertyFunctionRegistry;
+import org.apache.jena.sparql.util.Context;
 import org.apache.jena.vocabulary.RDFS;
 import org.apache.jena.vocabulary.XSD;
 import org.junit.Assert;
@@ -33,13 +49,22 @@ import org.topbraid.spin.vocabulary.SPIN;
 import org.topbraid.spin.vocabulary.SPL;
 import ru.avicomp.map.Managers;
 import ru.avicomp.map.MapFunction;
+import ru.avicomp.map.MapJenaException;
 import ru.avicomp.map.MapManager;
 import ru.avicomp.map.MapModel;
+import ru.avicomp.map.spin.MapARQFactory;
+import ru.avicomp.map.spin.MapManagerImpl;
 import ru.avicomp.map.spin.QueryHelper;
+import ru.avicomp.map.spin.SpinModelConfig;
+import ru.avicomp.map.spin.vocabulary.AVC;
+import ru.avicomp.map.spin.vocabulary.SPIF;
+import ru.avicomp.map.spin.vocabulary.SPINMAPL;
 import ru.avicomp.map.utils.TestUtils;
 import ru.avicomp.ontapi.jena.model.OntGraphModel;
 import ru.avicomp.ontapi.jena.vocabulary.RDF;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -128,6 +153,322 @@ public class LoadFunctionsTest {
         }
     }
 
+    @Test
+    public void testDeterministicFunctionResults() {
+        String uri = "http://test.func.com#countTypes";
+        MapManagerImpl manager = (MapManagerImpl) Managers.createMapManager();
+        OntGraphModel m = TestUtils.createMapModel("http://test.func.com");
+        // not really deterministic, to see the memorized result:
+        m.createResource(uri)
+                .addProperty(RDF.type, SPIN.Function)
+                .addProperty(RDFS.subClassOf, SPL.StringFunctions)
+                .addProperty(SPIN.returnType, XSD.integer)
+                .addLiteral(AVC.deterministic, true)
+                .addProperty(SPIN.constraint, m.createResource()
+                        .addProperty(RDF.type, SPL.Argument)
+                        .addProperty(SPL.predicate, SP.arg1)
+                        .addProperty(SPL.valueType, RDFS.Resource))
+                .addProperty(SPIN.body, QueryHelper.parseQuery("SELECT (COUNT(?t) AS ?result)\n" +
+                        "WHERE {\n" +
+                        "    ?arg1 a ?t .\n" +
+                        "}", m));
+        manager.asMapModel(m);
+        FunctionFactory factory = manager.getFactory().getFunctionRegistry().get(uri);
+        Assert.assertTrue(factory instanceof MapARQFactory.ARQFunction);
+        MapARQFactory.ARQFunction function = (MapARQFactory.ARQFunction) factory;
+        Assert.assertTrue(function.isDeterministic());
+
+        Graph data = Factory.createGraphMem();
+        Node x = NodeFactory.createURI("http://test.com#x");
+        data.add(Triple.create(x, RDF.type.asNode(), NodeFactory.createURI("http://test.com#A")));
+        Context context = manager.getFactory().createExecutionContext();
+        FunctionEnv env = new ExecutionContext(context, data, DatasetGraphFactory.wrap(data), QC.getFactory(context));
+        ExprList args = new ExprList(NodeValue.makeNode(x));
+
+        Assert.assertEquals(1, function.exec(BindingFactory.binding(), args, uri, env).getInteger().intValue());
+        data.add(Triple.create(x, RDF.type.asNode(), NodeFactory.createURI("http://test.com#B")));
+        Assert.assertEquals(1, function.exec(BindingFactory.binding(), args, uri, env).getInteger().intValue());
+        // any change in the library drops memorized results:
+        manager.asMapModel(makeSingleFunctionModel());
+        Assert.assertEquals(2, function.exec(BindingFactory.binding(), args, uri, env).getInteger().intValue());
+    }
+
+    @Test
+    public void testDeterministicFunctionKey() {
+        String withoutThis = "http://test.func.com#countTypes";
+        String withThis = "http://test.func.com#countOtherTypes";
+        MapManagerImpl manager = (MapManagerImpl) Managers.createMapManager();
+        OntGraphModel m = TestUtils.createMapModel("http://test.func.com");
+        // not really deterministic, to see the memorized results:
+        createDeterministicFunction(m, withoutThis, "SELECT (COUNT(?t) AS ?result)\n" +
+                "WHERE {\n" +
+                "    ?arg1 a ?t .\n" +
+                "}");
+        createDeterministicFunction(m, withThis, "SELECT (COUNT(?t) AS ?result)\n" +
+                "WHERE {\n" +
+                "    ?arg1 a ?t .\n" +
+                "    FILTER (?t != ?this) .\n" +
+                "}");
+        manager.asMapModel(m);
+        FunctionRegistry registry = manager.getFactory().getFunctionRegistry();
+        MapARQFactory.ARQFunction f1 = (MapARQFactory.ARQFunction) registry.get(withoutThis);
+        MapARQFactory.ARQFunction f2 = (MapARQFactory.ARQFunction) registry.get(withThis);
+        Assert.assertFalse(f1.dependsOnThis());
+        Assert.assertTrue(f2.dependsOnThis());
+        // a builtin string helper:
+        MapARQFactory.ARQFunction localName = (MapARQFactory.ARQFunction) registry.get(SPIF.localName.getURI());
+        Assert.assertTrue(localName.isDeterministic());
+        Assert.assertFalse(localName.dependsOnThis());
+
+        Graph data = Factory.createGraphMem();
+        Node x = NodeFactory.createURI("http://test.com#x");
+        data.add(Triple.create(x, RDF.type.asNode(), NodeFactory.createURI("http://test.com#A")));
+        Context context = manager.getFactory().createExecutionContext();
+        FunctionEnv env = new ExecutionContext(context, data, DatasetGraphFactory.wrap(data), QC.getFactory(context));
+        ExprList args = new ExprList(NodeValue.makeNode(x));
+        Var thisVar = Var.alloc(SPIN.THIS_VAR_NAME);
+        Binding i1 = BindingFactory.binding(thisVar, NodeFactory.createURI("http://test.com#i1"));
+        Binding i2 = BindingFactory.binding(thisVar, NodeFactory.createURI("http://test.com#i2"));
+
+        Assert.assertEquals(1, f1.exec(i1, args, withoutThis, env).getInteger().intValue());
+        Assert.assertEquals(1, f2.exec(i1, args, withThis, env).getInteger().intValue());
+        data.add(Triple.create(x, RDF.type.asNode(), NodeFactory.createURI("http://test.com#B")));
+        // the same arguments, but another individual:
+        Assert.assertEquals(1, f1.exec(i2, args, withoutThis, env).getInteger().intValue());
+        Assert.assertEquals(2, f2.exec(i2, args, withThis, env).getInteger().intValue());
+    }
+
+    @Test
+    public void testReplaceFunction() {
+        String count = "http://test.func.com#countTypes";
+        String wrapper = "http://test.func.com#wrapCountTypes";
+        String other = "http://test.func.com#countSubjects";
+        MapManagerImpl manager = (MapManagerImpl) Managers.createMapManager();
+        OntGraphModel m = TestUtils.createMapModel("http://test.func.com");
+        createDeterministicFunction(m, count, "SELECT (COUNT(?t) AS ?result)\n" +
+                "WHERE {\n" +
+                "    ?arg1 a ?t .\n" +
+                "}");
+        createDeterministicFunction(m, wrapper, "SELECT ?result\n" +
+                "WHERE {\n" +
+                "    BIND (<" + count + ">(?arg1) AS ?result) .\n" +
+                "}");
+        createDeterministicFunction(m, other, "SELECT (COUNT(?s) AS ?result)\n" +
+                "WHERE {\n" +
+                "    ?s a ?arg1 .\n" +
+                "}");
+        manager.asMapModel(m);
+        FunctionRegistry registry = manager.getFactory().getFunctionRegistry();
+        MapARQFactory.ARQFunction f1 = (MapARQFactory.ARQFunction) registry.get(wrapper);
+        MapARQFactory.ARQFunction f2 = (MapARQFactory.ARQFunction) registry.get(other);
+
+        Graph data = Factory.createGraphMem();
+        Node x = NodeFactory.createURI("http://test.com#x");
+        Node a = NodeFactory.createURI("http://test.com#A");
+        data.add(Triple.create(x, RDF.type.asNode(), a));
+        Context context = manager.getFactory().createExecutionContext();
+        FunctionEnv env = new ExecutionContext(context, data, DatasetGraphFactory.wrap(data), QC.getFactory(context));
+
+        Assert.assertEquals(1, f1.exec(BindingFactory.binding(), new ExprList(NodeValue.makeNode(x)), wrapper, env)
+                .getInteger().intValue());
+        Assert.assertEquals(1, f2.exec(BindingFactory.binding(), new ExprList(NodeValue.makeNode(a)), other, env)
+                .getInteger().intValue());
+        Assert.assertEquals(1, f1.cachedResults());
+        Assert.assertEquals(1, f2.cachedResults());
+
+        // replace the function, that is called by the wrapper:
+        manager.getFactory().replace(SpinModelConfig.createSpinModel(m.getGraph()).getResource(count));
+        Assert.assertEquals(0, f1.cachedResults());
+        // the results of the unrelated function survive:
+        Assert.assertEquals(1, f2.cachedResults());
+    }
+
+    private static void createDeterministicFunction(OntGraphModel m, String uri, String body) {
+        m.createResource(uri)
+                .addProperty(RDF.type, SPIN.Function)
+                .addProperty(RDFS.subClassOf, SPL.StringFunctions)
+                .addProperty(SPIN.returnType, XSD.integer)
+                .addLiteral(AVC.deterministic, true)
+                .addProperty(SPIN.constraint, m.createResource()
+                        .addProperty(RDF.type, SPL.Argument)
+                        .addProperty(SPL.predicate, SP.arg1)
+                        .addProperty(SPL.valueType, RDFS.Resource))
+                .addProperty(SPIN.body, QueryHelper.parseQuery(body, m));
+    }
+
+    @Test
+    public void testCompiledFunctionBody() {
+        String uri = "http://test.func.com#upperPair";
+        MapManagerImpl manager = (MapManagerImpl) Managers.createMapManager();
+        OntGraphModel m = TestUtils.createMapModel("http://test.func.com");
+        m.createResource(uri)
+                .addProperty(RDF.type, SPIN.Function)
+                .addProperty(RDFS.subClassOf, SPL.StringFunctions)
+                .addProperty(SPIN.returnType, XSD.xstring)
+                .addProperty(SPIN.constraint, m.createResource()
+                        .addProperty(RDF.type, SPL.Argument)
+                        .addProperty(SPL.predicate, SP.arg1))
+                .addProperty(SPIN.constraint, m.createResource()
+                        .addProperty(RDF.type, SPL.Argument)
+                        .addProperty(SPL.predicate, SP.arg2)
+                        .addProperty(SPL.optional, m.createTypedLiteral(true)))
+                .addProperty(SPIN.body, QueryHelper.parseQuery("SELECT ?result\n" +
+                        "WHERE {\n" +
+                        "    BIND (CONCAT(STR(?arg1), \"-\", STR(?arg2)) AS ?pair) .\n" +
+                        "    BIND (UCASE(?pair) AS ?result) .\n" +
+                        "}", m));
+        manager.asMapModel(m);
+        MapARQFactory.ARQFunction function = (MapARQFactory.ARQFunction) manager.getFactory()
+                .getFunctionRegistry().get(uri);
+        Assert.assertTrue(function.isCompiled());
+        Assert.assertFalse(((MapARQFactory.ARQFunction) manager.getFactory().getFunctionRegistry()
+                .get(SPL.NS + "subject")).isCompiled());
+
+        Graph data = Factory.createGraphMem();
+        Context context = manager.getFactory().createExecutionContext();
+        FunctionEnv env = new ExecutionContext(context, data, DatasetGraphFactory.wrap(data), QC.getFactory(context));
+        org.apache.jena.rdf.model.Model model = ModelFactory.createModelForGraph(data);
+
+        NodeValue a = NodeValue.makeString("a");
+        NodeValue b = NodeValue.makeNode(NodeFactory.createURI("http://test.com#b"));
+        QuerySolutionMap solution = new QuerySolutionMap();
+        solution.add("arg1", model.asRDFNode(a.asNode()));
+        solution.add("arg2", model.asRDFNode(b.asNode()));
+        NodeValue expected = function.executeBody(model, solution);
+        Assert.assertEquals("A-HTTP://TEST.COM#B", expected.getString());
+        Assert.assertEquals(expected, function.exec(BindingFactory.binding(), new ExprList(Arrays.asList(a, b)), uri, env));
+
+        // the optional argument is absent, both ways fail:
+        QuerySolutionMap partial = new QuerySolutionMap();
+        partial.add("arg1", model.asRDFNode(a.asNode()));
+        try {
+            function.executeBody(model, partial);
+            Assert.fail("The query returns result");
+        } catch (ExprEvalException e) {
+            LOGGER.debug("Expected: '{}'", e.getMessage());
+        }
+        try {
+            function.exec(BindingFactory.binding(), new ExprList(a), uri, env);
+            Assert.fail("The compiled body returns result");
+        } catch (ExprEvalException e) {
+            LOGGER.debug("Expected: '{}'", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFactoryCaches() {
+        MapARQFactory factory = ((MapManagerImpl) Managers.createMapManager()).getFactory();
+        String q = "SELECT ?s WHERE { ?s a ?t }";
+        long hits = factory.getQueryCacheStats().hitCount();
+        long misses = factory.getQueryCacheStats().missCount();
+        Query query = factory.createQuery(q);
+        Assert.assertSame(query, factory.createQuery(q));
+        Assert.assertEquals(hits + 1, factory.getQueryCacheStats().hitCount());
+        Assert.assertEquals(misses + 1, factory.getQueryCacheStats().missCount());
+
+        factory.clearCaches();
+        Assert.assertNotSame(query, factory.createQuery(q));
+    }
+
+    @Test
+    public void testSharedSystemFunctions() {
+        MapManagerImpl m1 = (MapManagerImpl) Managers.createMapManager();
+        MapManagerImpl m2 = (MapManagerImpl) Managers.createMapManager();
+        FunctionRegistry r1 = m1.getFactory().getFunctionRegistry();
+        FunctionRegistry r2 = m2.getFactory().getFunctionRegistry();
+        // the SPARQL-based system functions are parsed only once:
+        String system = m1.getFunctionsMap().keySet().stream()
+                .filter(u -> r1.get(u) instanceof MapARQFactory.ARQFunction)
+                .findFirst().orElseThrow(AssertionError::new);
+        Assert.assertSame(r1.get(system), r2.get(system));
+
+        String user = "http://test.func.com#concatWithSeparator_3";
+        m1.asMapModel(makeSingleFunctionModel());
+        Assert.assertTrue(r1.isRegistered(user));
+        Assert.assertFalse(r2.isRegistered(user));
+        Assert.assertTrue(Iter.asStream(r1.keys()).anyMatch(user::equals));
+        Assert.assertFalse(Iter.asStream(r2.keys()).anyMatch(user::equals));
+        Assert.assertFalse(((MapManagerImpl) Managers.createMapManager()).getFunctionsMap().containsKey(user));
+
+        // a removal does not affect other managers:
+        r1.remove(system);
+        Assert.assertFalse(r1.isRegistered(system));
+        Assert.assertNull(r1.get(system));
+        Assert.assertNotNull(r2.get(system));
+    }
+
+    @Test
+    public void testOverlayFunctionResolution() {
+        String inner = "http://test.func.com#inner";
+        String outer = "http://test.func.com#outer";
+        OntGraphModel m1 = TestUtils.createMapModel("http://test.func.com");
+        createDeterministicFunction(m1, inner, "SELECT ?result\n" +
+                "WHERE {\n" +
+                "    BIND (1 AS ?result) .\n" +
+                "}");
+        createDeterministicFunction(m1, outer, "SELECT ?result\n" +
+                "WHERE {\n" +
+                "    BIND (<" + inner + ">(?arg1) AS ?result) .\n" +
+                "}");
+        OntGraphModel m2 = TestUtils.createMapModel("http://test.func.com");
+        createDeterministicFunction(m2, inner, "SELECT ?result\n" +
+                "WHERE {\n" +
+                "    BIND (2 AS ?result) .\n" +
+                "}");
+        MapARQFactory parent = MapARQFactory.createSPINARQFactory(Collections.emptyMap(), Collections.emptyMap());
+        parent.registerFunction(asSpinFunction(m1, inner));
+        parent.registerFunction(asSpinFunction(m1, outer));
+        MapARQFactory child = parent.createOverlayFactory();
+        // override the function, that is called by the inherited one:
+        child.registerFunction(asSpinFunction(m2, inner));
+        MapARQFactory.ARQFunction function = (MapARQFactory.ARQFunction) child.getFunctionRegistry().get(outer);
+        Assert.assertSame(parent.getFunctionRegistry().get(outer), function);
+
+        Graph data = Factory.createGraphMem();
+        ExprList args = new ExprList(NodeValue.makeNode(NodeFactory.createURI("http://test.com#x")));
+        Context c1 = parent.createExecutionContext();
+        Context c2 = child.createExecutionContext();
+        FunctionEnv e1 = new ExecutionContext(c1, data, DatasetGraphFactory.wrap(data), QC.getFactory(c1));
+        FunctionEnv e2 = new ExecutionContext(c2, data, DatasetGraphFactory.wrap(data), QC.getFactory(c2));
+        Assert.assertEquals(1, function.exec(BindingFactory.binding(), args, outer, e1).getInteger().intValue());
+        Assert.assertEquals(2, function.exec(BindingFactory.binding(), args, outer, e2).getInteger().intValue());
+        // the memorized results are kept per factory:
+        Assert.assertEquals(1, function.cachedResults(parent));
+        Assert.assertEquals(1, function.cachedResults(child));
+        Assert.assertEquals(1, function.exec(BindingFactory.binding(), args, outer, e1).getInteger().intValue());
+    }
+
+    private static org.topbraid.spin.model.Function asSpinFunction(OntGraphModel m, String uri) {
+        return SpinModelConfig.createSpinModel(m.getGraph()).getResource(uri).as(org.topbraid.spin.model.Function.class);
+    }
+
+    @Test
+    public void testLazyFunctions() {
+        MapManagerImpl manager = (MapManagerImpl) Managers.createMapManager();
+        String uri = SPINMAPL.concatWithSeparator.getURI();
+        MapFunction f = manager.getFunction(uri);
+        Assert.assertEquals(uri, f.name());
+        Assert.assertSame(f, manager.getFunction(uri));
+        Assert.assertEquals(Managers.createMapManager().functions().count(), manager.functions().count());
+        Assert.assertSame(f, manager.getFunctionsMap().get(uri));
+
+        // the body is parsed on demand:
+        Model m = SpinModelConfig.createSpinModel(Factory.createGraphMem());
+        org.topbraid.spin.model.Function broken = m.createResource("http://test.func.com#broken")
+                .addProperty(RDF.type, SPIN.Function)
+                .addProperty(SPIN.body, m.createResource()
+                        .addProperty(RDF.type, SP.Select)
+                        .addProperty(SP.text, "SELECT ?x WHERE { ?x ?y }"))
+                .as(org.topbraid.spin.model.Function.class);
+        MapARQFactory.ARQFunction function = (MapARQFactory.ARQFunction) manager.getFactory().asARQFunction(broken);
+        try {
+            function.parse();
+            Assert.fail("Possible to parse a wrong body");
+        } catch (MapJenaException.IllegalArgument e) {
+            LOGGER.debug("Expected: '{}'", e.getMessage());
+        }
+    }
+
     private void simpleTestInference(MapManager manager, String suffix) {
         final String uri = "http://test.com/some-function2";
         LoadMapTestData data = new LoadMapTestData(uri, suffix);
@@ -0,0 +1,271 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.apache.jena.graph.Factory;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.compose.Union;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.Function;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.sparql.util.ExprUtils;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.topbraid.spin.vocabulary.SPINMAP;
+import org.topbraid.spin.vocabulary.SPL;
+import ru.avicomp.map.Managers;
+import ru.avicomp.map.spin.MapARQFactory;
+import ru.avicomp.map.spin.MapManagerImpl;
+import ru.avicomp.map.spin.QueryHelper;
+import ru.avicomp.map.spin.SpinExpressions;
+import ru.avicomp.map.spin.functions.spin.eval;
+import ru.avicomp.map.spin.functions.spif.buildString;
+import ru.avicomp.map.spin.vocabulary.SPINMAPL;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * To test that the java-optimizations of SPARQL-based functions
+ * (see {@link ru.avicomp.map.spin.vocabulary.AVC#optimize avc:optimize})
+ * give the same results as the original SPARQL bodies.
+ * <p>
+ * Created by @ssz on 03.07.2019.
+ */
+public class OptimizedFunctionsTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OptimizedFunctionsTest.class);
+    private static final String NS = "http://ex.com#";
+
+    private MapManagerImpl manager;
+    private FunctionEnv env;
+    private Resource i1, i2, i3, anon;
+    private Property p1, p2, p3, sub, none;
+
+    @Before
+    public void before() {
+        manager = (MapManagerImpl) Managers.createMapManager();
+        Graph data = Factory.createGraphMem();
+        Model m = ModelFactory.createModelForGraph(data);
+        m.setNsPrefix("ex", NS);
+        p1 = m.createProperty(NS + "p1");
+        p2 = m.createProperty(NS + "p2");
+        p3 = m.createProperty(NS + "p3");
+        sub = m.createProperty(NS + "sub");
+        none = m.createProperty(NS + "none");
+        sub.addProperty(RDFS.subPropertyOf, p3);
+        i1 = m.createResource(NS + "I1").addProperty(p1, "a b").addProperty(p2, m.createTypedLiteral(42))
+                .addProperty(p3, "x").addProperty(p3, "y");
+        i2 = m.createResource("http://another.org/data/I2").addProperty(p1, "c").addProperty(sub, "z");
+        anon = m.createResource().addProperty(p1, "d");
+        i3 = m.createResource("urn:I3").addProperty(p2, anon);
+        Context context = manager.getFactory().createExecutionContext();
+        env = new ExecutionContext(context, data,
+                manager.getFactory().getDataset(m, context).asDatasetGraph(), QC.getFactory(context));
+    }
+
+    @Test
+    public void testBuildURI() {
+        Node t1 = NodeFactory.createLiteral("ex:Instance-{?1}");
+        Node t2 = NodeFactory.createLiteral("<http://target.com/{?value1}/{?2}>");
+        Node t3 = NodeFactory.createLiteral(":x-{?1}-{?2}-{?3}-{?source}");
+        Node t5 = NodeFactory.createLiteral("ex:{?5}-{?4}-{?3}-{?2}-{?1}");
+        for (Node s : Arrays.asList(i1.asNode(), i2.asNode(), i3.asNode(), anon.asNode())) {
+            testEquals(SPINMAPL.buildURI1, p1, s, t1);
+            testEquals(SPINMAPL.buildURI1, p2, s, NodeFactory.createLiteral("ex:{?value}"));
+            testEquals(SPINMAPL.buildURI2, p1, p2, s, t2);
+            testEquals(SPINMAPL.buildURI3, p1, p2, p3, s, t3);
+            testEquals(SPINMAPL.buildURI4, p1, p1, p1, p1, s, NodeFactory.createLiteral("ex:{?4}"));
+            testEquals(SPINMAPL.buildURI5, p1, p2, p3, p1, p2, s, t5);
+            testEquals(SPINMAPL.buildURI5, p1, p2, p3, p1, none, s, NodeFactory.createLiteral("ex:const"));
+        }
+    }
+
+    @Test
+    public void testComposeURI() {
+        Node template = NodeFactory.createLiteral("ex:{?1}-{?value}");
+        for (Node s : Arrays.asList(i1.asNode(), i2.asNode(), i3.asNode(), anon.asNode(),
+                NodeFactory.createLiteral("some/path#local"), NodeFactory.createLiteral("nothing"))) {
+            testEquals(SPINMAPL.composeURI, s, template);
+        }
+    }
+
+    @Test
+    public void testChangeNamespace() {
+        Node ns = NodeFactory.createLiteral("http://target.com/ns#");
+        for (Node s : Arrays.asList(i1.asNode(), i2.asNode(), i3.asNode(), anon.asNode(),
+                NodeFactory.createLiteral("literal"))) {
+            testEquals(SPINMAPL.changeNamespace, s, ns);
+        }
+        testEquals(SPINMAPL.changeNamespace, i1, i2);
+    }
+
+    @Test
+    public void testObjectCount() {
+        for (Resource s : Arrays.asList(i1, i2, i3, anon)) {
+            for (Property p : Arrays.asList(p1, p2, p3, sub, none)) {
+                testEquals(SPL.objectCount, s, p);
+            }
+        }
+    }
+
+    @Test
+    public void testHasValue() {
+        Model m = i1.getModel();
+        List<Object> values = Arrays.asList(m.createLiteral("a b"), m.createTypedLiteral(42),
+                m.createLiteral("x"), m.createLiteral("z"), anon, i1);
+        for (Resource s : Arrays.asList(i1, i2, i3, anon)) {
+            for (Property p : Arrays.asList(p1, p2, p3, sub, none)) {
+                for (Object v : values) {
+                    testEquals(SPL.hasValue, s, p, v);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTemplates() {
+        UnaryOperator<String> mapping = v -> "<" + v + ">";
+        String template = "{?a}ex:{?1}-{?}-{?b c}-{?x{?y}}-{x}-{?2";
+        String expected = "<a>ex:<1>-{?}-{?b c}-{?x<y>}-{x}-{?2";
+        Assert.assertEquals(expected, buildString.format(template, mapping));
+        Assert.assertEquals(expected, buildString.format(template, mapping));
+        Assert.assertEquals("no-vars", buildString.format("no-vars", mapping));
+        // nested rendering on the same thread:
+        Assert.assertEquals("[a-<b>]-[a-<c>]", buildString.format("{?1}-{?2}",
+                v -> "[" + buildString.format("a-{?x}", x -> "<" + ("1".equals(v) ? "b" : "c") + ">") + "]"));
+    }
+
+    @Test
+    public void testEvalWithExpressionCache() {
+        Graph data = Factory.createGraphMem();
+        Model m = ModelFactory.createModelForGraph(data);
+        Node expr = new QueryHelper(m).createExpression(ExprUtils.parse("CONCAT(\"x-\", UCASE(STR(?source)))"))
+                .asNode();
+        Context context = manager.getFactory().createExecutionContext();
+        Cache<Node, Expr> cache = MapARQFactory.createExpressionCache();
+        context.set(MapARQFactory.EXPRESSION_CACHE, cache);
+        FunctionEnv env = new ExecutionContext(context, data,
+                manager.getFactory().getDataset(m, context).asDatasetGraph(), QC.getFactory(context));
+        Var source = Var.alloc(SPINMAP.source.getLocalName());
+        for (String s : Arrays.asList("a", "b", "c")) {
+            NodeValue res = eval.exec(expr, BindingFactory.binding(source, NodeFactory.createLiteral(s)), env);
+            Assert.assertEquals("x-" + s.toUpperCase(), res.getString());
+        }
+        Assert.assertEquals(1, cache.estimatedSize());
+        Assert.assertEquals(2, cache.stats().hitCount());
+        try {
+            eval.exec(expr, BindingFactory.binding(), env);
+            Assert.fail("Possible to evaluate without ?source");
+        } catch (ExprEvalException e) {
+            LOGGER.debug("Expected: '{}'", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testExpressionConversion() {
+        Model m = ModelFactory.createDefaultModel();
+        // spin:symbol's are taken from the library:
+        Graph graph = new Union(m.getGraph(), manager.getLibrary().getGraph());
+        Context context = manager.getFactory().createExecutionContext();
+        FunctionEnv env = new ExecutionContext(context, graph,
+                manager.getFactory().getDataset(ModelFactory.createModelForGraph(graph), context).asDatasetGraph(),
+                QC.getFactory(context));
+        BindingMap binding = BindingFactory.create();
+        binding.add(Var.alloc("s"), NodeFactory.createLiteral("abc"));
+        binding.add(Var.alloc("n"), NodeValue.makeInteger(5).asNode());
+        QueryHelper helper = new QueryHelper(m);
+        for (String str : Arrays.asList("CONCAT(\"x-\", UCASE(STR(?s)))",
+                "IF(?n > 3, ?n + 1, -?n)",
+                "STRLEN(?s) * 2 - 1",
+                "10 - ?n - 2",
+                "?n IN (1, 5, 7)",
+                "?n NOT IN (1, 7)",
+                "!BOUND(?x) && (?n >= 5 || ?n != 5)",
+                "COALESCE(?x, ?s)",
+                "SUBSTR(?s, 2, 1)",
+                "<http://www.w3.org/2005/xpath-functions#upper-case>(?s)",
+                "NOT EXISTS { ?s ?p ?o }")) {
+            Expr expected = ExprUtils.parse(str);
+            Node node = helper.createExpression(expected).asNode();
+            Expr actual = SpinExpressions.convert(graph, node);
+            LOGGER.debug("{} => {}", str, actual);
+            Assert.assertEquals(str, expected, actual);
+            Assert.assertEquals(str, expected.eval(binding, env), SpinExpressions.compile(graph, node, context)
+                    .eval(binding, env));
+        }
+    }
+
+    /**
+     * Calls the java-optimization and the SPARQL body with the same arguments
+     * and checks that they either return the same result or both fail.
+     *
+     * @param function {@link Resource} the function
+     * @param args     Array of {@link Node}s or {@link org.apache.jena.rdf.model.RDFNode}s
+     */
+    private void testEquals(Resource function, Object... args) {
+        String uri = function.getURI();
+        Function optimized = manager.getFactory().getFunctionRegistry().get(uri).create(uri);
+        Assert.assertFalse(optimized.getClass().getName(), optimized.getClass().getName().startsWith(
+                "ru.avicomp.map.spin.MapARQFactory"));
+        org.topbraid.spin.model.Function spin = manager.getFunctionsMap().get(uri)
+                .asResource().as(org.topbraid.spin.model.Function.class);
+        Function sparql = manager.getFactory().asARQFunction(spin).create(uri);
+        List<NodeValue> list = new ArrayList<>();
+        for (Object a : args) {
+            Node n = a instanceof Node ? (Node) a : ((org.apache.jena.rdf.model.RDFNode) a).asNode();
+            list.add(NodeValue.makeNode(n));
+        }
+        ExprList exprs = new ExprList(new ArrayList<>(list));
+        NodeValue expected = exec(sparql, exprs, uri);
+        NodeValue actual = exec(optimized, exprs, uri);
+        LOGGER.debug("{}{}: expected={}, actual={}", function.getLocalName(), list, expected, actual);
+        Assert.assertEquals("Wrong result for " + function.getLocalName() + list,
+                expected == null ? null : expected.asNode(), actual == null ? null : actual.asNode());
+    }
+
+    private NodeValue exec(Function function, ExprList args, String uri) {
+        try {
+            return function.exec(BindingFactory.binding(), args, uri, env);
+        } catch (ExprEvalException e) {
+            return null;
+        }
+    }
+}
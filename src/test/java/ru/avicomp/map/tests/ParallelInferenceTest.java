@@ -0,0 +1,70 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.graph.Factory;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.GraphUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.avicomp.map.MapModel;
+import ru.avicomp.map.spin.MapConfigImpl;
+import ru.avicomp.map.tests.maps.SelfMapTest;
+import ru.avicomp.map.utils.TestUtils;
+import ru.avicomp.ontapi.jena.model.OntGraphModel;
+
+/**
+ * To test the parallel inference mode.
+ *
+ * @see MapConfigImpl#inferenceParallelism()
+ */
+public class ParallelInferenceTest {
+    // several partitions, the last one is incomplete:
+    private static final int INDIVIDUALS_NUM = 2_345;
+
+    @Test
+    public void testParallelInferenceMatchesSequential() {
+        Graph expected = InfrPerfTester.runInference(MapConfigImpl.INSTANCE, INDIVIDUALS_NUM);
+        Graph actual = InfrPerfTester.runInference(MapConfigImpl.INSTANCE.setInferenceParallelism(4),
+                INDIVIDUALS_NUM);
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertTrue(expected.isIsomorphicWith(actual));
+    }
+
+    @Test
+    public void testParallelInferenceWithCurrentIndividual() {
+        OntGraphModel s = SelfMapTest.createSourceModel(INDIVIDUALS_NUM);
+        OntGraphModel t = SelfMapTest.createTargetModel();
+        long expected = s.individuals().filter(i -> i.getURI().contains("-1")).count();
+        MapModel m = SelfMapTest.composeIfMapping(TestUtils.withConfig(MapConfigImpl.INSTANCE
+                .setInferenceParallelism(4)), s, t);
+        Graph mapping = Factory.createGraphMem();
+        GraphUtil.addInto(mapping, m.asGraphModel().getBaseGraph());
+
+        m.runInference(s.getGraph(), t.getGraph());
+        Assert.assertEquals(expected, t.individuals().count());
+        // the mapping must not be changed while inference:
+        Assert.assertTrue(mapping.isIsomorphicWith(m.asGraphModel().getBaseGraph()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongParallelism() {
+        MapConfigImpl.INSTANCE.setInferenceParallelism(0);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.graph.Factory;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.avicomp.map.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * To test the prepared inference engine
+ * (see {@link MapManager#getPreparedInferenceEngine(MapModel)}).
+ */
+public class PreparedInferenceTest {
+    private static final int INDIVIDUALS_NUM = 234;
+
+    @Test
+    public void testConcurrentSmallDocuments() throws Exception {
+        MapManager manager = Managers.createMapManager();
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(manager, INDIVIDUALS_NUM);
+
+        Graph expected = Factory.createGraphMem();
+        manager.getInferenceEngine(s.map).run(s.data, expected);
+
+        // each document is a description of a single individual:
+        Map<Node, Graph> documents = new HashMap<>();
+        s.data.find(Triple.ANY).forEachRemaining(t -> documents
+                .computeIfAbsent(t.getSubject(), x -> Factory.createGraphMem()).add(t));
+        Assert.assertEquals(INDIVIDUALS_NUM, documents.size());
+
+        MapManager.InferenceEngine engine = manager.getPreparedInferenceEngine(s.map);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Graph>> results = new ArrayList<>();
+            documents.values().forEach(doc -> results.add(executor.submit(() -> {
+                Graph res = Factory.createGraphMem();
+                engine.run(doc, res);
+                return res;
+            })));
+            Graph actual = Factory.createGraphMem();
+            for (Future<Graph> f : results) {
+                f.get().find(Triple.ANY).forEachRemaining(actual::add);
+            }
+            Assert.assertEquals(expected.size(), actual.size());
+            Assert.assertTrue(expected.isIsomorphicWith(actual));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMappingChange() {
+        MapManager manager = Managers.createMapManager();
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(manager, INDIVIDUALS_NUM);
+        MapManager.InferenceEngine engine = manager.getPreparedInferenceEngine(s.map);
+
+        Graph first = Factory.createGraphMem();
+        engine.run(s.data, first);
+        Graph second = Factory.createGraphMem();
+        engine.run(s.data, second);
+        Assert.assertTrue(first.isIsomorphicWith(second));
+        long withProperties = first.size();
+
+        MapContext context = s.map.contexts().findFirst().orElseThrow(AssertionError::new);
+        context.deletePropertyBridge(context.properties().findFirst().orElseThrow(AssertionError::new));
+        Graph third = Factory.createGraphMem();
+        engine.run(s.data, third);
+        Assert.assertEquals(withProperties - INDIVIDUALS_NUM, third.size());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.avicomp.map.Managers;
+import ru.avicomp.map.MapManager;
+import ru.avicomp.map.MapModel;
+import ru.avicomp.map.spin.infer.InferenceEngineImpl;
+import ru.avicomp.map.spin.infer.RuleIndex;
+import ru.avicomp.map.tests.maps.MultiContextMapTest;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * To test {@link RuleIndex}: the dispatch of the mapping rules for an individual with several classes.
+ */
+public class RuleIndexTest {
+
+    @Test
+    public void testSelectSeveralClasses() {
+        RuleIndex<InferenceEngineImpl.ProcessedQuery> index = createIndex();
+        Model m = ModelFactory.createDefaultModel();
+        List<RDFNode> classes = index.classes().stream().map(m::asRDFNode).collect(Collectors.toList());
+        Assert.assertTrue(classes.size() > 2);
+
+        // one class:
+        Assert.assertSame(index.select(classes.get(0).asNode()), index.select(classes.subList(0, 1)));
+        // two classes, one of them is repeated, and a class without rules:
+        List<RDFNode> input = Arrays.asList(classes.get(1), m.createResource("http://ex#Unknown"),
+                classes.get(0), classes.get(1));
+        List<InferenceEngineImpl.ProcessedQuery> expected = new ArrayList<>();
+        expected.addAll(index.select(classes.get(0).asNode()));
+        expected.addAll(index.select(classes.get(1).asNode()));
+        Collections.sort(expected);
+        assertMerged(expected, index.select(input));
+        // all classes:
+        assertMerged(new ArrayList<>(index.rules()), index.select(classes));
+    }
+
+    @Test
+    public void testMergedCache() {
+        RuleIndex<InferenceEngineImpl.ProcessedQuery> index = createIndex();
+        Model m = ModelFactory.createDefaultModel();
+        List<RDFNode> classes = index.classes().stream().map(m::asRDFNode).collect(Collectors.toList());
+
+        List<InferenceEngineImpl.ProcessedQuery> first = index.select(classes);
+        List<RDFNode> reversed = new ArrayList<>(classes);
+        Collections.reverse(reversed);
+        // the same combination of classes in another order is taken from the cache:
+        Assert.assertSame(first, index.select(reversed));
+        Assert.assertEquals(first, index.select(classes));
+    }
+
+    private static void assertMerged(List<InferenceEngineImpl.ProcessedQuery> expected,
+                                     List<InferenceEngineImpl.ProcessedQuery> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        Set<InferenceEngineImpl.ProcessedQuery> unique = Collections.newSetFromMap(new IdentityHashMap<>());
+        unique.addAll(actual);
+        Assert.assertEquals("Duplicates: " + actual, actual.size(), unique.size());
+        Assert.assertTrue(unique.containsAll(expected));
+        // the comparator order:
+        for (int i = 1; i < actual.size(); i++) {
+            Assert.assertTrue(actual.get(i - 1).compareTo(actual.get(i)) <= 0);
+        }
+    }
+
+    private static RuleIndex<InferenceEngineImpl.ProcessedQuery> createIndex() {
+        MultiContextMapTest data = new MultiContextMapTest();
+        MapManager manager = Managers.createMapManager();
+        MapModel map = data.assembleMapping(manager, data.assembleSource(), data.assembleTarget());
+        InferenceEngineImpl engine = (InferenceEngineImpl) manager.getInferenceEngine(map);
+        return new RuleIndex<>(engine.selectMapRules(engine.assembleQueryModel()));
+    }
+}
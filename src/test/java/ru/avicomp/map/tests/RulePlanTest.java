@@ -0,0 +1,146 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2019, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ExecutionContext;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.main.QC;
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.avicomp.map.spin.infer.RulePlan;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * To test {@link RulePlan}: the result of a compiled plan must be the same as the SPARQL CONSTRUCT result.
+ */
+public class RulePlanTest {
+    private static final String NS = "http://ex#";
+    // has the same shape as the queries produced by the TemplateBuilder:
+    private static final String QUERY = "CONSTRUCT {\n" +
+            "\t?target ?targetPredicate1 ?result .\n" +
+            "}\nWHERE {\n" +
+            "\tOPTIONAL {\n\t\t?this ?sourcePredicate1 ?value1 .\n\t} .\n" +
+            "\tOPTIONAL {\n\t\tBIND (?sourcePredicate1DefaultValue AS ?value1) .\n\t} .\n" +
+            "\tOPTIONAL {\n\t\t?this ?sourcePredicate2 ?value2 .\n\t} .\n" +
+            "\tBIND (CONCAT(STR(?value1), \"|\", STR(?value2)) AS ?result) .\n" +
+            "\tBIND (IRI(CONCAT(\"urn:t:\", STRAFTER(STR(?this), \"#\"))) AS ?target) .\n" +
+            "%s" +
+            "\tFILTER (!bound(?filter) || (?value2 != \"skip\")) .\n}";
+
+    @Test
+    public void testCompiledPlanMatchesSPARQL() {
+        testCompiledPlan(String.format(QUERY, ""));
+    }
+
+    @Test
+    public void testCompiledPlanWithExistsMatchesSPARQL() {
+        testCompiledPlan(String.format(QUERY, "\tFILTER EXISTS {\n\t\t?target a ?any .\n\t} .\n"));
+    }
+
+    @Test
+    public void testFilterPushdown() {
+        Set<Var> inputs = Stream.of("this", "sourcePredicate1", "sourcePredicate2", "targetPredicate1")
+                .map(Var::alloc).collect(Collectors.toSet());
+        for (String exists : new String[]{"", "\tFILTER EXISTS {\n\t\t?target a ?any .\n\t} .\n"}) {
+            RulePlan plan = testCompiledPlan(String.format(QUERY, exists), inputs);
+            String txt = plan.toString();
+            // the filter goes right after the source predicate it depends on, before the mapping expression:
+            int filter = txt.indexOf("Filter[");
+            Assert.assertTrue(txt, filter > txt.indexOf("?value2"));
+            Assert.assertTrue(txt, filter < txt.indexOf("?value1"));
+            Assert.assertTrue(txt, filter < txt.indexOf("Bind[?result"));
+            Assert.assertTrue(txt, filter < txt.indexOf("Bind[?target"));
+        }
+    }
+
+    @Test
+    public void testUnsupportedQuery() {
+        Context context = ARQ.getContext().copy();
+        Assert.assertNull(RulePlan.compile(QueryFactory.create("CONSTRUCT { ?s ?p ?o } " +
+                "WHERE { { ?s ?p ?o } UNION { ?o ?p ?s } }"), context));
+        Assert.assertNull(RulePlan.compile(QueryFactory.create("CONSTRUCT { ?s ?p [] } WHERE { ?s ?p ?o }"), context));
+        Assert.assertNull(RulePlan.compile(QueryFactory.create("SELECT * WHERE { ?s ?p ?o }"), context));
+    }
+
+    private static void testCompiledPlan(String txt) {
+        testCompiledPlan(txt, Collections.singleton(Var.alloc("this")));
+    }
+
+    private static RulePlan testCompiledPlan(String txt, Set<Var> inputs) {
+        Query query = QueryFactory.create(txt);
+        Context context = ARQ.getContext().copy();
+        RulePlan plan = RulePlan.compile(query, inputs, context);
+        Assert.assertNotNull(plan);
+
+        Model m = ModelFactory.createDefaultModel();
+        Property p1 = m.createProperty(NS + "p1");
+        Property p2 = m.createProperty(NS + "p2");
+        Property tp = m.createProperty(NS + "tp");
+        m.createResource(NS + "i1").addProperty(p1, "a").addProperty(p1, "b").addProperty(p2, "x");
+        m.createResource(NS + "i2").addProperty(p2, "skip");
+        m.createResource(NS + "i3");
+        m.createResource(NS + "i4").addProperty(p2, "y").addProperty(p2, "z");
+        m.createResource("urn:t:i1").addProperty(RDF.type, m.createResource(NS + "C"));
+        m.createResource("urn:t:i4").addProperty(RDF.type, m.createResource(NS + "C"));
+        Graph g = m.getGraph();
+        ExecutionContext env = new ExecutionContext(context, g, DatasetGraphFactory.wrap(g), QC.getFactory(context));
+
+        for (String defaultValue : new String[]{null, "D"}) {
+            for (String filter : new String[]{null, "F"}) {
+                for (String i : new String[]{"i1", "i2", "i3", "i4", "i5"}) {
+                    QuerySolutionMap bindings = new QuerySolutionMap();
+                    bindings.add("this", m.createResource(NS + i));
+                    bindings.add("sourcePredicate1", p1);
+                    bindings.add("sourcePredicate2", p2);
+                    bindings.add("targetPredicate1", tp);
+                    if (defaultValue != null) {
+                        bindings.add("sourcePredicate1DefaultValue", m.createLiteral(defaultValue));
+                    }
+                    if (filter != null) {
+                        bindings.add("filter", m.createLiteral(filter));
+                    }
+                    Model expected;
+                    try (QueryExecution exec = QueryExecutionFactory.create(query, m, bindings)) {
+                        expected = exec.execConstruct();
+                    }
+                    BindingMap input = BindingFactory.create();
+                    bindings.varNames().forEachRemaining(v -> input.add(Var.alloc(v), bindings.get(v).asNode()));
+                    Model actual = ModelFactory.createDefaultModel();
+                    plan.execute(input, g, env, actual.getGraph()::add);
+                    Assert.assertTrue("Wrong result for " + bindings, expected.isIsomorphicWith(actual));
+                }
+            }
+        }
+        return plan;
+    }
+}
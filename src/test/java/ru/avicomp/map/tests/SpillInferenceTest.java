@@ -0,0 +1,127 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2018, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.avicomp.map.spin.MapConfigImpl;
+import ru.avicomp.map.spin.infer.FileNodeStore;
+import ru.avicomp.map.spin.infer.FileProcessedStore;
+import ru.avicomp.map.spin.infer.NodeStore;
+import ru.avicomp.map.spin.infer.ProcessedStore;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * To test the inference with intermediate data spilled to disk.
+ *
+ * @see MapConfigImpl#inferenceSpillDirectory()
+ */
+public class SpillInferenceTest {
+    private static final int INDIVIDUALS_NUM = 1_234;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNodeStores() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        testNodeStore(new FileNodeStore(dir));
+        testNodeStore(NodeStore.inMemory(Integer.MAX_VALUE));
+    }
+
+    private static void testNodeStore(NodeStore store) {
+        try (NodeStore s = store) {
+            Set<Node> expected = new HashSet<>();
+            for (int i = 0; i < 20_000; i++) { // more than a single buffer
+                Node n = i % 3 == 0 ? NodeFactory.createBlankNode() : NodeFactory.createURI("urn:x:" + i);
+                Assert.assertTrue(s.add(n));
+                Assert.assertFalse(s.add(n));
+                expected.add(n);
+            }
+            Node big = NodeFactory.createURI("urn:x:" + new String(new char[100_000]).replace('\0', 'x'));
+            Assert.assertTrue(s.add(big));
+            expected.add(big);
+            Node removed = NodeFactory.createURI("urn:x:1");
+            Assert.assertTrue(s.remove(removed));
+            Assert.assertFalse(s.remove(removed));
+            expected.remove(removed);
+            Assert.assertEquals(expected.size(), s.size());
+            Assert.assertFalse(s.isFull());
+
+            Set<Node> actual = new HashSet<>();
+            Node n;
+            int count = 0;
+            while ((n = s.next()) != null) {
+                // new nodes may appear while draining:
+                if (count++ == 42) {
+                    Node x = NodeFactory.createURI("urn:y:42");
+                    Assert.assertTrue(s.add(x));
+                    expected.add(x);
+                }
+                Assert.assertTrue("Duplicate " + n, actual.add(n));
+                Assert.assertTrue(s.remove(n));
+            }
+            Assert.assertEquals(expected, actual);
+            Assert.assertTrue(s.isEmpty());
+            // reuse the drained store:
+            Assert.assertTrue(s.add(removed));
+            Assert.assertEquals(removed, s.next());
+        }
+    }
+
+    @Test
+    public void testProcessedStores() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        testProcessedStore(new FileProcessedStore(dir));
+        testProcessedStore(ProcessedStore.inMemory());
+    }
+
+    private static void testProcessedStore(ProcessedStore store) {
+        try (ProcessedStore s = store) {
+            for (int i = 0; i < 50_000; i++) {
+                Node n = NodeFactory.createURI("urn:x:" + i);
+                Assert.assertTrue(s.add(n, i % 7));
+                Assert.assertTrue(s.add(n, i % 7 + 1));
+                Assert.assertFalse(s.add(n, i % 7));
+            }
+        }
+    }
+
+    @Test
+    public void testInferenceWithSpill() throws Exception {
+        Graph expected = InfrPerfTester.runInference(MapConfigImpl.INSTANCE, INDIVIDUALS_NUM);
+        Graph actual = InfrPerfTester.runInference(MapConfigImpl.INSTANCE
+                .setInferenceSpillDirectory(folder.newFolder().toPath()), INDIVIDUALS_NUM);
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertTrue(expected.isIsomorphicWith(actual));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongSpillDirectory() throws Exception {
+        MapConfigImpl.INSTANCE.setInferenceSpillDirectory(folder.newFile().toPath());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of the ONT MAP.
+ * The contents of this file are subject to the Apache License, Version 2.0.
+ * Copyright (c) 2018, Avicomp Services, AO
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.avicomp.map.tests;
+
+import org.apache.jena.graph.Factory;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.compose.Union;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Assert;
+import org.junit.Test;
+import ru.avicomp.map.MapManager;
+import ru.avicomp.map.Managers;
+import ru.avicomp.ontapi.jena.vocabulary.OWL;
+import ru.avicomp.ontapi.jena.vocabulary.RDF;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * To test the streaming inference
+ * (see {@link MapManager.InferenceEngine#run(java.io.InputStream, Lang, org.apache.jena.riot.system.StreamRDF)}).
+ */
+public class StreamInferenceTest {
+    private static final int INDIVIDUALS_NUM = 567;
+    private static final String NS = "http://source.avicomp.ru#";
+
+    @Test
+    public void testNTriples() {
+        testStream(Lang.NTRIPLES);
+    }
+
+    @Test
+    public void testThrift() {
+        testStream(Lang.RDFTHRIFT);
+    }
+
+    @Test
+    public void testSubClassIndividual() {
+        MapManager manager = Managers.createMapManager();
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(manager, INDIVIDUALS_NUM);
+        Union union = (Union) s.source.getBaseGraph();
+        // the schema declares a subclass, and the data contains its individual:
+        Model schema = ModelFactory.createModelForGraph(union.getL());
+        Model data = ModelFactory.createModelForGraph(union.getR());
+        Resource subClass = schema.createResource(NS + "SubClassSource", OWL.Class)
+                .addProperty(RDFS.subClassOf, schema.getResource(NS + "ClassSource"));
+        int num = INDIVIDUALS_NUM + 1;
+        data.createResource(NS + "Individual-" + num, OWL.NamedIndividual)
+                .addProperty(RDF.type, subClass)
+                .addProperty(data.getProperty(NS + "sourceProperty1"), "val-1-" + num)
+                .addProperty(data.getProperty(NS + "sourceProperty2"), "val-2-" + num);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RDFDataMgr.write(out, data.getGraph(), Lang.NTRIPLES);
+
+        Graph expected = Factory.createGraphMem();
+        manager.getInferenceEngine(s.map).run(union, expected);
+        Graph actual = Factory.createGraphMem();
+        manager.getInferenceEngine(s.map).run(new ByteArrayInputStream(out.toByteArray()), Lang.NTRIPLES,
+                StreamRDFLib.graph(actual));
+
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertTrue(expected.isIsomorphicWith(actual));
+        Assert.assertTrue(actual.contains(Node.ANY, Node.ANY,
+                NodeFactory.createLiteral(String.format("val-2-%d, val-1-%d", num, num))));
+    }
+
+    @Test
+    public void testFinishOnFailure() {
+        MapManager manager = Managers.createMapManager();
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(manager, 1);
+        AtomicBoolean finished = new AtomicBoolean();
+        StreamRDF stream = new StreamRDFWrapper(StreamRDFLib.graph(Factory.createGraphMem())) {
+            @Override
+            public void finish() {
+                finished.set(true);
+                super.finish();
+            }
+        };
+        byte[] broken = "<http://x> <http://y> .".getBytes(StandardCharsets.UTF_8);
+        try {
+            manager.getInferenceEngine(s.map).run(new ByteArrayInputStream(broken), Lang.NTRIPLES, stream);
+            Assert.fail("Possible to read broken data");
+        } catch (RiotException e) {
+            // expected
+        }
+        Assert.assertTrue(finished.get());
+    }
+
+    private static void testStream(Lang lang) {
+        MapManager manager = Managers.createMapManager();
+        InfrPerfTester.Scenario s = new InfrPerfTester.Scenario(manager, INDIVIDUALS_NUM);
+        // the in-memory graph lists triples grouped by subjects:
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RDFDataMgr.write(out, s.data, lang);
+
+        Graph expected = Factory.createGraphMem();
+        manager.getInferenceEngine(s.map).run(s.data, expected);
+        Graph actual = Factory.createGraphMem();
+        manager.getInferenceEngine(s.map).run(new ByteArrayInputStream(out.toByteArray()), lang,
+                StreamRDFLib.graph(actual));
+
+        Assert.assertFalse(actual.isEmpty());
+        Assert.assertEquals(expected.size(), actual.size());
+        Assert.assertTrue(expected.isIsomorphicWith(actual));
+    }
+}
@@ -26,11 +26,15 @@ import org.slf4j.LoggerFactory;
 import org.topbraid.spin.vocabulary.SP;
 import org.topbraid.spin.vocabulary.SPINMAP;
 import ru.avicomp.map.*;
+import ru.avicomp.map.spin.infer.InferenceEngineImpl;
+import ru.avicomp.map.spin.infer.RuleSchedule;
 import ru.avicomp.map.spin.vocabulary.SPINMAPL;
 import ru.avicomp.map.utils.TestUtils;
 import ru.avicomp.ontapi.jena.model.*;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -79,6 +83,56 @@ public class MultiContextMapTest extends MapTestData6 {
         }
     }
 
+    @Test
+    public void testSchedule() {
+        MapManager manager = manager();
+        MapModel map = assembleMapping(manager, assembleSource(), assembleTarget());
+        InferenceEngineImpl engine = (InferenceEngineImpl) manager.getInferenceEngine(map);
+        RuleSchedule<InferenceEngineImpl.ProcessedQuery> schedule =
+                engine.createSchedule(engine.selectMapRules(engine.assembleQueryModel()));
+        LOGGER.debug("Schedule: {}", schedule);
+        Assert.assertNotNull(schedule);
+        List<List<RuleSchedule.Group<InferenceEngineImpl.ProcessedQuery>>> waves = schedule.waves();
+        Assert.assertEquals(4, waves.size());
+        MapContext self = map.contexts().filter(c -> Objects.equals(c.getSource(), c.getTarget()))
+                .findFirst().orElseThrow(AssertionError::new);
+        MapContext main = map.contexts().filter(c -> Objects.equals(c.getSource().getLocalName(), "CDSPR_D00001"))
+                .findFirst().orElseThrow(AssertionError::new);
+        // the context, that reads the results of all the others, is the last and depends on itself:
+        Assert.assertEquals(Collections.singletonList(Collections.singleton(self.name())), schedule.cycles());
+        Assert.assertEquals(1, waves.get(3).size());
+        Assert.assertEquals(Collections.singleton(self.name()), waves.get(3).get(0).contexts());
+        Assert.assertTrue(waves.get(0).stream().anyMatch(g -> g.contexts().contains(main.name())));
+        Assert.assertEquals(map.contexts().count(), waves.stream().flatMap(Collection::stream)
+                .mapToLong(g -> g.contexts().size()).sum());
+    }
+
+    @Test
+    public void testSkipPreExistingTargetIndividuals() {
+        OntGraphModel src = assembleSource();
+        OntGraphModel dst = assembleTarget();
+        // an individual of the target class, that is not produced by the mapping:
+        OntClass resClass = TestUtils.findOntEntity(dst, OntClass.class, "Res");
+        OntNDP latitudeProp = TestUtils.findOntEntity(dst, OntNDP.class, "latitude");
+        OntNDP longitudeProp = TestUtils.findOntEntity(dst, OntNDP.class, "longitude");
+        OntNDP messageProp = TestUtils.findOntEntity(dst, OntNDP.class, "message");
+        OntIndividual foreign = resClass.createIndividual(dst.expandPrefix("result:foreign"))
+                .addAssertion(latitudeProp, dst.createLiteral("1.0"))
+                .addAssertion(longitudeProp, dst.createLiteral("2.0"));
+
+        MapManager manager = manager();
+        MapModel map = assembleMapping(manager, src, dst);
+        manager.getInferenceEngine(map).run(src, dst);
+        TestUtils.debug(dst);
+
+        Assert.assertEquals(4, dst.individuals().count());
+        validateIndividual(dst, SHIP_1_NAME, SHIP_1_COORDINATES);
+        validateIndividual(dst, SHIP_2_NAME, SHIP_2_COORDINATES);
+        validateIndividual(dst, SHIP_3_NAME, SHIP_3_COORDINATES);
+        // the self-context is run only for the individuals of this run:
+        Assert.assertFalse(dst.contains(foreign, messageProp));
+    }
+
     private static void validateIndividual(OntGraphModel m, String name, double[] coordinates) {
         String s = "res-" + name.toLowerCase().replace(" ", "-");
         LOGGER.debug("Validate '{}'", s);
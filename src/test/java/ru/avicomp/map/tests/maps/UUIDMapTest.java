@@ -18,6 +18,9 @@
 
 package ru.avicomp.map.tests.maps;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.expr.NodeValue;
 import org.apache.jena.vocabulary.RDF;
 import org.junit.Assert;
 import org.junit.Test;
@@ -26,6 +29,10 @@ import ru.avicomp.map.MapContext;
 import ru.avicomp.map.MapFunction;
 import ru.avicomp.map.MapManager;
 import ru.avicomp.map.MapModel;
+import ru.avicomp.map.spin.MapARQFactory;
+import ru.avicomp.map.spin.MapConfigImpl;
+import ru.avicomp.map.spin.MapManagerImpl;
+import ru.avicomp.map.spin.infer.InferenceEngineImpl;
 import ru.avicomp.map.spin.vocabulary.AVC;
 import ru.avicomp.map.utils.TestUtils;
 import ru.avicomp.ontapi.jena.model.OntClass;
@@ -62,6 +69,25 @@ public class UUIDMapTest extends MapTestData1 {
         manager.getInferenceEngine(mapping).run(src, dst);
         Assert.assertEquals(4, dst.individuals().count());
         Assert.assertEquals(4, dstClass.individuals().count());
+        // each run has its own function cache, nothing is left in the manager:
+        Cache<Node, NodeValue> cache = ((MapManagerImpl) manager).getFactory().getContext()
+                .get(MapARQFactory.NODE_TO_VALUE_CACHE);
+        Assert.assertEquals(0, cache.estimatedSize());
+    }
+
+    @Test
+    public void testScheduleSubClassIndividuals() {
+        OntGraphModel src = assembleSource();
+        OntGraphModel dst = assembleTarget();
+        MapManager manager = TestUtils.withConfig(MapConfigImpl.INSTANCE.setInferenceParallelism(2));
+        MapModel mapping = assembleMapping(manager, src, dst);
+        InferenceEngineImpl engine = (InferenceEngineImpl) manager.getInferenceEngine(mapping);
+        Assert.assertNotNull(engine.createSchedule(engine.selectMapRules(engine.assembleQueryModel())));
+
+        engine.run(src, dst);
+        TestUtils.debug(dst);
+        // three individuals belong to the SubClass1, which is a subclass of the context SourceClass1:
+        Assert.assertEquals(4, dst.individuals().count());
     }
 
     @Override
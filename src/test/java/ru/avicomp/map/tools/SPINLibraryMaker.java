@@ -129,6 +129,35 @@ public class SPINLibraryMaker {
                 .addProperty(AVC.constraint, LibraryMaker.createConstraint(m, SP.arg2).addProperty(SPL.optional, Models.TRUE))
                 .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spl.object.class.getName());
 
+        // SPL:objectCount and SPL:hasValue optimizations
+        SPL.objectCount.inModel(m)
+                .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spl.objectCount.class.getName());
+        SPL.hasValue.inModel(m)
+                .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spl.hasValue.class.getName());
+
+        // SPINMAPL target functions optimizations
+        SPINMAPL.buildURI1.inModel(m)
+                .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spinmapl.buildURI1.class.getName());
+        SPINMAPL.buildURI2.inModel(m)
+                .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spinmapl.buildURI2.class.getName());
+        SPINMAPL.buildURI3.inModel(m)
+                .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spinmapl.buildURI3.class.getName());
+        SPINMAPL.buildURI4.inModel(m)
+                .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spinmapl.buildURI4.class.getName());
+        SPINMAPL.buildURI5.inModel(m)
+                .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spinmapl.buildURI5.class.getName());
+        SPINMAPL.composeURI.inModel(m)
+                .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spinmapl.composeURI.class.getName());
+        SPINMAPL.changeNamespace.inModel(m)
+                .addProperty(AVC.optimize, ru.avicomp.map.spin.functions.spinmapl.changeNamespace.class.getName());
+
+        // SPARQL-based string helpers, that depend only on their arguments, their results are memorized:
+        Stream.of(SPIF.localName, SPIF.resource("generateLabel"),
+                SPINMAPL.resource("pathEnd"), SPINMAPL.resource("pathParent"),
+                SPINMAPL.resource("fixedLengthPathParent"), SPINMAPL.resource("toBoolean"))
+                .map(r -> r.inModel(m))
+                .forEach(r -> r.addProperty(AVC.deterministic, Models.TRUE));
+
         // FN:abs (sp:abs and fn:abs both uses org.apache.jena.sparql.expr.nodevalue.XSDFuncOp#abs()).
         // Choose sp:abs since it must be used more commonly
         FN.resource("abs").inModel(m).addProperty(hidden, "Duplicates the function sp:abs.");
@@ -38,10 +38,13 @@ import ru.avicomp.map.MapFunction;
 import ru.avicomp.map.MapJenaException;
 import ru.avicomp.map.MapManager;
 import ru.avicomp.map.MapModel;
+import ru.avicomp.map.OWLMapManager;
 import ru.avicomp.map.spin.*;
 import ru.avicomp.map.spin.vocabulary.SPINMAPL;
 import ru.avicomp.map.tests.ClassPropertiesTest;
+import ru.avicomp.ontapi.NoOpReadWriteLock;
 import ru.avicomp.ontapi.OntFormat;
+import ru.avicomp.ontapi.OntManagers;
 import ru.avicomp.ontapi.jena.OntModelFactory;
 import ru.avicomp.ontapi.jena.impl.OntObjectImpl;
 import ru.avicomp.ontapi.jena.impl.conf.OntModelConfig;
@@ -104,6 +107,21 @@ public class TestUtils {
         };
     }
 
+    /**
+     * Creates an OWL manager with the given config.
+     *
+     * @param config {@link MapConfigImpl}, not {@code null}
+     * @return {@link OWLMapManager}
+     * @see MapConfigImpl
+     */
+    public static OWLMapManager withOWLConfig(MapConfigImpl config) {
+        return new OWLMapManagerImpl(Factory.createGraphMem(),
+                OntManagers.DEFAULT_PROFILE.dataFactory(),
+                OntManagers.DEFAULT_PROFILE.createOntologyFactory(OntManagers.DEFAULT_PROFILE.createOntologyBuilder()),
+                Objects.requireNonNull(config),
+                NoOpReadWriteLock.NO_OP_RW_LOCK);
+    }
+
     /**
      * Returns {@link MapConfig}.
      *